@@ -0,0 +1,277 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchMask masks every file of a directory or glob in one run with one MaskContext
+ *
+ * The files are numbered in path order as if they were one input: the records of every file are counted, then every
+ * file is indexed and then masked, each phase with one task per file on a fork join pool.  An NDJSON file is cut in
+ * chunks that its task forks onto the same pool, so idle workers steal the chunks of big files.  The pseudonym table
+ * and leak index are shared, so a member_id is masked the same way in every file and the output is the output of
+ * masking the concatenated files.
+ */
+public class BatchMask {
+
+    private final ForkJoinPool pool;
+    private final StreamingMask json;
+    private final NdjsonMask ndjson;
+    private final MaskOutput output;
+    private final List<FileReport> reports = new ArrayList<>();
+    private long nanos;
+
+    /**
+     * @param objectMapper parses the records
+     * @param pool         masks the files and the chunks of NDJSON files
+     * @param lines        true if the files hold one record per line, false for json arrays
+     * @param chunkBytes   size NDJSON files are cut at before moving to the next line break
+     * @param output       layout, compression and splitting of every masked file
+     */
+    public BatchMask(ObjectMapper objectMapper, ForkJoinPool pool, boolean lines, int chunkBytes, MaskOutput output) {
+        this.pool = pool;
+        this.json = lines ? null : new StreamingMask(objectMapper);
+        this.ndjson = lines ? new NdjsonMask(objectMapper, pool, chunkBytes, output) : null;
+        this.output = output;
+    }
+
+    /**
+     * isBatch
+     *
+     * @return true if the path is a directory or a glob, a file whose name holds a wildcard such as claims[1].json is
+     * not a batch
+     */
+    public static boolean isBatch(String path) {
+        File file = new File(path);
+        return file.isDirectory() || (!file.isFile() && glob(path) >= 0);
+    }
+
+    /**
+     * files
+     *
+     * @param path      a directory, whose files ending in the extension are masked, or a glob such as
+     *                  drops/2024-*.json, where ** also matches across directories
+     * @param extension extension of the input files of a directory
+     * @return the matching files in path order, without masked files
+     * @throws IOException if no file matches
+     */
+    public static List<File> files(String path, String extension) throws IOException {
+        File dir = new File(path);
+        List<File> files;
+        if (dir.isDirectory()) {
+            File[] listed = dir.listFiles(file -> file.isFile() && file.getName().endsWith(extension));
+            files = new ArrayList<>();
+            if (listed != null) {
+                Collections.addAll(files, listed);
+            }
+        } else {
+            // walk the directory before the first wildcard, only as deep as the glob unless it has **
+            String absolute = dir.getAbsolutePath();
+            int separator = absolute.lastIndexOf(File.separatorChar, glob(absolute));
+            Path base = Paths.get(absolute.substring(0, separator + 1));
+            String rest = absolute.substring(separator + 1);
+            int depth = 1;
+            for (int i = 0; i < rest.length(); i++) {
+                if (rest.charAt(i) == File.separatorChar) {
+                    depth++;
+                }
+            }
+            if (rest.contains("**")) {
+                depth = Integer.MAX_VALUE;
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + absolute);
+            if (!Files.isDirectory(base)) {
+                throw new IOException("No files to mask in " + path);
+            }
+            try (Stream<Path> walk = Files.walk(base, depth)) {
+                files = walk.filter(Files::isRegularFile)
+                        .filter(matcher::matches)
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+            }
+        }
+        files.removeIf(file -> file.getName().contains(".masked"));
+        if (files.isEmpty()) {
+            throw new IOException("No files to mask in " + path);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static int glob(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if ("*?[{".indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * anonymizeFiles
+     *
+     * @param in      input files, numbered in this order
+     * @param out     masked file of each input file, or the base name of its parts if the output is split
+     * @param context state of the masking run, shared by every file
+     * @return number of records masked
+     */
+    public int anonymizeFiles(List<File> in, List<File> out, MaskContext context) throws IOException {
+        if (in.size() != out.size()) {
+            throw new IllegalArgumentException("Every input file needs an output file");
+        }
+        long start = System.nanoTime();
+        reports.clear();
+        for (int i = 0; i < in.size(); i++) {
+            reports.add(new FileReport(in.get(i), out.get(i)));
+        }
+        forEachFile(report -> report.records = (json != null) ? json.countRecords(report.file)
+                : ndjson.countRecords(report.file));
+        int records = 0;
+        for (FileReport report : reports) {
+            report.first = records + 1;
+            records += report.records;
+        }
+        forEachFile(report -> {
+            long indexStart = System.nanoTime();
+            if (json != null) {
+                json.indexFile(report.file, context, report.first);
+            } else {
+                ndjson.indexFile(report.file, context, report.first);
+            }
+            report.indexNanos = System.nanoTime() - indexStart;
+        });
+        forEachFile(report -> {
+            long maskStart = System.nanoTime();
+            if (json != null) {
+                json.anonymizeFile(report.file, report.out, context, output, report.first);
+            } else {
+                ndjson.maskFile(report.file, report.out, context, report.first);
+            }
+            report.maskNanos = System.nanoTime() - maskStart;
+        });
+        nanos = System.nanoTime() - start;
+        return records;
+    }
+
+    /**
+     * @return timings of the files of the last run, in input order
+     */
+    public List<FileReport> getReports() {
+        return Collections.unmodifiableList(reports);
+    }
+
+    /**
+     * report
+     *
+     * @return one line per file with its records, size and the time spent indexing and masking it, and a total line
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        long records = 0;
+        long bytes = 0;
+        for (FileReport file : reports) {
+            report.append(String.format("%s: %d records, %d bytes, index %d ms, mask %d ms%n", file.file,
+                    file.records, file.bytes, TimeUnit.NANOSECONDS.toMillis(file.indexNanos),
+                    TimeUnit.NANOSECONDS.toMillis(file.maskNanos)));
+            records += file.records;
+            bytes += file.bytes;
+        }
+        report.append(String.format("batch %d files, %d records, %d bytes in %d ms%n", reports.size(), records,
+                bytes, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        return report.toString();
+    }
+
+    private void forEachFile(FileAction action) throws IOException {
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>(reports.size());
+        for (FileReport report : reports) {
+            tasks.add(pool.submit(ForkJoinTask.adapt(() -> {
+                action.accept(report);
+                return null;
+            })));
+        }
+        for (ForkJoinTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while masking", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * FileReport holds the record count and timings of one file of a batch
+     */
+    public static final class FileReport {
+
+        private final File file;
+        private final File out;
+        private final long bytes;
+        private int records;
+        private int first;
+        private long indexNanos;
+        private long maskNanos;
+
+        FileReport(File file, File out) {
+            this.file = file;
+            this.out = out;
+            this.bytes = file.length();
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return record number of the file's first record in the batch
+         */
+        public int getFirst() {
+            return first;
+        }
+
+        public long getIndexNanos() {
+            return indexNanos;
+        }
+
+        public long getMaskNanos() {
+            return maskNanos;
+        }
+    }
+
+    private interface FileAction {
+        void accept(FileReport report) throws IOException;
+    }
+}
@@ -0,0 +1,101 @@
+package com.tackleset.masker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BloomLeakIndex is a fixed size LeakIndex for runs with too many sensitive values to keep in a hash map
+ *
+ * It may report a value that was never seen, at the configured false positive rate, and it does not know which record
+ * a value came from, so parallel runs also match values first seen in later records.
+ */
+public class BloomLeakIndex implements LeakIndex {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    /**
+     * @param expectedValues    number of distinct sensitive values the filter is sized for
+     * @param falsePositiveRate chance of matching a value that was never added, between 0 and 1
+     */
+    public BloomLeakIndex(long expectedValues, double falsePositiveRate) {
+        if (expectedValues < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Bloom filter needs a positive size and a rate between 0 and 1");
+        }
+        long size = (long) Math.ceil(-expectedValues * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long wordCount = Math.max((size + 63) >>> 6, 1);
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large for " + expectedValues + " values");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bits = wordCount << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedValues * Math.log(2)));
+    }
+
+    @Override
+    public void add(String value, int iteration) {
+        long hash1 = Hashes.hash(value);
+        long hash2 = Hashes.fmix(hash1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String value, int iteration) {
+        long hash1 = Hashes.hash(value);
+        long hash2 = Hashes.fmix(hash1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out, KeyedDigest digest) throws IOException {
+        out.writeLong(bits);
+        out.writeInt(hashes);
+        for (int i = 0; i < words.length(); i++) {
+            out.writeLong(words.get(i));
+        }
+    }
+
+    @Override
+    public void readFrom(DataInputStream in, KeyedDigest digest) throws IOException {
+        long savedBits = in.readLong();
+        int savedHashes = in.readInt();
+        if (savedBits != bits || savedHashes != hashes) {
+            throw new IOException("Bloom filter of " + savedBits + " bits and " + savedHashes +
+                    " hashes does not match this filter of " + bits + " bits and " + hashes + " hashes");
+        }
+        for (int i = 0; i < words.length(); i++) {
+            long saved = in.readLong();
+            long current = words.get(i);
+            while (!words.compareAndSet(i, current, current | saved)) {
+                current = words.get(i);
+            }
+        }
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+}
@@ -0,0 +1,426 @@
+package com.tackleset.masker;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checkpoint keeps the progress of an NDJSON masking run in a directory so a failed run resumes where it stopped
+ *
+ * The manifest lists the input chunks with their offset, first record number and SHA-256, and the seed of the random
+ * hint.  After the index pass the leak index and pseudonym claims are saved as the run's state, keyed by the digests
+ * of the pseudonym table so no original value is written, reloaded only by a table with the same digest key, which a
+ * token key makes the same in every run, and deleted when every chunk is masked.  Every masked chunk is written to a
+ * part file followed by a marker with its input hash and the size and hash of the part.  The masked output of a chunk
+ * only depends on the chunks before it, so when the same input is masked again with the same options the parts of the
+ * chunks matching the manifest are reused, the state is reloaded instead of indexing the input again if no chunk
+ * changed, and the output is byte-identical to a run from scratch.  The files of the checkpoint are readable by their
+ * owner only.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x4d534b43;
+    private static final int VERSION = 2;
+    private static final String MANIFEST = "manifest";
+    private static final String STATE = "state";
+
+    private final File dir;
+    private final byte[] fingerprint;
+    private final long seed;
+    private final List<Saved> saved;
+    private final boolean savedState;
+    private boolean[] finished = new boolean[0];
+    private int reused;
+
+    private Checkpoint(File dir, byte[] fingerprint, long seed, List<Saved> saved, boolean savedState) {
+        this.dir = dir;
+        this.fingerprint = fingerprint;
+        this.seed = seed;
+        this.saved = saved;
+        this.savedState = savedState;
+    }
+
+    /**
+     * open
+     *
+     * @param dir     directory of the checkpoint, created if missing
+     * @param options every option that changes the masked output, a checkpoint of other options is discarded
+     * @param key     token key, null if there is none, see fingerprint
+     * @param seed    seed of the random hint, null to keep the seed of the checkpoint or pick a new one
+     * @return the checkpoint of the previous run with the same options and key, or an empty one
+     */
+    public static Checkpoint open(File dir, String options, String key, Long seed) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create checkpoint directory " + dir);
+        }
+        byte[] fingerprint = fingerprint(options, key);
+        File manifest = new File(dir, MANIFEST);
+        if (manifest.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+                byte[] savedFingerprint = new byte[fingerprint.length];
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    in.readFully(savedFingerprint);
+                }
+                if (Arrays.equals(fingerprint, savedFingerprint)) {
+                    long savedSeed = in.readLong();
+                    boolean savedState = in.readBoolean();
+                    List<Saved> chunks = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        Saved chunk = new Saved(in.readLong(), in.readInt(), in.readInt(), new byte[fingerprint.length]);
+                        in.readFully(chunk.hash);
+                        chunks.add(chunk);
+                    }
+                    return new Checkpoint(dir, fingerprint, (seed != null) ? seed : savedSeed, chunks, savedState);
+                }
+            }
+        }
+        // a new run, or a checkpoint of other options or another version
+        clear(dir, 0);
+        return new Checkpoint(dir, fingerprint, (seed != null) ? seed : new SecureRandom().nextLong(),
+                new ArrayList<>(), false);
+    }
+
+    /**
+     * @return seed of the random hint, the same for every run of the checkpoint
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return number of parts reused from earlier runs
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * begin
+     *
+     * Compares the chunks with the manifest, keeps the finished parts of the chunks matching it and records the new
+     * chunks in the manifest
+     *
+     * @param chunks the input chunks with their first record number and hash
+     * @return true if the saved state is the state of these chunks and the index pass can be skipped
+     */
+    boolean begin(List<NdjsonMask.Chunk> chunks) throws IOException {
+        int matching = 0;
+        while (matching < chunks.size() && matching < saved.size() && saved.get(matching).matches(chunks.get(matching))) {
+            matching++;
+        }
+        boolean state = savedState && matching == chunks.size() && matching == saved.size();
+        finished = new boolean[chunks.size()];
+        for (int i = 0; i < matching; i++) {
+            finished[i] = isPartValid(chunks.get(i));
+            if (finished[i]) {
+                reused++;
+            } else {
+                partMarker(i).delete();
+                part(i).delete();
+            }
+        }
+        clear(dir, matching);
+        if (!state) {
+            new File(dir, STATE).delete();
+        }
+        writeManifest(chunks, state);
+        return state;
+    }
+
+    /**
+     * @return true if the chunk's part was finished by an earlier run
+     */
+    boolean isFinished(NdjsonMask.Chunk chunk) {
+        return finished[chunk.getIndex()];
+    }
+
+    /**
+     * @return the part file the chunk is masked into
+     */
+    File part(int index) {
+        return new File(dir, "part-" + index);
+    }
+
+    /**
+     * loadState
+     *
+     * @param context receives the saved leak index and pseudonym claims
+     * @return false if the state was saved by a pseudonym table with another digest key and cannot be used
+     */
+    boolean loadState(MaskContext context) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(dir, STATE)), 1 << 16))) {
+            KeyedDigest digest = context.getPseudonyms().getDigest();
+            byte[] id = new byte[KeyedDigest.LENGTH];
+            in.readFully(id);
+            if (!Arrays.equals(id, digest.getId())) {
+                return false;
+            }
+            context.getLeakIndex().readFrom(in, digest);
+            context.getPseudonyms().readFrom(in);
+            return true;
+        }
+    }
+
+    /**
+     * saveState
+     *
+     * @param chunks  the indexed chunks
+     * @param context holds the leak index and pseudonym claims of every chunk
+     */
+    void saveState(List<NdjsonMask.Chunk> chunks, MaskContext context) throws IOException {
+        KeyedDigest digest = context.getPseudonyms().getDigest();
+        write(new File(dir, STATE), out -> {
+            out.write(digest.getId());
+            context.getLeakIndex().writeTo(out, digest);
+            context.getPseudonyms().writeTo(out);
+        });
+        writeManifest(chunks, true);
+    }
+
+    /**
+     * finish
+     *
+     * @param chunk the masked chunk, its part file is complete
+     * @param hash  SHA-256 of the part file
+     */
+    void finish(NdjsonMask.Chunk chunk, byte[] hash) throws IOException {
+        long length = part(chunk.getIndex()).length();
+        write(partMarker(chunk.getIndex()), out -> {
+            out.write(chunk.getHash());
+            out.writeInt(chunk.getFirst());
+            out.writeLong(length);
+            out.write(hash);
+        });
+    }
+
+    /**
+     * complete
+     *
+     * Deletes the state once every part is finished, a later run of the same input reuses the parts without it
+     *
+     * @param chunks the masked chunks
+     */
+    void complete(List<NdjsonMask.Chunk> chunks) throws IOException {
+        writeManifest(chunks, false);
+        Files.deleteIfExists(new File(dir, STATE).toPath());
+    }
+
+    /**
+     * @return true if every chunk's part was finished by an earlier run
+     */
+    boolean isComplete() {
+        for (boolean part : finished) {
+            if (!part) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * summary
+     *
+     * @return one line with the number of reused parts
+     */
+    public String summary() {
+        return String.format("checkpoint reused %d of %d parts%n", reused, finished.length);
+    }
+
+    /**
+     * fingerprint
+     *
+     * The token key is never part of the hashed options, a plain hash of it in the manifest could be brute forced, so
+     * with a key the fingerprint is an HMAC-SHA256 of the options keyed by it and a checkpoint of another key is
+     * discarded like one of other options
+     *
+     * @param options every option that changes the masked output, without the token key
+     * @param key     token key, null for a SHA-256 of the options
+     * @return the fingerprint stored in the manifest
+     */
+    static byte[] fingerprint(String options, String key) {
+        byte[] bytes = options.getBytes(StandardCharsets.UTF_8);
+        if (key == null) {
+            return sha256().digest(bytes);
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * hash
+     *
+     * @return SHA-256 of the remaining bytes of the buffer, which is not moved
+     */
+    static byte[] hash(ByteBuffer bytes) {
+        MessageDigest digest = sha256();
+        digest.update(bytes.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * sync
+     *
+     * Forces the closed file's data to the disk
+     */
+    static void sync(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private File partMarker(int index) {
+        return new File(dir, "part-" + index + ".done");
+    }
+
+    private boolean isPartValid(NdjsonMask.Chunk chunk) throws IOException {
+        File marker = partMarker(chunk.getIndex());
+        File part = part(chunk.getIndex());
+        if (!marker.isFile() || !part.isFile()) {
+            return false;
+        }
+        byte[] inputHash = new byte[fingerprint.length];
+        byte[] outputHash = new byte[fingerprint.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(marker))) {
+            in.readFully(inputHash);
+            if (!Arrays.equals(inputHash, chunk.getHash()) || in.readInt() != chunk.getFirst() ||
+                    in.readLong() != part.length()) {
+                return false;
+            }
+            in.readFully(outputHash);
+        }
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(new FileInputStream(part), digest)) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) >= 0) {
+                // read for the digest
+            }
+        }
+        return Arrays.equals(outputHash, digest.digest());
+    }
+
+    private void writeManifest(List<NdjsonMask.Chunk> chunks, boolean state) throws IOException {
+        write(new File(dir, MANIFEST), out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(fingerprint);
+            out.writeLong(seed);
+            out.writeBoolean(state);
+            out.writeInt(chunks.size());
+            for (NdjsonMask.Chunk chunk : chunks) {
+                out.writeLong(chunk.getStart());
+                out.writeInt(chunk.getLength());
+                out.writeInt(chunk.getFirst());
+                out.write(chunk.getHash());
+            }
+        });
+    }
+
+    /**
+     * write
+     *
+     * Writes the file through a temporary file that is synced and renamed, so a crash leaves the old or the new file,
+     * readable by its owner only
+     */
+    private static void write(File file, Writer writer) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        PrivateFiles.create(temp);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            writer.write(out);
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * clear
+     *
+     * Deletes the parts and markers of chunk keep and later
+     */
+    private static void clear(File dir, int keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith("part-")) {
+                continue;
+            }
+            String index = name.substring("part-".length()).replace(".done", "").replace(".tmp", "");
+            try {
+                if (Integer.parseInt(index) >= keep) {
+                    file.delete();
+                }
+            } catch (NumberFormatException e) {
+                // not a part of this checkpoint
+            }
+        }
+    }
+
+    /**
+     * a chunk of the manifest
+     */
+    private static final class Saved {
+
+        private final long start;
+        private final int length;
+        private final int first;
+        private final byte[] hash;
+
+        Saved(long start, int length, int first, byte[] hash) {
+            this.start = start;
+            this.length = length;
+            this.first = first;
+            this.hash = hash;
+        }
+
+        boolean matches(NdjsonMask.Chunk chunk) {
+            return start == chunk.getStart() && length == chunk.getLength() && first == chunk.getFirst() &&
+                    Arrays.equals(hash, chunk.getHash());
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
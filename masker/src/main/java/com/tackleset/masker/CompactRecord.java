@@ -0,0 +1,540 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * CompactRecord is a flat record bound to a schema of known field names
+ *
+ * The schema is a key table shared by every record, each of its fields has a fixed slot.  Integers and decimals are
+ * kept unboxed in a long per slot with a tag for their type, other values in an object per slot, and the record only
+ * keeps the order its fields were read in.  Fields missing from the schema are kept in a small overflow table.  Jackson
+ * binds json objects straight into the slots, and the record reads and writes like the LinkedHashMap Jackson would
+ * have made: same iteration order and the same Integer, Long, Double or String values.
+ */
+@JsonDeserialize(using = CompactRecord.Deserializer.class)
+public final class CompactRecord extends AbstractMap<String, Object> {
+
+    /**
+     * the schema of the fields of Mask.SENSITIVES and Mask.NON_SENSITIVES
+     */
+    public static final Schema SCHEMA = Schema.of(Mask.SENSITIVES.keySet(), Mask.NON_SENSITIVES.keySet());
+
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte OBJECT = 5;
+
+    private final Schema schema;
+    private final byte[] tags;
+    private final long[] numbers;
+    private final Object[] objects;
+    // slot of each field in the order it was put, slots from schema.size() on are in the overflow table
+    private short[] order;
+    private int size;
+    private String[] extraKeys;
+    private Object[] extraValues;
+    private int extras;
+
+    public CompactRecord() {
+        this(SCHEMA);
+    }
+
+    /**
+     * @param schema key table of the record
+     */
+    public CompactRecord(Schema schema) {
+        this.schema = schema;
+        this.tags = new byte[schema.size()];
+        this.numbers = new long[schema.size()];
+        this.objects = new Object[schema.size()];
+        this.order = new short[schema.size()];
+    }
+
+    /**
+     * @return key table of the record
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = schema.slot(key);
+        return (slot >= 0) ? tags[slot] != ABSENT : extra(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = schema.slot(key);
+        if (slot >= 0) {
+            return value(slot);
+        }
+        int extra = extra(key);
+        return (extra >= 0) ? extraValues[extra] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = schema.slot(key);
+        if (slot < 0) {
+            return putExtra(key, value);
+        }
+        Object old = value(slot);
+        if (tags[slot] == ABSENT) {
+            append(slot);
+        }
+        set(slot, value);
+        return old;
+    }
+
+    /**
+     * putLong
+     *
+     * Puts a json integer without boxing it, as an Integer if it fits like Jackson does
+     */
+    public void putLong(String key, long value) {
+        int slot = schema.slot(key);
+        if (slot < 0) {
+            putExtra(key, (value == (int) value) ? Integer.valueOf((int) value) : Long.valueOf(value));
+            return;
+        }
+        if (tags[slot] == ABSENT) {
+            append(slot);
+        }
+        tags[slot] = (value == (int) value) ? INT : LONG;
+        numbers[slot] = value;
+        objects[slot] = null;
+    }
+
+    /**
+     * putDouble
+     *
+     * Puts a json decimal without boxing it
+     */
+    public void putDouble(String key, double value) {
+        int slot = schema.slot(key);
+        if (slot < 0) {
+            putExtra(key, value);
+            return;
+        }
+        if (tags[slot] == ABSENT) {
+            append(slot);
+        }
+        tags[slot] = DOUBLE;
+        numbers[slot] = Double.doubleToRawLongBits(value);
+        objects[slot] = null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = schema.slot(key);
+        if (slot < 0) {
+            int extra = extra(key);
+            if (extra < 0) {
+                return null;
+            }
+            slot = tags.length + extra;
+        } else if (tags[slot] == ABSENT) {
+            return null;
+        }
+        Object old = (slot < tags.length) ? value(slot) : extraValues[slot - tags.length];
+        for (int position = 0; position < size; position++) {
+            if (order[position] == slot) {
+                removeAt(position);
+                break;
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(tags, ABSENT);
+        Arrays.fill(objects, null);
+        if (extraValues != null) {
+            Arrays.fill(extraKeys, null);
+            Arrays.fill(extraValues, null);
+        }
+        size = 0;
+        extras = 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int position;
+                    private boolean removable;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < size;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (position >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        removable = true;
+                        return new Field(order[position++]);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!removable) {
+                            throw new IllegalStateException();
+                        }
+                        removable = false;
+                        removeAt(--position);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * writeNumber
+     *
+     * Writes the field at the position of the record's order to the generator, numbers without boxing them
+     *
+     * @return false if the value is not a number and was not written
+     */
+    boolean writeNumber(int position, JsonGenerator generator) throws IOException {
+        int slot = order[position];
+        if (slot >= tags.length) {
+            return false;
+        }
+        switch (tags[slot]) {
+            case INT:
+                generator.writeNumber((int) numbers[slot]);
+                return true;
+            case LONG:
+                generator.writeNumber(numbers[slot]);
+                return true;
+            case DOUBLE:
+                generator.writeNumber(Double.longBitsToDouble(numbers[slot]));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Object value(int slot) {
+        switch (tags[slot]) {
+            case INT:
+                return (int) numbers[slot];
+            case LONG:
+                return numbers[slot];
+            case DOUBLE:
+                return Double.longBitsToDouble(numbers[slot]);
+            default:
+                return objects[slot];
+        }
+    }
+
+    private void set(int slot, Object value) {
+        objects[slot] = null;
+        if (value == null) {
+            tags[slot] = NULL;
+        } else if (value instanceof Integer) {
+            tags[slot] = INT;
+            numbers[slot] = (Integer) value;
+        } else if (value instanceof Long) {
+            tags[slot] = LONG;
+            numbers[slot] = (Long) value;
+        } else if (value instanceof Double) {
+            tags[slot] = DOUBLE;
+            numbers[slot] = Double.doubleToRawLongBits((Double) value);
+        } else {
+            tags[slot] = OBJECT;
+            objects[slot] = value;
+        }
+    }
+
+    /**
+     * Removes the field at the position of the record's order, an overflow field moves the ones after it down a slot
+     */
+    private void removeAt(int position) {
+        int slot = order[position];
+        System.arraycopy(order, position + 1, order, position, size - position - 1);
+        size--;
+        if (slot < tags.length) {
+            tags[slot] = ABSENT;
+            objects[slot] = null;
+            return;
+        }
+        int extra = slot - tags.length;
+        System.arraycopy(extraKeys, extra + 1, extraKeys, extra, extras - extra - 1);
+        System.arraycopy(extraValues, extra + 1, extraValues, extra, extras - extra - 1);
+        extras--;
+        extraKeys[extras] = null;
+        extraValues[extras] = null;
+        for (int i = 0; i < size; i++) {
+            if (order[i] > slot) {
+                order[i]--;
+            }
+        }
+    }
+
+    private void append(int slot) {
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size + 4);
+        }
+        order[size++] = (short) slot;
+    }
+
+    private int extra(Object key) {
+        for (int i = 0; i < extras; i++) {
+            if (extraKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object putExtra(String key, Object value) {
+        int extra = extra(key);
+        if (extra >= 0) {
+            Object old = extraValues[extra];
+            extraValues[extra] = value;
+            return old;
+        }
+        if (extraKeys == null) {
+            extraKeys = new String[4];
+            extraValues = new Object[4];
+        } else if (extras == extraKeys.length) {
+            extraKeys = Arrays.copyOf(extraKeys, extras * 2);
+            extraValues = Arrays.copyOf(extraValues, extras * 2);
+        }
+        if (tags.length + extras > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many fields in a compact record");
+        }
+        extraKeys[extras] = key;
+        extraValues[extras] = value;
+        append(tags.length + extras++);
+        return null;
+    }
+
+    /**
+     * a field of the record, reading and writing its slot
+     */
+    final class Field implements Entry<String, Object> {
+
+        private final int slot;
+
+        Field(int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * @return slot of the field, a slot of the schema if below its size and an overflow field otherwise
+         */
+        int getSlot() {
+            return slot;
+        }
+
+        /**
+         * @return true if the value is an Integer, Long or Double kept unboxed, see getNumber
+         */
+        boolean isNumber() {
+            return slot < tags.length && tags[slot] >= INT && tags[slot] <= DOUBLE;
+        }
+
+        /**
+         * @return true if the value is an unboxed Integer or Long
+         */
+        boolean isWhole() {
+            return slot < tags.length && (tags[slot] == INT || tags[slot] == LONG);
+        }
+
+        /**
+         * @return the whole number of the field without boxing it, only valid if isWhole
+         */
+        long getNumber() {
+            return numbers[slot];
+        }
+
+        @Override
+        public String getKey() {
+            return (slot < tags.length) ? schema.name(slot) : extraKeys[slot - tags.length];
+        }
+
+        @Override
+        public Object getValue() {
+            return (slot < tags.length) ? value(slot) : extraValues[slot - tags.length];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = getValue();
+            if (slot < tags.length) {
+                set(slot, value);
+            } else {
+                extraValues[slot - tags.length] = value;
+            }
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(entry.getKey()) &&
+                    (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Schema is the shared key table of compact records, one slot per field name
+     */
+    public static final class Schema {
+
+        private final String[] names;
+        private final Map<String, Integer> slots;
+
+        private Schema(String[] names) {
+            this.names = names;
+            this.slots = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                slots.put(names[i], i);
+            }
+        }
+
+        /**
+         * of
+         *
+         * @param fields field names, duplicates get one slot
+         * @return the schema with a slot per field name in iteration order
+         */
+        @SafeVarargs
+        public static Schema of(Collection<String>... fields) {
+            Set<String> names = new LinkedHashSet<>();
+            for (Collection<String> field : fields) {
+                names.addAll(field);
+            }
+            if (names.size() > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("A schema has at most " + Short.MAX_VALUE + " fields");
+            }
+            return new Schema(names.toArray(new String[names.size()]));
+        }
+
+        /**
+         * @return number of slots
+         */
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @return the slot of the field, -1 if the schema does not have it
+         */
+        public int slot(Object name) {
+            Integer slot = slots.get(name);
+            return (slot != null) ? slot : -1;
+        }
+
+        /**
+         * @return the field name of the slot
+         */
+        public String name(int slot) {
+            return names[slot];
+        }
+    }
+
+    /**
+     * Deserializer binds a json object into a compact record of the default schema
+     *
+     * Numbers are read from the parser into their slots without boxing, nested values are read like Jackson reads them
+     * into a Map.
+     */
+    static final class Deserializer extends JsonDeserializer<CompactRecord> {
+
+        @Override
+        public CompactRecord deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            CompactRecord record = new CompactRecord();
+            JsonToken token = parser.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = parser.nextToken();
+            } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                throw context.mappingException(CompactRecord.class, token);
+            }
+            for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                String name = parser.getCurrentName();
+                switch (parser.nextToken()) {
+                    case VALUE_STRING:
+                        record.put(name, parser.getText());
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            record.put(name, parser.getBigIntegerValue());
+                        } else {
+                            record.putLong(name, parser.getLongValue());
+                        }
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        record.putDouble(name, parser.getDoubleValue());
+                        break;
+                    case VALUE_TRUE:
+                        record.put(name, Boolean.TRUE);
+                        break;
+                    case VALUE_FALSE:
+                        record.put(name, Boolean.FALSE);
+                        break;
+                    case VALUE_NULL:
+                        record.put(name, null);
+                        break;
+                    default:
+                        record.put(name, context.findRootValueDeserializer(context.constructType(Object.class))
+                                .deserialize(parser, context));
+                }
+            }
+            return record;
+        }
+    }
+}
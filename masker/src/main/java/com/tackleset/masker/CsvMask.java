@@ -0,0 +1,410 @@
+package com.tackleset.masker;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CsvMask masks a CSV extract of flat records one column at a time
+ *
+ * The first row names the fields.  Rows are read in batches into one array per field and the field's rule, resolved
+ * once from the header, is applied to the whole column in one loop: sensitive columns first so their values are in the
+ * leak index, then the type checks and leak checks of the non sensitive columns.  Masked numbers stay in the pseudonym
+ * table as they are and are rendered with their FORMAT straight into the output.
+ */
+public class CsvMask {
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final String MISMATCH_TYPE = "MISMATCH TYPE";
+    private static final String SENSITIVE_MATCHING_VALUE = "SENSITIVE MATCHING VALUE";
+
+    private final int batchSize;
+
+    /**
+     * @param batchSize number of rows masked together
+     */
+    public CsvMask(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      UTF-8 CSV file with a header row
+     * @param out     masked CSV file with the same header
+     * @param context state of the masking run
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context) throws IOException {
+        return anonymizeFile(in, out, context, MaskOutput.DEFAULT);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      UTF-8 CSV file with a header row
+     * @param out     masked CSV file with the same header
+     * @param context state of the masking run
+     * @param output  compression and buffer size of the masked file, its mode and split size do not apply to CSV
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context, MaskOutput output) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(in), StandardCharsets.UTF_8);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(output.compress(new FileOutputStream(out)),
+                     StandardCharsets.UTF_8), 1 << 16)) {
+            int records = anonymize(reader, writer, context);
+            context.getMetrics().addBytes(in.length());
+            return records;
+        }
+    }
+
+    /**
+     * anonymize
+     *
+     * @param in      CSV with a header row
+     * @param out     receives the masked CSV, one record per line
+     * @param context state of the masking run
+     * @return number of records masked
+     * @throws IOException if a row does not have one value per header field
+     */
+    public int anonymize(Reader in, Writer out, MaskContext context) throws IOException {
+        CsvReader reader = new CsvReader(in);
+        List<String> header = new ArrayList<>();
+        if (!reader.readRow(header)) {
+            return 0;
+        }
+        int fields = header.size();
+        String[] names = header.toArray(new String[fields]);
+        FieldRule[] rules = new FieldRule[fields];
+        for (int f = 0; f < fields; f++) {
+            rules[f] = context.getPlan().rule(names[f]);
+        }
+        CsvWriter writer = new CsvWriter(out);
+        writer.writeRow(names);
+
+        String[][] columns = new String[fields][batchSize];
+        Object[][] masked = new Object[fields][batchSize];
+        List<String> row = new ArrayList<>(fields);
+        int records = 0;
+        while (true) {
+            int rows = 0;
+            while (rows < batchSize && reader.readRow(row)) {
+                if (row.size() != fields) {
+                    throw new IOException("Record " + (records + rows + 1) + " has " + row.size() +
+                            " values, the header has " + fields);
+                }
+                for (int f = 0; f < fields; f++) {
+                    columns[f][rows] = row.get(f);
+                }
+                rows++;
+            }
+            if (rows == 0) {
+                break;
+            }
+            maskBatch(names, rules, columns, masked, rows, records + 1, context);
+            for (int r = 0; r < rows; r++) {
+                writer.writeRow(rules, masked, r);
+            }
+            records += rows;
+            if (rows < batchSize) {
+                break;
+            }
+        }
+        out.flush();
+        return records;
+    }
+
+    /**
+     * maskBatch
+     *
+     * @param first record number of the batch's first row
+     */
+    private static void maskBatch(String[] names, FieldRule[] rules, String[][] columns, Object[][] masked, int rows,
+                                  int first, MaskContext context) {
+        MaskMetrics metrics = context.getMetrics();
+        LeakIndex leakIndex = context.getLeakIndex();
+        PseudonymTable pseudonyms = context.getPseudonyms();
+        // the original member ids of the date_shift hint
+        String[] members = null;
+        MaskPlan plan = context.getPlan();
+        String shiftKey = plan.getShiftKey();
+        // the original address_1 values the address hints mask from
+        String[] addresses = null;
+        String addressKey = plan.getAddressKey();
+        for (int f = 0; f < names.length; f++) {
+            if (names[f].equals(shiftKey)) {
+                members = columns[f];
+            }
+            if (names[f].equals(addressKey)) {
+                addresses = columns[f];
+            }
+        }
+        for (int f = 0; f < rules.length; f++) {
+            FieldRule rule = rules[f];
+            String[] column = columns[f];
+            Object[] out = masked[f];
+            if (rule.getKind() == FieldRule.KIND.SENSITIVE) {
+                for (int r = 0; r < rows; r++) {
+                    Mask.indexLeak(leakIndex, column[r], first + r);
+                }
+                if (rule.getHint() == null) {
+                    System.arraycopy(column, 0, out, 0, rows);
+                } else if (rule.isStateless()) {
+                    for (int r = 0; r < rows; r++) {
+                        out[r] = rule.mask(column[r], first + r, false, (members != null) ? members[r] : null);
+                    }
+                } else {
+                    for (int r = 0; r < rows; r++) {
+                        out[r] = pseudonyms.pseudonym(names[f], rule, MaskPlan.pseudonymValue(rule, column[r],
+                                (addresses != null) ? addresses[r] : null), first + r, metrics, false);
+                    }
+                }
+            } else if (rule.getKind() == FieldRule.KIND.UNKNOWN && !plan.isDetecting()) {
+                for (int r = 0; r < rows; r++) {
+                    out[r] = pseudonyms.pseudonym(names[f], rule, column[r], first + r, metrics, false);
+                }
+            }
+        }
+        // every sensitive value of the batch is indexed, check the non sensitive columns
+        for (int f = 0; f < rules.length; f++) {
+            FieldRule rule = rules[f];
+            if (rule.getKind() == FieldRule.KIND.UNKNOWN && plan.isDetecting()) {
+                maskUnknown(names[f], columns[f], masked[f], members, rows, first, context);
+            }
+            if (rule.getKind() != FieldRule.KIND.NON_SENSITIVE) {
+                continue;
+            }
+            String[] column = columns[f];
+            Object[] out = masked[f];
+            Mask.TYPE type = rule.getType();
+            boolean scanned = plan.isScanned(rule);
+            boolean timings = metrics.isTimings() && type != null;
+            long start = timings ? System.nanoTime() : 0;
+            for (int r = 0; r < rows; r++) {
+                String value = column[r];
+                out[r] = value;
+                if (type == null) {
+                    continue;
+                }
+                if (!type.validate(value)) {
+                    out[r] = MISMATCH_TYPE;
+                    metrics.recordMismatchType();
+                }
+                if (Mask.leakCandidate(value) != null && leakIndex.contains(value, first + r)) {
+                    out[r] = SENSITIVE_MATCHING_VALUE;
+                    metrics.recordSensitiveMatch();
+                } else if (scanned && out[r] == value) {
+                    PiiScanner scanner = PiiScanner.get();
+                    out[r] = Mask.maskPii(value, scanner, scanner.scan(value), plan, first + r,
+                            (members != null) ? members[r] : null, metrics);
+                }
+            }
+            if (timings) {
+                // one timing per column, spread evenly over its values
+                long each = (System.nanoTime() - start) / rows;
+                for (int r = 0; r < rows; r++) {
+                    metrics.recordType(type, each);
+                }
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            metrics.recordMasked(rules.length, first + r);
+        }
+    }
+
+    /**
+     * maskUnknown
+     *
+     * Masks a column of an unknown field whose values are scanned for PII: a value that is one finding gets the hint
+     * of its kind, free text keeps its words with the PII in it masked unless it leaks a sensitive value
+     *
+     * @param members original member ids of the rows, null if there are none
+     */
+    private static void maskUnknown(String name, String[] column, Object[] out, String[] members, int rows, int first,
+                                    MaskContext context) {
+        MaskPlan plan = context.getPlan();
+        MaskMetrics metrics = context.getMetrics();
+        PiiScanner scanner = PiiScanner.get();
+        for (int r = 0; r < rows; r++) {
+            String value = column[r];
+            Object member = (members != null) ? members[r] : null;
+            int found = scanner.scan(value);
+            if (!scanner.isWhole(value)) {
+                if (Mask.leakCandidate(value) != null && context.getLeakIndex().contains(value, first + r)) {
+                    out[r] = SENSITIVE_MATCHING_VALUE;
+                    metrics.recordSensitiveMatch();
+                } else {
+                    out[r] = Mask.maskPii(value, scanner, found, plan, first + r, member, metrics);
+                }
+                continue;
+            }
+            FieldRule masking = plan.piiRule(scanner.kind(0));
+            metrics.recordPii(scanner.kind(0));
+            out[r] = masking.isStateless() ? masking.mask(value, first + r, false, member)
+                    : context.getPseudonyms().pseudonym(name, masking, value, first + r, metrics, false);
+        }
+    }
+
+    /**
+     * CsvReader reads RFC 4180 rows: comma separated, optionally double quoted values with "" for a quote
+     */
+    static final class CsvReader {
+
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder value = new StringBuilder();
+        private int position;
+        private int length;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * readRow
+         *
+         * @param row cleared and filled with the values of the next row, empty lines are skipped
+         * @return false at the end of the input
+         */
+        boolean readRow(List<String> row) throws IOException {
+            row.clear();
+            int c = read();
+            while (c == '\r' || c == '\n') {
+                c = read();
+            }
+            if (c < 0) {
+                return false;
+            }
+            while (true) {
+                value.setLength(0);
+                if (c == '"') {
+                    while (true) {
+                        c = read();
+                        if (c < 0) {
+                            throw new IOException("Unterminated quoted value");
+                        }
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"') {
+                                break;
+                            }
+                        }
+                        value.append((char) c);
+                    }
+                } else {
+                    while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        value.append((char) c);
+                        c = read();
+                    }
+                }
+                row.add(value.toString());
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r') {
+                    c = read();
+                    if (c != '\n' && c >= 0) {
+                        position--;
+                    }
+                } else if (c >= 0 && c != '\n') {
+                    throw new IOException("Unexpected character after a quoted value: " + (char) c);
+                }
+                return true;
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == length) {
+                length = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+    }
+
+    /**
+     * CsvWriter writes rows, quoting values with a comma, quote or line break
+     */
+    static final class CsvWriter {
+
+        private final Writer out;
+        private final char[] buffer = new char[Formats.BUFFER_SIZE];
+
+        CsvWriter(Writer out) {
+            this.out = out;
+        }
+
+        void writeRow(String[] values) throws IOException {
+            for (int f = 0; f < values.length; f++) {
+                if (f > 0) {
+                    out.write(',');
+                }
+                writeString(values[f]);
+            }
+            out.write('\n');
+        }
+
+        /**
+         * writeRow
+         *
+         * Writes one row of masked columns, rendering formatted numbers into the buffer
+         */
+        void writeRow(FieldRule[] rules, Object[][] columns, int row) throws IOException {
+            for (int f = 0; f < columns.length; f++) {
+                if (f > 0) {
+                    out.write(',');
+                }
+                Object value = columns[f][row];
+                boolean formatted = rules[f].isFormatted();
+                if (value instanceof Integer || value instanceof Long) {
+                    long number = ((Number) value).longValue();
+                    int length = formatted ? rules[f].getFormat().format(number, buffer)
+                            : Formats.pad(number, 1, buffer);
+                    out.write(buffer, 0, length);
+                } else if (value != null) {
+                    writeString((formatted ? rules[f].getFormat().format(value) : value).toString());
+                }
+            }
+            out.write('\n');
+        }
+
+        private void writeString(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+    }
+}
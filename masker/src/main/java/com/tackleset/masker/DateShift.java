@@ -0,0 +1,236 @@
+package com.tackleset.masker;
+
+/**
+ * DateShift moves the dates of a member by the same secret number of days, used by the date_shift hint
+ *
+ * The offset of a member is a keyed hash of its id, from 1 to maxDays days earlier or later, so every date of a
+ * member moves together and the days between them, such as an age at a fill date, are kept while the dates themselves
+ * are not.  Dates are read as yyyy-MM-dd straight into an epoch day, shifted with integer arithmetic and rendered by
+ * Formats, so shifting a date allocates only the result.  A time after the date, as in 2001-02-03T04:05, is kept.
+ */
+public class DateShift {
+
+    public static final String DEFAULT_KEY = "member_id";
+    public static final int DEFAULT_DAYS = 365;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    // days from 1970-01-01 to 0000-01-01 and to 9999-12-31
+    private static final long MIN_DAY = -719528;
+    private static final long MAX_DAY = 2932896;
+
+    private final long secret;
+    private final String key;
+    private final int maxDays;
+
+    /**
+     * @param random  source of the secret, a seeded source gives the same offsets in every run with the seed
+     * @param key     field holding the member id
+     * @param maxDays largest shift in days, at least 1
+     */
+    public DateShift(RandomSource random, String key, int maxDays) {
+        if (maxDays < 1) {
+            throw new IllegalArgumentException("Date shift must be at least 1 day");
+        }
+        this.secret = random.nextLong(SeededRandomSource.salt(key), 0);
+        this.key = key;
+        this.maxDays = maxDays;
+    }
+
+    /**
+     * @return field holding the member id
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public int getMaxDays() {
+        return maxDays;
+    }
+
+    /**
+     * offset
+     *
+     * @param member member id, a whole number or its digits give the same offset
+     * @return days the member's dates move, from -maxDays to maxDays and never 0
+     */
+    public int offset(Object member) {
+        long bits = mix(secret + memberHash(member) * GOLDEN_GAMMA);
+        int days = RandomSource.bounded(bits, maxDays) + 1;
+        return (bits < 0) ? -days : days;
+    }
+
+    /**
+     * shift
+     *
+     * @param value  date as yyyy-MM-dd, optionally followed by a time
+     * @param member member id the offset is taken from
+     * @return the shifted date, null for null and MISMATCH TYPE for a value that is not a date
+     */
+    public Object shift(Object value, Object member) {
+        if (value == null) {
+            return null;
+        }
+        String text = (value instanceof String) ? (String) value : null;
+        long day = (text != null) ? epochDay(text) : Long.MIN_VALUE;
+        if (day == Long.MIN_VALUE) {
+            return "MISMATCH TYPE";
+        }
+        int offset = offset(member);
+        long shifted = day + offset;
+        if (shifted < MIN_DAY || shifted > MAX_DAY) {
+            // keep four digit years by moving the other way
+            shifted = day - offset;
+        }
+        if (text.length() == 10) {
+            return format(shifted);
+        }
+        char[] chars = text.toCharArray();
+        format(shifted, chars);
+        return new String(chars);
+    }
+
+    /**
+     * epochDay
+     *
+     * @param text date as yyyy-MM-dd, optionally followed by T or a space and a time
+     * @return days since 1970-01-01, Long.MIN_VALUE if the text does not start with a valid date
+     */
+    static long epochDay(CharSequence text) {
+        int length = text.length();
+        if (length < 10 || text.charAt(4) != '-' || text.charAt(7) != '-' ||
+                (length > 10 && text.charAt(10) != 'T' && text.charAt(10) != ' ')) {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysOfMonth(year, month)) {
+            return Long.MIN_VALUE;
+        }
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * epochDay
+     *
+     * Days from civil of Howard Hinnant's date algorithms, with the year starting in March so the leap day is last
+     *
+     * @return days since 1970-01-01
+     */
+    static long epochDay(int year, int month, int day) {
+        int y = (month <= 2) ? year - 1 : year;
+        int era = ((y >= 0) ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * format
+     *
+     * @param epochDay days since 1970-01-01, from year 0 to 9999
+     * @param buffer   receives yyyy-MM-dd from index 0
+     * @return number of chars written, always 10
+     */
+    static int format(long epochDay, char[] buffer) {
+        int date = civil(epochDay);
+        return Formats.date(date / 10000, date / 100 % 100, date % 100, buffer);
+    }
+
+    /**
+     * format
+     *
+     * @param epochDay days since 1970-01-01, from year 0 to 9999
+     * @return the date as yyyy-MM-dd
+     */
+    static String format(long epochDay) {
+        int date = civil(epochDay);
+        return Formats.date(date / 10000, date / 100 % 100, date % 100);
+    }
+
+    /**
+     * civil
+     *
+     * Civil from days of the same algorithms
+     *
+     * @param epochDay days since 1970-01-01, from year 0 to 9999
+     * @return the date as the number yyyyMMdd
+     */
+    private static int civil(long epochDay) {
+        long z = epochDay + 719468;
+        long era = ((z >= 0) ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = (monthIndex < 10) ? monthIndex + 3 : monthIndex - 9;
+        int year = (int) (yearOfEra + era * 400) + ((month <= 2) ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    static int daysOfMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return Mask.DAYSOFMONTH.get(month - 1);
+    }
+
+    private static int digits(CharSequence text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long memberHash(Object member) {
+        if (member instanceof Integer || member instanceof Long) {
+            return ((Number) member).longValue();
+        }
+        if (member == null) {
+            return 0;
+        }
+        String text = member.toString();
+        long number = wholeNumber(text);
+        if (number != Long.MIN_VALUE) {
+            return number;
+        }
+        long hash = 1;
+        for (int i = 0; i < text.length(); i++) {
+            hash = hash * 31 + text.charAt(i);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @return the number of text written without leading zeros, Long.MIN_VALUE for any other text
+     */
+    private static long wholeNumber(String text) {
+        int start = text.startsWith("-") ? 1 : 0;
+        int length = text.length() - start;
+        if (length < 1 || length > 18 || (length > 1 && text.charAt(start) == '0')) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return (start == 1) ? -value : value;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,185 @@
+package com.tackleset.masker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dictionary is a table of replacement values for the list and address hints
+ *
+ * The source is UTF-8 text with one entry per line and tab separated columns, the first line names the columns.  A
+ * file is memory-mapped and scanned once for the start of every column of every entry, the offsets are kept in a
+ * direct buffer, so the entries stay out of the heap, opening a dictionary parses nothing and a value is found without
+ * a search.  Values are decoded when they are looked up.
+ */
+public final class Dictionary {
+
+    /**
+     * name of the dictionary of the address hints
+     */
+    public static final String ADDRESSES = "addresses";
+
+    private final String source;
+    private final ByteBuffer text;
+    private final List<String> columns;
+    // the start of every column of every entry followed by the entry's end + 1, columns.size() + 1 offsets per entry
+    private final IntBuffer offsets;
+
+    private Dictionary(String source, ByteBuffer text) throws IOException {
+        this.source = source;
+        this.text = text;
+        int limit = text.limit();
+        int headerEnd = lineEnd(0);
+        if (headerEnd == 0) {
+            throw new IOException("Dictionary " + source + " has no header line");
+        }
+        this.columns = Arrays.asList(decode(0, headerEnd).split("\t", -1));
+
+        // count the entries, then record where each column of each one starts
+        int entries = 0;
+        for (int start = next(headerEnd); start < limit; start = next(lineEnd(start))) {
+            if (lineEnd(start) > start) {
+                entries++;
+            }
+        }
+        if (entries == 0) {
+            throw new IOException("Dictionary " + source + " has no entries");
+        }
+        long indexBytes = 4L * entries * (columns.size() + 1);
+        if (indexBytes > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary " + source + " has too many values to index");
+        }
+        this.offsets = ByteBuffer.allocateDirect((int) indexBytes).asIntBuffer();
+        int line = 2;
+        for (int start = next(headerEnd); start < limit; start = next(lineEnd(start)), line++) {
+            int end = lineEnd(start);
+            if (end == start) {
+                continue;
+            }
+            int tabs = 0;
+            for (int i = start; i < end; i++) {
+                if (text.get(i) == '\t') {
+                    tabs++;
+                }
+            }
+            if (tabs != columns.size() - 1) {
+                throw new IOException("Line " + line + " of dictionary " + source + " has " + (tabs + 1) +
+                        " columns, the header has " + columns.size());
+            }
+            offsets.put(start);
+            for (int i = start; i < end; i++) {
+                if (text.get(i) == '\t') {
+                    offsets.put(i + 1);
+                }
+            }
+            offsets.put(end + 1);
+        }
+    }
+
+    /**
+     * open
+     *
+     * @param file UTF-8 file of tab separated entries with a header line, at most 2 GB
+     * @return the memory-mapped dictionary
+     * @throws IOException if the file cannot be read, has no entries or a line does not match the header
+     */
+    public static Dictionary open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dictionary " + file + " is larger than 2 GB");
+            }
+            // the mapping stays valid after the channel is closed
+            return new Dictionary(file.getPath(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * of
+     *
+     * @param name  name used in error messages
+     * @param lines header line followed by the entries, tab separated
+     * @return a dictionary of the lines, kept on the heap
+     */
+    public static Dictionary of(String name, String... lines) {
+        try {
+            return new Dictionary(name, ByteBuffer.wrap(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return offsets.capacity() / (columns.size() + 1);
+    }
+
+    /**
+     * column
+     *
+     * @param name column name from the header line
+     * @return the column's index
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int column(String name) {
+        int column = columns.indexOf(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("Dictionary " + source + " has no column " + name);
+        }
+        return column;
+    }
+
+    /**
+     * get
+     *
+     * @param entry  entry index, below size()
+     * @param column column index
+     * @return the entry's value in the column
+     */
+    public String get(int entry, int column) {
+        int index = entry * (columns.size() + 1) + column;
+        int start = offsets.get(index);
+        return decode(start, offsets.get(index + 1) - 1);
+    }
+
+    /**
+     * @return the end of the line starting at start, before its line break
+     */
+    private int lineEnd(int start) {
+        int limit = text.limit();
+        int end = start;
+        while (end < limit && text.get(end) != '\n') {
+            end++;
+        }
+        return (end > start && text.get(end - 1) == '\r') ? end - 1 : end;
+    }
+
+    /**
+     * @return the start of the line after the line ending at end
+     */
+    private int next(int end) {
+        int limit = text.limit();
+        while (end < limit && text.get(end) != '\n') {
+            end++;
+        }
+        return end + 1;
+    }
+
+    private String decode(int start, int end) {
+        if (text.hasArray()) {
+            return new String(text.array(), text.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer value = text.duplicate();
+        value.position(start);
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+package com.tackleset.masker;
+
+import java.util.Map;
+
+/**
+ * FieldRule is the compiled masking rule of one field
+ *
+ * The HINT, TYPE and FORMAT names of the rule tables are resolved once, and list, address and constant hints have
+ * their dictionary, column or constant resolved up front, so masking a field does no string parsing or map lookups.
+ */
+final class FieldRule {
+
+    enum KIND {
+        SENSITIVE, NON_SENSITIVE, UNKNOWN
+    }
+
+    private final String key;
+    private final KIND kind;
+    private final Mask.HINT hint;
+    private final Mask.TYPE type;
+    private final Mask.FORMAT format;
+    private final Dictionary dictionary;
+    private final int column;
+    private final Object constant;
+    private final Tokenizer tokenizer;
+    private final DateShift dateShift;
+    private final RandomSource random;
+    private final long salt;
+
+    /**
+     * @param options tokenizer of the tokenize hint, source of the random hint, dictionaries of the list and address
+     *                hints and offsets of the date_shift hint
+     * @throws IllegalArgumentException if the hint is tokenize and there is no tokenizer, or the hint's dictionary or
+     *                                  column is missing
+     */
+    FieldRule(String key, KIND kind, Mask.HINT hint, Mask.TYPE type, Mask.FORMAT format, MaskPlan.Builder options) {
+        Tokenizer tokenizer = options.getTokenizer();
+        Map<String, Dictionary> dictionaries = options.getDictionaries();
+        if (hint != null && hint.getSource() == Mask.SOURCE.TOKEN && tokenizer == null) {
+            throw new IllegalArgumentException("Field " + key + " uses the " + hint + " hint without a token key");
+        }
+        this.dictionary = (hint != null && hint.getDictionary() != null) ? dictionaries.get(hint.getDictionary()) : null;
+        if (hint != null && hint.getDictionary() != null && dictionary == null) {
+            throw new IllegalArgumentException("Field " + key + " uses the " + hint + " hint without the " +
+                    hint.getDictionary() + " dictionary");
+        }
+        this.column = (dictionary != null) ? hint.column(dictionary) : 0;
+        this.key = key;
+        this.kind = kind;
+        this.hint = hint;
+        this.type = type;
+        this.format = format;
+        this.constant = (hint != null && hint.getSource() == Mask.SOURCE.CONSTANT) ? Mask.CONST_MAP.get(hint.getKey()) : null;
+        this.tokenizer = tokenizer;
+        this.dateShift = (hint != null && hint.getSource() == Mask.SOURCE.SHIFT) ? options.getDateShift() : null;
+        this.random = options.getRandom();
+        this.salt = SeededRandomSource.salt(key);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    KIND getKind() {
+        return kind;
+    }
+
+    Mask.HINT getHint() {
+        return hint;
+    }
+
+    Mask.TYPE getType() {
+        return type;
+    }
+
+    Mask.FORMAT getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if the masked value only depends on the original value and the member, so it needs no pseudonym
+     * table
+     */
+    boolean isStateless() {
+        return hint != null && (hint.getSource() == Mask.SOURCE.TOKEN || hint.getSource() == Mask.SOURCE.SHIFT);
+    }
+
+    /**
+     * @return true if masked values of the field are rendered with the rule's format
+     */
+    boolean isFormatted() {
+        return kind != KIND.NON_SENSITIVE && hint != null && format != null;
+    }
+
+    /**
+     * mask
+     *
+     * @param value     original value
+     * @param iteration record number in the run, starting at 1
+     * @return the masked value with the rule's format applied
+     */
+    Object mask(Object value, int iteration) {
+        return mask(value, iteration, true);
+    }
+
+    /**
+     * mask
+     *
+     * @param value     original value
+     * @param iteration record number in the run, starting at 1
+     * @param format    false to leave formatting to the writer of the record
+     * @return the masked value
+     */
+    Object mask(Object value, int iteration, boolean format) {
+        return mask(value, iteration, format, null);
+    }
+
+    /**
+     * mask
+     *
+     * @param value     original value
+     * @param iteration record number in the run, starting at 1
+     * @param format    false to leave formatting to the writer of the record
+     * @param member    original member id of the record, the date_shift hint takes its offset from
+     * @return the masked value
+     */
+    Object mask(Object value, int iteration, boolean format, Object member) {
+        Object masked = source(value, iteration, member);
+        return (!format || this.format == null || masked == null) ? masked : this.format.format(masked);
+    }
+
+    private Object source(Object value, int iteration, Object member) {
+        switch (hint.getSource()) {
+            case LIST:
+            case ADDRESS:
+                return dictionary.get(iteration % dictionary.size(), column);
+            case CONSTANT:
+                return constant;
+            case ITERATION:
+                return iteration;
+            case TOKEN:
+                return tokenizer.tokenize(value);
+            case SHIFT:
+                return dateShift.shift(value, member);
+            case RANDOM:
+                return Mask.HINT.random(random, salt, value, iteration, type);
+        }
+        throw new IllegalStateException("Unknown source " + hint.getSource());
+    }
+}
@@ -0,0 +1,99 @@
+package com.tackleset.masker;
+
+/**
+ * Formats renders zero padded numbers and dates into char buffers without going through java.util.Formatter
+ *
+ * The buffer methods write into a caller's buffer and allocate nothing, the String methods render into a per thread
+ * buffer and only allocate the result.
+ */
+final class Formats {
+
+    /**
+     * longest rendering, a signed long is 20 chars
+     */
+    static final int BUFFER_SIZE = 32;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+    private Formats() {
+    }
+
+    /**
+     * pad
+     *
+     * Renders like String.format("%0" + width + "d", value)
+     *
+     * @param value  number to render
+     * @param width  least number of chars, including the sign, padded with leading zeros
+     * @param buffer receives the chars from index 0, at least BUFFER_SIZE long
+     * @return number of chars written
+     */
+    static int pad(long value, int width, char[] buffer) {
+        boolean negative = value < 0;
+        // work on the negative value so Long.MIN_VALUE has no overflow
+        long rest = negative ? value : -value;
+        int digits = 1;
+        for (long v = rest / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int sign = negative ? 1 : 0;
+        int length = Math.max(width, digits + sign);
+        int position = length;
+        do {
+            buffer[--position] = (char) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        while (position > sign) {
+            buffer[--position] = '0';
+        }
+        if (negative) {
+            buffer[0] = '-';
+        }
+        return length;
+    }
+
+    /**
+     * pad
+     *
+     * @param value number to render
+     * @param width least number of chars, including the sign, padded with leading zeros
+     * @return the zero padded number
+     */
+    static String pad(long value, int width) {
+        char[] buffer = BUFFER.get();
+        return new String(buffer, 0, pad(value, width, buffer));
+    }
+
+    /**
+     * date
+     *
+     * @param year   0 to 9999
+     * @param month  1 to 12
+     * @param day    1 to 31
+     * @param buffer receives yyyy-MM-dd from index 0
+     * @return number of chars written, always 10
+     */
+    static int date(int year, int month, int day, char[] buffer) {
+        buffer[0] = (char) ('0' + year / 1000);
+        buffer[1] = (char) ('0' + year / 100 % 10);
+        buffer[2] = (char) ('0' + year / 10 % 10);
+        buffer[3] = (char) ('0' + year % 10);
+        buffer[4] = '-';
+        buffer[5] = (char) ('0' + month / 10);
+        buffer[6] = (char) ('0' + month % 10);
+        buffer[7] = '-';
+        buffer[8] = (char) ('0' + day / 10);
+        buffer[9] = (char) ('0' + day % 10);
+        return 10;
+    }
+
+    /**
+     * date
+     *
+     * @return the date as yyyy-MM-dd
+     */
+    static String date(int year, int month, int day) {
+        char[] buffer = BUFFER.get();
+        return new String(buffer, 0, date(year, month, day, buffer));
+    }
+}
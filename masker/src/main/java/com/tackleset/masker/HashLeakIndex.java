@@ -0,0 +1,77 @@
+package com.tackleset.masker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HashLeakIndex is an exact LeakIndex backed by a concurrent hash map
+ *
+ * Each value keeps the first record it was seen in, so a record is only matched against values of itself and earlier
+ * records even when records are indexed out of order by parallel workers.  A checkpoint holds the digests of the
+ * values, which are looked up by the digest of a value that is not in memory.
+ */
+public class HashLeakIndex implements LeakIndex {
+
+    private final ConcurrentHashMap<String, Integer> firstSeen = new ConcurrentHashMap<>();
+    // values read from a checkpoint, by digest
+    private final ConcurrentHashMap<ByteBuffer, Integer> restored = new ConcurrentHashMap<>();
+    private volatile KeyedDigest restoredDigest;
+
+    @Override
+    public void add(String value, int iteration) {
+        Integer first = firstSeen.putIfAbsent(value, iteration);
+        if (first != null && first > iteration) {
+            firstSeen.merge(value, iteration, Math::min);
+        }
+    }
+
+    @Override
+    public boolean contains(String value, int iteration) {
+        Integer first = firstSeen.get(value);
+        if (first != null && first <= iteration) {
+            return true;
+        }
+        if (restored.isEmpty()) {
+            return false;
+        }
+        first = restored.get(ByteBuffer.wrap(restoredDigest.digest(value.getBytes(StandardCharsets.UTF_8))));
+        return first != null && first <= iteration;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out, KeyedDigest digest) throws IOException {
+        Map<ByteBuffer, Integer> digests = new HashMap<>(restored);
+        for (Map.Entry<String, Integer> entry : firstSeen.entrySet()) {
+            digests.merge(ByteBuffer.wrap(digest.digest(entry.getKey().getBytes(StandardCharsets.UTF_8))),
+                    entry.getValue(), Math::min);
+        }
+        out.writeInt(digests.size());
+        for (Map.Entry<ByteBuffer, Integer> entry : digests.entrySet()) {
+            out.write(entry.getKey().array());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    @Override
+    public void readFrom(DataInputStream in, KeyedDigest digest) throws IOException {
+        restoredDigest = digest;
+        for (int i = in.readInt(); i > 0; i--) {
+            byte[] value = new byte[KeyedDigest.LENGTH];
+            in.readFully(value);
+            restored.merge(ByteBuffer.wrap(value), in.readInt(), Math::min);
+        }
+    }
+
+    /**
+     * @return number of values in memory and read from a checkpoint
+     */
+    public int size() {
+        return firstSeen.size() + restored.size();
+    }
+}
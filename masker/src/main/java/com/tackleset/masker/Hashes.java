@@ -0,0 +1,62 @@
+package com.tackleset.masker;
+
+/**
+ * Hashes are the unkeyed 64 bit hashes of the bloom filter, the spill index and the tokenizer's shapes and tweaks
+ *
+ * FNV-1a is cheap over short values but leaves its high bits poorly mixed, the murmur3 finalizer fmix spreads every
+ * input bit over the whole word.  These hashes are not keyed and must not stand in for KeyedDigest.
+ */
+final class Hashes {
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashes() {
+    }
+
+    /**
+     * fnv
+     *
+     * @param hash  hash of the values so far, FNV_OFFSET before the first
+     * @param value next char or byte
+     * @return the FNV-1a step of the value
+     */
+    static long fnv(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * @return FNV-1a over the chars of the value followed by fmix
+     */
+    static long hash(String value) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash = fnv(hash, value.charAt(i));
+        }
+        return fmix(hash);
+    }
+
+    /**
+     * @return FNV-1a over the bytes followed by fmix
+     */
+    static long hash(byte[] bytes) {
+        long hash = FNV_OFFSET;
+        for (byte b : bytes) {
+            hash = fnv(hash, b & 0xff);
+        }
+        return fmix(hash);
+    }
+
+    /**
+     * @return the murmur3 64 bit finalizer of the hash
+     */
+    static long fmix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
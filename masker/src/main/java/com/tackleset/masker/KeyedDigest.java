@@ -0,0 +1,99 @@
+package com.tackleset.masker;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * KeyedDigest is an HMAC-SHA256 under one secret key
+ *
+ * Original values that leave the heap, in spill files and checkpoints, are written as their digest, which can neither
+ * be reversed nor checked against a guessed value without the key.  A key derived from the token key gives the same
+ * digests in every run, a random key only within one run.
+ */
+public final class KeyedDigest {
+
+    static final String ALGORITHM = "HmacSHA256";
+    static final int LENGTH = 32;
+
+    private static final byte[] SALT = "com.tackleset.masker".getBytes(StandardCharsets.UTF_8);
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final byte[] id;
+
+    /**
+     * @param key secret key of at least LENGTH bytes
+     */
+    KeyedDigest(byte[] key) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> mac(this.key));
+        this.id = digest("key id".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return a digest under a new random key
+     */
+    static KeyedDigest random() {
+        byte[] key = new byte[LENGTH];
+        new SecureRandom().nextBytes(key);
+        return new KeyedDigest(key);
+    }
+
+    /**
+     * derive
+     *
+     * @param secret  secret the key is derived from, such as the token key
+     * @param purpose what the key is used for, so one secret gives independent keys for each use
+     * @return a digest under the HKDF-SHA256 key of the secret and purpose
+     */
+    static KeyedDigest derive(String secret, String purpose) {
+        return new KeyedDigest(hkdf(secret.getBytes(StandardCharsets.UTF_8), purpose));
+    }
+
+    /**
+     * hkdf
+     *
+     * @param secret input key material
+     * @param info   purpose of the key
+     * @return LENGTH bytes of key, the RFC 5869 extract and expand steps with the masker's salt
+     */
+    static byte[] hkdf(byte[] secret, String info) {
+        Mac extract = mac(new SecretKeySpec(SALT, ALGORITHM));
+        byte[] prk = extract.doFinal(secret);
+        Mac expand = mac(new SecretKeySpec(prk, ALGORITHM));
+        expand.update(info.getBytes(StandardCharsets.UTF_8));
+        expand.update((byte) 1);
+        return expand.doFinal();
+    }
+
+    /**
+     * digest
+     *
+     * @param bytes encoded original value
+     * @return the LENGTH byte HMAC of the bytes
+     */
+    public byte[] digest(byte[] bytes) {
+        return macs.get().doFinal(bytes);
+    }
+
+    /**
+     * @return digest of a fixed label, equal for equal keys, so a checkpoint tells whether its digests are usable
+     */
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    private static Mac mac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
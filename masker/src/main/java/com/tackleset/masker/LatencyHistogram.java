@@ -0,0 +1,71 @@
+package com.tackleset.masker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts nanosecond durations in power of two buckets
+ *
+ * Recording is lock free so masking threads can share one histogram.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * record
+     *
+     * @param nanos duration, bucket i holds durations from 2^i up to 2^(i+1) nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int bucket = (value == 0) ? 0 : 63 - Long.numberOfLeadingZeros(value);
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMeanNanos() {
+        long n = getCount();
+        return (n == 0) ? 0 : getTotalNanos() / n;
+    }
+
+    /**
+     * percentile
+     *
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return upper bound in nanoseconds of the bucket holding the percentile, 0 when empty
+     */
+    public long percentile(double fraction) {
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return (i >= 63) ? Long.MAX_VALUE : 1L << (i + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
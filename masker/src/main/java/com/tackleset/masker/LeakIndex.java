@@ -0,0 +1,47 @@
+package com.tackleset.masker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * LeakIndex remembers the original values of sensitive fields so a non sensitive field echoing one of them is caught
+ *
+ * Values are compared by their string form, so an unsigned member_id of 123456789 matches the text "123456789".
+ */
+public interface LeakIndex {
+
+    /**
+     * add
+     *
+     * @param value     original value of a sensitive field
+     * @param iteration record number the value was seen in
+     */
+    void add(String value, int iteration);
+
+    /**
+     * contains
+     *
+     * @param value     value of a non sensitive field
+     * @param iteration record number of the non sensitive field
+     * @return true if the value was seen in a sensitive field of this record or an earlier one
+     */
+    boolean contains(String value, int iteration);
+
+    /**
+     * writeTo
+     *
+     * @param out    receives every value with the first record it was seen in, for a checkpoint
+     * @param digest keys the values, which are never written as they are
+     */
+    void writeTo(DataOutputStream out, KeyedDigest digest) throws IOException;
+
+    /**
+     * readFrom
+     *
+     * @param in     values written by writeTo of an index with the same settings, added to this index
+     * @param digest the digest the values were written with
+     * @throws IOException if the values were written by an index with other settings
+     */
+    void readFrom(DataInputStream in, KeyedDigest digest) throws IOException;
+}
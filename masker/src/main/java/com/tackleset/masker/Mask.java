@@ -6,25 +6,48 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 public class Mask {
 
     private static ObjectMapper objectMapper;
 
     enum FORMAT {
-        NUM10LEAD0, PERSCODE;
+        NUM10LEAD0(10), PERSCODE(2);
 
+        private final int width;
+
+        FORMAT(int width) {
+            this.width = width;
+        }
+
+        /**
+         * format
+         *
+         * @param value number, or text such as a token of a string id
+         * @return the zero padded number, text of digits padded the same way, other text as is
+         */
         public Object format(Object value) {
-            switch (this) {
-                case NUM10LEAD0:
-                    return String.format("%010d", (Number) value);
-                case PERSCODE:
-                    return String.format("%02d", (Number) value);
+            if (value instanceof Integer || value instanceof Long) {
+                return Formats.pad(((Number) value).longValue(), width);
+            }
+            if (value instanceof CharSequence) {
+                String text = value.toString();
+                return StringUtils.isNumeric(text) ? StringUtils.leftPad(text, width, '0') : text;
             }
-            return "F";
+            return String.format("%0" + width + "d", value);
+        }
+
+        /**
+         * format
+         *
+         * @param value  number to render
+         * @param buffer receives the zero padded number from index 0, at least Formats.BUFFER_SIZE long
+         * @return number of chars written
+         */
+        public int format(long value, char[] buffer) {
+            return Formats.pad(value, width, buffer);
         }
     }
 
@@ -37,7 +60,9 @@ public class Mask {
             }
             if (this.equals(TYPE.unsigned) || this.equals(TYPE.decimal)) {
                 if (value instanceof String) {
-                    return StringUtils.isNumeric((String) value);
+                    // every CSV value is text, a decimal such as 12.50 has a point and may have a sign
+                    return this.equals(TYPE.decimal) ? isDecimal((String) value)
+                            : StringUtils.isNumeric((String) value);
                 }
                 if (!(value instanceof Number)) {
                     return false;
@@ -45,91 +70,154 @@ public class Mask {
             }
             return true;
         }
+
+        /**
+         * @return validate of any Number, true unless the type is text
+         */
+        public boolean validatesNumbers() {
+            return !this.equals(TYPE.alphanumeric) && !this.equals(TYPE.text);
+        }
+
+        /**
+         * @return true if the text is digits with an optional leading minus and at most one decimal point
+         */
+        static boolean isDecimal(String value) {
+            int start = (value.startsWith("-")) ? 1 : 0;
+            int digits = 0;
+            boolean point = false;
+            for (int i = start; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '.' && !point) {
+                    point = true;
+                } else if (c >= '0' && c <= '9') {
+                    digits++;
+                } else {
+                    return false;
+                }
+            }
+            return digits > 0;
+        }
     }
 
     static final String CONST_SSN = "123121234";
 
+    /**
+     * where a HINT takes its masked value from
+     */
+    enum SOURCE {
+        ITERATION, RANDOM, CONSTANT, LIST, ADDRESS, TOKEN, SHIFT
+    }
+
     enum HINT {
-        unique, random, const_ssn, list_first_names, list_last_names, list_genders, address_address_1, address_address_2,
-        address_city, address_state, address_zip;
+        unique(SOURCE.ITERATION), random(SOURCE.RANDOM), const_ssn(SOURCE.CONSTANT), list_first_names(SOURCE.LIST),
+        list_last_names(SOURCE.LIST), list_genders(SOURCE.LIST), address_address_1(SOURCE.ADDRESS),
+        address_address_2(SOURCE.ADDRESS), address_city(SOURCE.ADDRESS), address_state(SOURCE.ADDRESS),
+        address_zip(SOURCE.ADDRESS), tokenize(SOURCE.TOKEN), date_shift(SOURCE.SHIFT);
+
+        private final SOURCE source;
+        private final String key;
+
+        HINT(SOURCE source) {
+            this.source = source;
+            // dictionary name of a list hint, column name of an address hint, key into CONST_MAP otherwise
+            this.key = (source == SOURCE.ADDRESS) ? name().substring("address_".length())
+                    : (source == SOURCE.LIST) ? name().substring("list_".length()) : name();
+        }
+
+        public SOURCE getSource() {
+            return source;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return name of the dictionary the list and address hints take their values from, null for other hints
+         */
+        public String getDictionary() {
+            return (source == SOURCE.LIST) ? key : (source == SOURCE.ADDRESS) ? Dictionary.ADDRESSES : null;
+        }
+
+        /**
+         * @return column of the hint's values in its dictionary
+         */
+        int column(Dictionary dictionary) {
+            return (source == SOURCE.ADDRESS) ? dictionary.column(key) : 0;
+        }
 
         public Object mask(Object value, int iteration, TYPE type) {
-            if (this.name().startsWith("list_")) {
-                List<Object> list = LIST_MAP.get(this.name());
-                return list.get(iteration % list.size());
-            }
-            if (this.name().startsWith("address_")) {
-                Map<String, Object> map = AddressList.get(iteration % AddressList.size());
-                return map.get(this.name().substring("address_".length()));
-            }
-            if (this.name().startsWith("const_")) {
-                String constant = CONST_MAP.get(this.name());
-                return constant;
-            }
-            if (this.equals(HINT.unique)) {
-                return iteration;
+            switch (source) {
+                case LIST:
+                case ADDRESS: {
+                    Dictionary dictionary = DICTIONARIES.get(getDictionary());
+                    return dictionary.get(iteration % dictionary.size(), column(dictionary));
+                }
+                case CONSTANT:
+                    return CONST_MAP.get(key);
+                case ITERATION:
+                    return iteration;
+                case RANDOM:
+                    return random(ThreadLocalRandomSource.INSTANCE, 0, value, iteration, type);
             }
-            if (this.equals(HINT.random)) {
-                Random random = new Random();
-                switch (type) {
-                    case decimal:
-                    case unsigned: {
-                        Number num = null;
-                        if (value instanceof String) {
-                            String str = (String) value;
-                            int size = (int) (Math.pow(10, str.length()) - 1);
-                            int randomInt = random.nextInt((size > Integer.MAX_VALUE) ? Integer.MAX_VALUE : size);
-                            return randomInt;
-                        }
-                    }
-                    case date: {
-                        int year = random.nextInt(100) + 1910;
-                        int month = random.nextInt(12)+1;
-                        int day = random.nextInt(DAYSOFMONTH.get(month - 1).intValue())+1;
-                        LocalDate ld = LocalDate.of(year, month, day);
-                        return ld.toString();
+            return "M";
+        }
+
+        /**
+         * random
+         *
+         * @param random    source of the random bits
+         * @param salt      identifies the field being masked
+         * @param value     original value
+         * @param iteration record number in the run, starting at 1
+         * @param type      type of the field
+         * @return a number below 10^length for numeric text, otherwise a date from 1910 to 2009 as yyyy-MM-dd
+         */
+        static Object random(RandomSource random, long salt, Object value, int iteration, TYPE type) {
+            switch (type) {
+                case decimal:
+                case unsigned: {
+                    if (value instanceof String) {
+                        int length = ((String) value).length();
+                        int size = (length < POW10.length) ? POW10[length] - 1 : Integer.MAX_VALUE;
+                        return RandomSource.bounded(random.nextLong(salt, iteration), size);
                     }
                 }
+                case date:
+                    return randomDate(random.nextLong(salt, iteration));
             }
             return "M";
         }
-    }
 
-    static final List<Integer> DAYSOFMONTH = Arrays.asList(31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31);
-    public static final String ADDRESSES =
-            "[" +
-                    "{ \"address_1\": \"1 Main Plaza\",\n" +
-                    "    \"address_2\": \"Number 10\",\n" +
-                    "    \"city\": \"Shell\",\n" +
-                    "    \"state\": \"CA\",\n" +
-                    "    \"zip\": \"90210\"}," +
-                    " { \"address_1\": \"2 Loss Rd\",\n" +
-                    "    \"address_2\": \"Apt A\",\n" +
-                    "    \"city\": \"Baltimore\",\n" +
-                    "    \"state\": \"GA\",\n" +
-                    "    \"zip\": \"66753\"}" +
-                    "]\n";
-
-    static List<Map<String, Object>> AddressList;
-
-    static {
-        objectMapper = new ObjectMapper();
-        try {
-            AddressList = objectMapper.readValue(ADDRESSES, List.class);
-        } catch (IOException e) {
-           e.printStackTrace();
+        private static String randomDate(long bits) {
+            // year from the low 32 bits, month and day from 16 bits each
+            int year = RandomSource.bounded(bits, 100) + 1910;
+            int month = (int) (((bits >>> 32) & 0xffff) * 12 >>> 16) + 1;
+            int day = (int) ((bits >>> 48) * DAYSOFMONTH.get(month - 1) >>> 16) + 1;
+            return Formats.date(year, month, day);
         }
     }
 
+    static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+    static final List<Integer> DAYSOFMONTH = Arrays.asList(31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31);
+    // tab separated with a header line, like an address dictionary file
+    public static final String[] ADDRESSES = {
+            "address_1\taddress_2\tcity\tstate\tzip",
+            "1 Main Plaza\tNumber 10\tShell\tCA\t90210",
+            "2 Loss Rd\tApt A\tBaltimore\tGA\t66753"};
+
     static final List<Object> LIST_GENDERS = Arrays.asList("male", "female");
     static final List<Object> LIST_FIRST_NAMES = Arrays.asList("Jo", "Tracy");
     static final List<Object> LIST_LAST_NAMES = Arrays.asList("Armstrong", "Smith");
-    static final Map<String, List<Object>> LIST_MAP = ImmutableMap.of("list_genders", LIST_GENDERS,
-            "list_first_names", LIST_FIRST_NAMES,
-            "list_last_names", LIST_LAST_NAMES);
+    static final Map<String, Dictionary> DICTIONARIES = ImmutableMap.of("genders", list("gender", LIST_GENDERS),
+            "first_names", list("first_name", LIST_FIRST_NAMES),
+            "last_names", list("last_name", LIST_LAST_NAMES),
+            Dictionary.ADDRESSES, Dictionary.of(Dictionary.ADDRESSES, ADDRESSES));
     static final Map<String, String> CONST_MAP = ImmutableMap.of("const_ssn", CONST_SSN);
 
-    static final String SENSITIVES_KEY = "member_id";
+    // non sensitive values this short are not checked for leaked sensitive values
+    static final int LEAK_MIN_LENGTH = 7;
+    static final long LEAK_MIN_NUMBER = 10000000L;
     static final Map<String, Map<Class, String>> SENSITIVES = new ImmutableMap.Builder<String, Map<Class, String>>()
             .put("member_id", ImmutableMap.of(HINT.class, HINT.unique.name(), TYPE.class, TYPE.unsigned.name(), FORMAT.class, FORMAT.NUM10LEAD0.name()))
             .put("person_code", ImmutableMap.of(HINT.class, HINT.random.name(), TYPE.class, TYPE.unsigned.name(), FORMAT.class, FORMAT.PERSCODE.name()))
@@ -157,119 +245,398 @@ public class Mask {
             .put("dispensing_fee", ImmutableMap.of(TYPE.class, TYPE.decimal.name()))
             .build();
 
+    private static Dictionary list(String column, List<Object> values) {
+        String[] lines = new String[values.size() + 1];
+        lines[0] = column;
+        for (int i = 0; i < values.size(); i++) {
+            lines[i + 1] = values.get(i).toString();
+        }
+        return Dictionary.of(column, lines);
+    }
 
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.format("Please enter path to a json file containing 'flat records' (json array of objects) as first argument");
+            System.out.print(MaskOptions.usage());
             return;
         }
-        Mask Mask = new Mask();
+        MaskOptions options = MaskOptions.parse(args);
         objectMapper = new ObjectMapper();
+        MaskPlan plan;
+        Checkpoint checkpoint;
         try {
-            List<Map<String, Object>> recordList = objectMapper.readValue(
-                    new File(args[0]), List.class);
-            List<Map<String, Object>> newRecords = Mask.anonymizeRecords(recordList);
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(
-                    new File(args[0] + ".masked.json"), newRecords);
+            checkpoint = options.checkpoint();
+            plan = options.plan((checkpoint != null) ? (Long) checkpoint.getSeed() : options.getSeed());
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        MaskMetrics metrics = new MaskMetrics(options.isTimings());
+        MaskContext context = MaskContext.builder()
+                .plan(plan)
+                .metrics(metrics)
+                .leakIndex(options.leakIndex())
+                .pseudonyms(options.pseudonyms())
+                .logSample(options.getLogSample(), System.out)
+                .build();
+        MaskOutput output = options.output();
+        PipelineMask pipeline = null;
+        BatchMask batch = null;
+        PseudonymTable pseudonyms = context.getPseudonyms();
+        try {
+            if (options.isBatch()) {
+                List<File> files = options.files();
+                List<File> masked = new ArrayList<>(files.size());
+                for (File file : files) {
+                    masked.add(new File(options.outputPath(file.getPath())));
+                }
+                ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+                try {
+                    batch = new BatchMask(objectMapper, pool, options.isNdjson(), options.getChunkBytes(), output);
+                    batch.anonymizeFiles(files, masked, context);
+                } finally {
+                    pool.shutdown();
+                }
+            } else if (options.isCsv()) {
+                new CsvMask(options.getBatchSize()).anonymizeFile(
+                        new File(options.getPath()), new File(options.getOutputPath()), context, output);
+            } else if (options.isNdjson()) {
+                ForkJoinPool pool = options.isParallel() ? new ForkJoinPool(options.getThreads()) : null;
+                try {
+                    new NdjsonMask(objectMapper, pool, options.getChunkBytes(), output).anonymizeFile(
+                            new File(options.getPath()), new File(options.getOutputPath()), context, checkpoint);
+                } finally {
+                    if (pool != null) {
+                        pool.shutdown();
+                    }
+                }
+            } else if (options.isPipeline()) {
+                pipeline = new PipelineMask(objectMapper, options.getThreads(), options.getQueueSize(),
+                        PipelineMask.DEFAULT_BATCH_SIZE);
+                pipeline.anonymizeFile(new File(options.getPath()), new File(options.getOutputPath()), context,
+                        output);
+            } else if (options.isStream()) {
+                new StreamingMask(objectMapper).anonymizeFile(
+                        new File(options.getPath()), new File(options.getOutputPath()), context, output);
+            } else {
+                File file = new File(options.getPath());
+                List<Map<String, Object>> recordList = objectMapper.readValue(file,
+                        objectMapper.getTypeFactory().constructCollectionType(List.class, CompactRecord.class));
+                metrics.addBytes(file.length());
+                List<Map<String, Object>> newRecords;
+                if (options.isParallel()) {
+                    ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+                    try {
+                        newRecords = new ParallelMask(pool, options.getChunkSize()).anonymizeRecords(recordList, context);
+                    } finally {
+                        pool.shutdown();
+                    }
+                } else {
+                    newRecords = anonymizeRecords(recordList, context);
+                }
+                try (MaskOutput.RecordWriter writer = output.open(objectMapper.getFactory(),
+                        new File(options.getOutputPath()))) {
+                    for (Map<String, Object> record : newRecords) {
+                        writer.write(record, null);
+                    }
+                    writer.finish();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            // deletes the spill files
+            try {
+                pseudonyms.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.print(metrics.summary());
+        System.out.print(pseudonyms.summary());
+        if (checkpoint != null) {
+            System.out.print(checkpoint.summary());
+        }
+        if (pipeline != null) {
+            System.out.print(pipeline.summary());
+        }
+        if (batch != null) {
+            System.out.print(batch.report());
+        }
+        metrics.emitEvents();
     }
 
     public static List<Map<String, Object>> anonymizeRecords(List<Map<String, Object>> records) {
+        return anonymizeRecords(records, new MaskContext());
+    }
+
+    public static List<Map<String, Object>> anonymizeRecords(List<Map<String, Object>> records, MaskContext context) {
         int count = 0;
-//        Map<String, Object> prevMap = new HashMap<>();
-//        Map<String, Object> prevConverted = new HashMap<>();
-        Map<String, Map<String, Object[]>> sensitiveValues = new LinkedHashMap<>();
         for (Map<String, Object> map : records) {
             count++;
-            System.out.println(map.toString());
-//            Map<String, Object[]> tempMap = new HashMap(map);
-            anonymizeRecord(/* prevMap, prevConverted,*/ map, sensitiveValues, count);
-            System.out.println(map.toString());
-            System.out.println();
-  //          prevMap = tempMap;
-  //          prevConverted = map;
+            anonymizeRecord(map, context, count);
         }
         return records;
     }
 
-    private static Map<String, Object> anonymizeRecord(/*Map<String, Object> prev, Map<String, Object> prevConverted,*/
-                                                       Map<String, Object> record,
-                                                       Map<String, Map<String, Object[]>> sensitiveTable, int iteration) {
-        Map<String, Object[]> sensitiveValues = new LinkedHashMap<>();
-        Map<String, Object[]> prevTable = null;
-        prevTable = sensitiveTable.get(SENSITIVES_KEY);
-        if (prevTable == null) {
-            sensitiveTable.put(SENSITIVES_KEY, sensitiveValues);
+    /**
+     * leakCandidate
+     *
+     * @param value value of a non sensitive field
+     * @return the value as a string if it is long enough to be checked against the leak index, otherwise null
+     */
+    static String leakCandidate(Object value) {
+        if (value instanceof String) {
+            String str = (String) value;
+            return (str.length() > LEAK_MIN_LENGTH) ? str : null;
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return leakCandidate(((Number) value).longValue());
+        }
+        return null;
+    }
+
+    /**
+     * leakCandidate
+     *
+     * @param number whole number of a non sensitive field
+     * @return the number as a string if it is large enough to be checked against the leak index, otherwise null
+     */
+    static String leakCandidate(long number) {
+        return (number >= LEAK_MIN_NUMBER || number <= -LEAK_MIN_NUMBER) ? Long.toString(number) : null;
+    }
+
+    /**
+     * indexLeak
+     *
+     * Adds a sensitive value to the leak index unless it is too short for any leakCandidate to match it: a candidate
+     * is longer than LEAK_MIN_LENGTH, a number of at least LEAK_MIN_NUMBER has more digits than that
+     *
+     * @param leakIndex index of the run
+     * @param value     original value of a sensitive field, ignored when null
+     * @param iteration record number the value was seen in
+     */
+    static void indexLeak(LeakIndex leakIndex, Object value, int iteration) {
+        if (value != null) {
+            String str = value.toString();
+            if (str.length() > LEAK_MIN_LENGTH) {
+                leakIndex.add(str, iteration);
+            }
+        }
+    }
+
+    /**
+     * indexRecord
+     *
+     * Adds the record's sensitive values to the leak index and claims its pseudonyms without masking it, so parallel
+     * workers can index every record before any record is masked
+     *
+     * @param record    flat record, not changed
+     * @param context   state of the masking run
+     * @param iteration record number in the run, starting at 1
+     */
+    static void indexRecord(Map<String, Object> record, MaskContext context, int iteration) {
+        MaskPlan plan = context.getPlan();
+        LeakIndex leakIndex = context.getLeakIndex();
+        PseudonymTable pseudonyms = context.getPseudonyms();
+        String addressKey = plan.getAddressKey();
+        Object address = (addressKey != null) ? record.get(addressKey) : null;
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            FieldRule rule = plan.rule(entry.getKey());
+            Object value = entry.getValue();
+            if (rule.getKind() == FieldRule.KIND.SENSITIVE && rule.getHint() != null && !rule.isStateless()) {
+                pseudonyms.claim(entry.getKey(), MaskPlan.pseudonymValue(rule, value, address), iteration);
+            }
+            if (value == null) {
+                continue;
+            }
+            if (rule.getKind() == FieldRule.KIND.SENSITIVE) {
+                indexLeak(leakIndex, value, iteration);
+            } else if (rule.getKind() == FieldRule.KIND.UNKNOWN && value instanceof String) {
+                pseudonyms.claim(entry.getKey(), value, iteration);
+            }
+        }
+    }
+
+    /**
+     * maskPii
+     *
+     * @param value     text of an unknown or non sensitive field
+     * @param scanner   scanner holding the findings of the value
+     * @param found     number of findings
+     * @param plan      rules masking each kind of PII
+     * @param iteration record number in the run, starting at 1
+     * @param member    original member id of the record
+     * @param metrics   counts the PII found
+     * @return the text with every PII found in it masked by the rule of its kind, the value itself if there is none
+     */
+    static String maskPii(String value, PiiScanner scanner, int found, MaskPlan plan, int iteration, Object member,
+                          MaskMetrics metrics) {
+        if (found == 0) {
+            return value;
         }
-        for (String key : record.keySet()) {
-            Map<Class, String> sensitive = SENSITIVES.get(key);
-            Object value = record.get(key);
-            Object newValue = null;
-            Object prevValue = null;
-            if (prevTable != null) {
-                Object[] prevValues = prevTable.get(key);
-                if (prevValues != null) {
-                    prevValue = prevValues[0];
+        StringBuilder masked = new StringBuilder(value.length() + 16);
+        int end = 0;
+        for (int i = 0; i < found; i++) {
+            PiiScanner.KIND kind = scanner.kind(i);
+            masked.append(value, end, scanner.start(i))
+                    .append(plan.piiRule(kind).mask(value.substring(scanner.start(i), scanner.end(i)), iteration,
+                            true, member));
+            end = scanner.end(i);
+            metrics.recordPii(kind);
+        }
+        return masked.append(value, end, value.length()).toString();
+    }
+
+    static Map<String, Object> anonymizeRecord(Map<String, Object> record, MaskContext context, int iteration) {
+        return anonymizeRecord(record, context, iteration, true);
+    }
+
+    /**
+     * anonymizeRecord
+     *
+     * @param record    flat record, masked in place
+     * @param context   state of the masking run
+     * @param iteration record number in the run, starting at 1
+     * @param format    false to leave the FORMAT of masked values to the writer, see StreamingMask
+     * @return the record
+     */
+    static Map<String, Object> anonymizeRecord(Map<String, Object> record, MaskContext context, int iteration,
+                                               boolean format) {
+        String original = context.isSampled(iteration) ? record.toString() : null;
+        MaskPlan plan = context.getPlan();
+        MaskMetrics metrics = context.getMetrics();
+        boolean timings = metrics.isTimings();
+        LeakIndex leakIndex = context.getLeakIndex();
+        PseudonymTable pseudonyms = context.getPseudonyms();
+        // the fields of a compact record take their rule from its slot
+        FieldRule[] slotRules = (record instanceof CompactRecord) ?
+                plan.rules(((CompactRecord) record).getSchema()) : null;
+        // the original member id, before a rule masks it
+        String shiftKey = plan.getShiftKey();
+        Object member = (shiftKey != null) ? record.get(shiftKey) : null;
+        // the original address_1, every address hint of the record masks from its dictionary row
+        String addressKey = plan.getAddressKey();
+        Object address = (addressKey != null) ? record.get(addressKey) : null;
+        // non sensitive values are checked for leaks once every sensitive value of the record is indexed
+        List<Map.Entry<String, Object>> leakEntries = null;
+        List<String> leakValues = null;
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            String key = entry.getKey();
+            int slot = (slotRules != null) ? ((CompactRecord.Field) entry).getSlot() : -1;
+            FieldRule rule = (slot >= 0 && slot < slotRules.length) ? slotRules[slot] : plan.rule(key);
+            if (rule.getKind() == FieldRule.KIND.NON_SENSITIVE && rule.getType() != null &&
+                    entry instanceof CompactRecord.Field && ((CompactRecord.Field) entry).isNumber()) {
+                // a number of a compact record is checked in its slot, without boxing it
+                CompactRecord.Field field = (CompactRecord.Field) entry;
+                TYPE type = rule.getType();
+                long start = timings ? System.nanoTime() : 0;
+                if (!type.validatesNumbers()) {
+                    entry.setValue("MISMATCH TYPE");
+                    metrics.recordMismatchType();
                 }
+                String candidate = field.isWhole() ? leakCandidate(field.getNumber()) : null;
+                if (timings) {
+                    metrics.recordType(type, System.nanoTime() - start);
+                }
+                if (candidate != null) {
+                    if (leakEntries == null) {
+                        leakEntries = new ArrayList<>(2);
+                        leakValues = new ArrayList<>(2);
+                    }
+                    leakEntries.add(entry);
+                    leakValues.add(candidate);
+                }
+                continue;
             }
-            if (sensitive != null) {
-//                Object prevValue =
-
-    //            prevValue = sensitiveTable.get()
-                if (prevValue == null || !prevValue.equals(value)) {
-                    String strHint = sensitive.get(HINT.class);
-                    String strType = sensitive.get(TYPE.class);
-                    if (StringUtils.isNotEmpty(strHint)) {
-                        HINT hint = HINT.valueOf(strHint);
-                        if (StringUtils.isNotEmpty(strType)) {
-                            newValue = hint.mask(value, iteration, TYPE.valueOf(strType));
-                        } else {
-                            newValue = hint.mask(value, iteration, TYPE.alphanumeric);
+            Object value = entry.getValue();
+            switch (rule.getKind()) {
+                case SENSITIVE:
+                    indexLeak(leakIndex, value, iteration);
+                    if (rule.isStateless()) {
+                        long start = timings ? System.nanoTime() : 0;
+                        entry.setValue(rule.mask(value, iteration, format, member));
+                        if (timings) {
+                            metrics.recordHint(rule.getHint(), rule.getType(), System.nanoTime() - start);
                         }
-                        String strFormat = sensitive.get(FORMAT.class);
-                        if (StringUtils.isNotEmpty(strFormat)) {
-                            FORMAT format = FORMAT.valueOf(strFormat);
-                            newValue = format.format(newValue);
+                    } else if (rule.getHint() != null) {
+                        entry.setValue(pseudonyms.pseudonym(key, rule, MaskPlan.pseudonymValue(rule, value, address),
+                                iteration, metrics, format));
+                    }
+                    break;
+                case UNKNOWN: {
+                    FieldRule masking = rule;
+                    if (value instanceof String && plan.isDetecting()) {
+                        PiiScanner scanner = PiiScanner.get();
+                        int found = scanner.scan((String) value);
+                        if (!scanner.isWhole((String) value)) {
+                            // free text keeps its words, a sensitive value in it is still caught
+                            entry.setValue(maskPii((String) value, scanner, found, plan, iteration, member, metrics));
+                            String candidate = leakCandidate(value);
+                            if (candidate != null) {
+                                if (leakEntries == null) {
+                                    leakEntries = new ArrayList<>(2);
+                                    leakValues = new ArrayList<>(2);
+                                }
+                                leakEntries.add(entry);
+                                leakValues.add(candidate);
+                            }
+                            break;
                         }
-                        record.put(key, newValue);
+                        masking = plan.piiRule(scanner.kind(0));
+                        metrics.recordPii(scanner.kind(0));
                     }
-                } else {
-                    record.put(key, prevTable.get(key)[1]);
-                }
-            } else {
-                Map<Class, String> nonSensitive = NON_SENSITIVES.get(key);
- //               Object prevValue = prev.get(key);
-                if (nonSensitive == null) {
-                    if (prevValue == null || !prevValue.equals(value)) {
-                        if (value instanceof String) {
-                            newValue = HINT.unique.mask(value, iteration, TYPE.alphanumeric);
+                    if (masking.isStateless()) {
+                        long start = timings ? System.nanoTime() : 0;
+                        entry.setValue(masking.mask(value, iteration, format, member));
+                        if (timings) {
+                            metrics.recordHint(masking.getHint(), masking.getType(), System.nanoTime() - start);
                         }
-                        record.put(key, newValue);
                     } else {
-                        record.put(key, prevTable.get(key)[1]);
+                        entry.setValue((value instanceof String) ?
+                                pseudonyms.pseudonym(key, masking, value, iteration, metrics, format) : null);
                     }
-                } else {
-                        String strType = nonSensitive.get(TYPE.class);
-                        if (value != null && !strType.isEmpty()) {
-                            TYPE type = TYPE.valueOf(strType);
-                            if (!type.validate(value)) {
-                                record.put(key, "MISMATCH TYPE");
-                            }
-                            if (value instanceof String && ((String) value).length() > 7) {
-                                if (sensitiveValues.values().stream().map(s -> s[0]).collect(Collectors.toList()).contains(value)) {
-                                    record.put(key, "SENSITIVE MATCHING VALUE");
-                                    continue;
-                                }
+                    break;
+                }
+                default:
+                    TYPE type = rule.getType();
+                    if (value != null && type != null) {
+                        long start = timings ? System.nanoTime() : 0;
+                        if (!type.validate(value)) {
+                            entry.setValue("MISMATCH TYPE");
+                            metrics.recordMismatchType();
+                        } else if (value instanceof String && plan.isScanned(rule)) {
+                            PiiScanner scanner = PiiScanner.get();
+                            entry.setValue(maskPii((String) value, scanner, scanner.scan((String) value), plan,
+                                    iteration, member, metrics));
+                        }
+                        String candidate = leakCandidate(value);
+                        if (timings) {
+                            metrics.recordType(type, System.nanoTime() - start);
+                        }
+                        if (candidate != null) {
+                            if (leakEntries == null) {
+                                leakEntries = new ArrayList<>(2);
+                                leakValues = new ArrayList<>(2);
                             }
+                            leakEntries.add(entry);
+                            leakValues.add(candidate);
                         }
-                }
+                    }
             }
-            if (newValue != null && !newValue.equals(value)) {
-                sensitiveValues.put(key, new Object[] {value, newValue});
+        }
+        if (leakEntries != null) {
+            for (int i = 0; i < leakEntries.size(); i++) {
+                if (leakIndex.contains(leakValues.get(i), iteration)) {
+                    leakEntries.get(i).setValue("SENSITIVE MATCHING VALUE");
+                    metrics.recordSensitiveMatch();
+                }
             }
         }
+        metrics.recordMasked(record.size(), iteration);
+        if (original != null) {
+            context.logSample(iteration, original, record);
+        }
         return record;
     }
 }
@@ -0,0 +1,133 @@
+package com.tackleset.masker;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * MaskContext is the state shared by every record of one masking run
+ *
+ * It carries the compiled plan, the pseudonym table, the leak index, the metrics and the record logging settings so
+ * that the serial, streaming and parallel engines mask records the same way.
+ */
+public class MaskContext {
+
+    private final MaskPlan plan;
+    private final MaskMetrics metrics;
+    private final LeakIndex leakIndex;
+    private final PseudonymTable pseudonyms;
+    private final int logSample;
+    private final PrintStream log;
+
+    public MaskContext() {
+        this(new Builder());
+    }
+
+    /**
+     * @param metrics   receives the counters and timings of the run
+     * @param logSample print every logSample-th record before and after masking, 0 to not print records
+     * @param log       where sampled records are printed
+     */
+    public MaskContext(MaskMetrics metrics, int logSample, PrintStream log) {
+        this(new Builder().metrics(metrics).logSample(logSample, log));
+    }
+
+    private MaskContext(Builder builder) {
+        this.plan = builder.plan;
+        this.metrics = builder.metrics;
+        this.leakIndex = (builder.leakIndex != null) ? builder.leakIndex : new HashLeakIndex();
+        this.pseudonyms = (builder.pseudonyms != null) ? builder.pseudonyms : new PseudonymTable();
+        this.logSample = builder.logSample;
+        this.log = builder.log;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public MaskPlan getPlan() {
+        return plan;
+    }
+
+    public MaskMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LeakIndex getLeakIndex() {
+        return leakIndex;
+    }
+
+    public PseudonymTable getPseudonyms() {
+        return pseudonyms;
+    }
+
+    boolean isSampled(int iteration) {
+        return logSample > 0 && iteration % logSample == 0;
+    }
+
+    void logSample(int iteration, String original, Map<String, Object> masked) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("record ").append(iteration).append(System.lineSeparator())
+                .append(original).append(System.lineSeparator())
+                .append(masked).append(System.lineSeparator());
+        log.println(sb);
+    }
+
+    /**
+     * Builder of a MaskContext, every setting has a default
+     */
+    public static class Builder {
+
+        private MaskPlan plan = MaskPlan.DEFAULT;
+        private MaskMetrics metrics = new MaskMetrics(false);
+        private LeakIndex leakIndex;
+        private PseudonymTable pseudonyms;
+        private int logSample;
+        private PrintStream log = System.out;
+
+        /**
+         * @param plan compiled masking rules, defaults to MaskPlan.DEFAULT
+         */
+        public Builder plan(MaskPlan plan) {
+            this.plan = plan;
+            return this;
+        }
+
+        /**
+         * @param metrics receives the counters and timings of the run
+         */
+        public Builder metrics(MaskMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param leakIndex index of sensitive values, defaults to a HashLeakIndex
+         */
+        public Builder leakIndex(LeakIndex leakIndex) {
+            this.leakIndex = leakIndex;
+            return this;
+        }
+
+        /**
+         * @param pseudonyms original to masked values of the run, defaults to an unbounded in-memory table
+         */
+        public Builder pseudonyms(PseudonymTable pseudonyms) {
+            this.pseudonyms = pseudonyms;
+            return this;
+        }
+
+        /**
+         * @param logSample print every logSample-th record before and after masking, 0 to not print records
+         * @param log       where sampled records are printed
+         */
+        public Builder logSample(int logSample, PrintStream log) {
+            this.logSample = logSample;
+            this.log = log;
+            return this;
+        }
+
+        public MaskContext build() {
+            return new MaskContext(this);
+        }
+    }
+}
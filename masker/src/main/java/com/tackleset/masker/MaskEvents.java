@@ -0,0 +1,136 @@
+package com.tackleset.masker;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * MaskEvents are the Java Flight Recorder events emitted by a masking run
+ *
+ * Callers check AVAILABLE first so the masker still runs on a JVM without Flight Recorder.
+ */
+final class MaskEvents {
+
+    static final boolean AVAILABLE = available();
+
+    private MaskEvents() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, MaskEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Name("com.tackleset.masker.Progress")
+    @Label("Masking Progress")
+    @Category("Masker")
+    static class Progress extends Event {
+
+        @Label("Records")
+        long records;
+
+        @Label("Fields")
+        long fields;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        static void emit(long records, long fields, long bytes) {
+            Progress event = new Progress();
+            if (event.shouldCommit()) {
+                event.records = records;
+                event.fields = fields;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.tackleset.masker.Summary")
+    @Label("Masking Summary")
+    @Category("Masker")
+    static class Summary extends Event {
+
+        @Label("Records")
+        long records;
+
+        @Label("Fields")
+        long fields;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Mismatch Type")
+        long mismatchTypes;
+
+        @Label("Sensitive Matching Value")
+        long sensitiveMatches;
+
+        @Label("Run Duration")
+        @Timespan
+        long runNanos;
+
+        static void emit(long records, long fields, long bytes, long mismatchTypes, long sensitiveMatches,
+                         long runNanos) {
+            Summary event = new Summary();
+            if (event.shouldCommit()) {
+                event.records = records;
+                event.fields = fields;
+                event.bytes = bytes;
+                event.mismatchTypes = mismatchTypes;
+                event.sensitiveMatches = sensitiveMatches;
+                event.runNanos = runNanos;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.tackleset.masker.FieldTiming")
+    @Label("Field Masking Time")
+    @Category("Masker")
+    static class FieldTiming extends Event {
+
+        @Label("Kind")
+        String kind;
+
+        @Label("Name")
+        String name;
+
+        @Label("Count")
+        long count;
+
+        @Label("Mean")
+        @Timespan
+        long meanNanos;
+
+        @Label("50th Percentile")
+        @Timespan
+        long p50Nanos;
+
+        @Label("99th Percentile")
+        @Timespan
+        long p99Nanos;
+
+        static void emit(String kind, String name, LatencyHistogram histogram) {
+            FieldTiming event = new FieldTiming();
+            if (event.shouldCommit()) {
+                event.kind = kind;
+                event.name = name;
+                event.count = histogram.getCount();
+                event.meanNanos = histogram.getMeanNanos();
+                event.p50Nanos = histogram.percentile(0.5);
+                event.p99Nanos = histogram.percentile(0.99);
+                event.commit();
+            }
+        }
+    }
+}
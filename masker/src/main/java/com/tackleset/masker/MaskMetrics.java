@@ -0,0 +1,186 @@
+package com.tackleset.masker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MaskMetrics counts what a masking run processed and how long each hint and type took
+ *
+ * Counters are lock free so parallel masking threads share one instance.  At the end of a run the totals are
+ * available as a text summary and as Flight Recorder events.
+ */
+public class MaskMetrics {
+
+    static final int PROGRESS_INTERVAL = 10000;
+
+    private final boolean timings;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder fields = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder mismatchTypes = new LongAdder();
+    private final LongAdder sensitiveMatches = new LongAdder();
+    private final LongAdder[] piiFindings = new LongAdder[PiiScanner.KIND.values().length];
+    private final LatencyHistogram[] hintTimings = new LatencyHistogram[Mask.HINT.values().length];
+    private final LatencyHistogram[] typeTimings = new LatencyHistogram[Mask.TYPE.values().length];
+
+    /**
+     * @param timings true to time every masked field, false to only count
+     */
+    public MaskMetrics(boolean timings) {
+        this.timings = timings;
+        for (int i = 0; i < hintTimings.length; i++) {
+            hintTimings[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < typeTimings.length; i++) {
+            typeTimings[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < piiFindings.length; i++) {
+            piiFindings[i] = new LongAdder();
+        }
+    }
+
+    public boolean isTimings() {
+        return timings;
+    }
+
+    void recordMasked(int fieldCount, int iteration) {
+        records.increment();
+        fields.add(fieldCount);
+        if (iteration % PROGRESS_INTERVAL == 0 && MaskEvents.AVAILABLE) {
+            MaskEvents.Progress.emit(records.sum(), fields.sum(), bytes.sum());
+        }
+    }
+
+    void recordHint(Mask.HINT hint, Mask.TYPE type, long nanos) {
+        hintTimings[hint.ordinal()].record(nanos);
+        typeTimings[type.ordinal()].record(nanos);
+    }
+
+    void recordType(Mask.TYPE type, long nanos) {
+        typeTimings[type.ordinal()].record(nanos);
+    }
+
+    void recordMismatchType() {
+        mismatchTypes.increment();
+    }
+
+    void recordSensitiveMatch() {
+        sensitiveMatches.increment();
+    }
+
+    void recordPii(PiiScanner.KIND kind) {
+        piiFindings[kind.ordinal()].increment();
+    }
+
+    /**
+     * addBytes
+     *
+     * @param count input bytes consumed
+     */
+    public void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    public long getFields() {
+        return fields.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getMismatchTypes() {
+        return mismatchTypes.sum();
+    }
+
+    public long getSensitiveMatches() {
+        return sensitiveMatches.sum();
+    }
+
+    /**
+     * @return number of values and pieces of text found to be PII of the kind and masked
+     */
+    public long getPiiFindings(PiiScanner.KIND kind) {
+        return piiFindings[kind.ordinal()].sum();
+    }
+
+    LatencyHistogram getHintTiming(Mask.HINT hint) {
+        return hintTimings[hint.ordinal()];
+    }
+
+    LatencyHistogram getTypeTiming(Mask.TYPE type) {
+        return typeTimings[type.ordinal()];
+    }
+
+    /**
+     * emitEvents
+     *
+     * Commits the end of run summary and the per hint and per type timings as Flight Recorder events
+     */
+    public void emitEvents() {
+        if (!MaskEvents.AVAILABLE) {
+            return;
+        }
+        MaskEvents.Summary.emit(getRecords(), getFields(), getBytes(), getMismatchTypes(), getSensitiveMatches(),
+                System.nanoTime() - startNanos);
+        for (Mask.HINT hint : Mask.HINT.values()) {
+            if (getHintTiming(hint).getCount() > 0) {
+                MaskEvents.FieldTiming.emit("HINT", hint.name(), getHintTiming(hint));
+            }
+        }
+        for (Mask.TYPE type : Mask.TYPE.values()) {
+            if (getTypeTiming(type).getCount() > 0) {
+                MaskEvents.FieldTiming.emit("TYPE", type.name(), getTypeTiming(type));
+            }
+        }
+    }
+
+    /**
+     * summary
+     *
+     * @return end of run counters, throughput and the per hint and per type timings
+     */
+    public String summary() {
+        long elapsedNanos = Math.max(System.nanoTime() - startNanos, 1);
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("records %d, fields %d, bytes %d in %.3f s (%.0f records/s, %.2f MB/s)%n",
+                getRecords(), getFields(), getBytes(), seconds, getRecords() / seconds,
+                getBytes() / seconds / (1024 * 1024)));
+        sb.append(String.format("MISMATCH TYPE %d, SENSITIVE MATCHING VALUE %d%n",
+                getMismatchTypes(), getSensitiveMatches()));
+        long pii = 0;
+        for (LongAdder findings : piiFindings) {
+            pii += findings.sum();
+        }
+        if (pii > 0) {
+            sb.append("PII");
+            for (PiiScanner.KIND kind : PiiScanner.KIND.values()) {
+                sb.append((kind.ordinal() == 0) ? " " : ", ").append(kind).append(' ').append(getPiiFindings(kind));
+            }
+            sb.append(String.format("%n"));
+        }
+        if (timings) {
+            for (Mask.HINT hint : Mask.HINT.values()) {
+                appendTiming(sb, "HINT", hint.name(), getHintTiming(hint));
+            }
+            for (Mask.TYPE type : Mask.TYPE.values()) {
+                appendTiming(sb, "TYPE", type.name(), getTypeTiming(type));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendTiming(StringBuilder sb, String kind, String name, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        sb.append(String.format("%s %-17s count %d, mean %d ns, p50 <= %d ns, p99 <= %d ns%n", kind, name,
+                histogram.getCount(), histogram.getMeanNanos(), histogram.percentile(0.5),
+                histogram.percentile(0.99)));
+    }
+}
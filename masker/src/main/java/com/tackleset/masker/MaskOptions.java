@@ -0,0 +1,599 @@
+package com.tackleset.masker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MaskOptions holds the command line arguments for Mask
+ *
+ * The first argument is the path of the json file to mask, or a directory or glob of files to mask in one batch, the
+ * remaining arguments are flags
+ */
+public class MaskOptions {
+
+    static final String STREAM = "--stream";
+    static final String PARALLEL = "--parallel";
+    static final String THREADS = "--threads=";
+    static final String CHUNK_SIZE = "--chunk-size=";
+    static final String LOG_SAMPLE = "--log-sample=";
+    static final String TIMINGS = "--timings";
+    static final String BLOOM_FILTER = "--bloom-filter=";
+    static final String BLOOM_FPP = "--bloom-fpp=";
+    static final String PSEUDONYM_CACHE = "--pseudonym-cache=";
+    static final String SPILL_DIR = "--spill-dir=";
+    static final String HINT = "--hint=";
+    static final String TOKEN_KEY = "--token-key=";
+    static final String SEED = "--seed=";
+    static final String DATE_SHIFT_KEY = "--date-shift-key=";
+    static final String DATE_SHIFT_DAYS = "--date-shift-days=";
+    static final String DETECT_PII = "--detect-pii";
+    static final String PII_HINT = "--pii-hint=";
+    static final String NDJSON = "--ndjson";
+    static final String CHUNK_BYTES = "--chunk-bytes=";
+    static final String CSV = "--csv";
+    static final String BATCH_SIZE = "--batch-size=";
+    static final String DICTIONARY = "--dictionary=";
+    static final String CHECKPOINT_DIR = "--checkpoint-dir=";
+    static final String PIPELINE = "--pipeline";
+    static final String QUEUE_SIZE = "--queue-size=";
+    static final String OUTPUT = "--output=";
+    static final String GZIP = "--gzip";
+    static final String GZIP_LEVEL = "--gzip-level=";
+    static final String OUTPUT_BUFFER = "--output-buffer=";
+    static final String SPLIT_BYTES = "--split-bytes=";
+
+    private final String path;
+    private boolean stream;
+    private boolean parallel;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = ParallelMask.DEFAULT_CHUNK_SIZE;
+    private int logSample;
+    private boolean timings;
+    private int bloomFilter;
+    private double bloomFpp = BloomLeakIndex.DEFAULT_FALSE_POSITIVE_RATE;
+    private int pseudonymCache = PseudonymTable.DEFAULT_CACHE_SIZE;
+    private String spillDir;
+    private final Map<String, String> hints = new LinkedHashMap<>();
+    private String tokenKey = System.getenv(Tokenizer.KEY_ENV);
+    private Long seed;
+    private String dateShiftKey = DateShift.DEFAULT_KEY;
+    private int dateShiftDays = DateShift.DEFAULT_DAYS;
+    private boolean detectPii;
+    private final Map<PiiScanner.KIND, Mask.HINT> piiHints = new LinkedHashMap<>();
+    private boolean ndjson;
+    private int chunkBytes = NdjsonMask.DEFAULT_CHUNK_BYTES;
+    private boolean csv;
+    private int batchSize = CsvMask.DEFAULT_BATCH_SIZE;
+    private final Map<String, String> dictionaries = new LinkedHashMap<>();
+    private String checkpointDir;
+    private boolean pipeline;
+    private int queueSize = PipelineMask.DEFAULT_QUEUE_SIZE;
+    private MaskOutput.MODE outputMode;
+    private boolean gzip;
+    private Integer gzipLevel;
+    private int outputBuffer = MaskOutput.DEFAULT_BUFFER_SIZE;
+    private int splitBytes;
+
+    private MaskOptions(String path) {
+        this.path = path;
+    }
+
+    /**
+     * parse
+     *
+     * @param args command line arguments, path first followed by flags
+     * @return options for the run
+     * @throws IllegalArgumentException on an unknown flag
+     */
+    public static MaskOptions parse(String[] args) {
+        MaskOptions options = new MaskOptions(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals(STREAM)) {
+                options.stream = true;
+            } else if (arg.equals(PARALLEL)) {
+                options.parallel = true;
+            } else if (arg.startsWith(THREADS)) {
+                options.threads = positive(arg, THREADS);
+            } else if (arg.startsWith(CHUNK_SIZE)) {
+                options.chunkSize = positive(arg, CHUNK_SIZE);
+            } else if (arg.startsWith(LOG_SAMPLE)) {
+                options.logSample = positive(arg, LOG_SAMPLE);
+            } else if (arg.equals(TIMINGS)) {
+                options.timings = true;
+            } else if (arg.startsWith(BLOOM_FILTER)) {
+                options.bloomFilter = positive(arg, BLOOM_FILTER);
+            } else if (arg.startsWith(BLOOM_FPP)) {
+                options.bloomFpp = Double.parseDouble(arg.substring(BLOOM_FPP.length()));
+                if (!(options.bloomFpp > 0 && options.bloomFpp < 1)) {
+                    throw new IllegalArgumentException(BLOOM_FPP + " must be between 0 and 1");
+                }
+            } else if (arg.startsWith(PSEUDONYM_CACHE)) {
+                options.pseudonymCache = positive(arg, PSEUDONYM_CACHE);
+            } else if (arg.startsWith(SPILL_DIR)) {
+                options.spillDir = arg.substring(SPILL_DIR.length());
+            } else if (arg.startsWith(HINT)) {
+                String[] hint = arg.substring(HINT.length()).split(":", 2);
+                if (hint.length != 2 || hint[0].isEmpty()) {
+                    throw new IllegalArgumentException(HINT + " expects field:hint, got " + arg);
+                }
+                options.hints.put(hint[0], Mask.HINT.valueOf(hint[1]).name());
+            } else if (arg.startsWith(TOKEN_KEY)) {
+                options.tokenKey = arg.substring(TOKEN_KEY.length());
+            } else if (arg.startsWith(DATE_SHIFT_KEY)) {
+                options.dateShiftKey = arg.substring(DATE_SHIFT_KEY.length());
+                if (options.dateShiftKey.isEmpty()) {
+                    throw new IllegalArgumentException(DATE_SHIFT_KEY + " expects a field name");
+                }
+            } else if (arg.startsWith(DATE_SHIFT_DAYS)) {
+                options.dateShiftDays = positive(arg, DATE_SHIFT_DAYS);
+            } else if (arg.equals(DETECT_PII)) {
+                options.detectPii = true;
+            } else if (arg.startsWith(PII_HINT)) {
+                String[] hint = arg.substring(PII_HINT.length()).split(":", 2);
+                if (hint.length != 2) {
+                    throw new IllegalArgumentException(PII_HINT + " expects kind:hint, got " + arg);
+                }
+                options.piiHints.put(PiiScanner.KIND.valueOf(hint[0]), Mask.HINT.valueOf(hint[1]));
+                options.detectPii = true;
+            } else if (arg.equals(NDJSON)) {
+                options.ndjson = true;
+            } else if (arg.startsWith(CHUNK_BYTES)) {
+                options.chunkBytes = positive(arg, CHUNK_BYTES);
+            } else if (arg.equals(CSV)) {
+                options.csv = true;
+            } else if (arg.startsWith(BATCH_SIZE)) {
+                options.batchSize = positive(arg, BATCH_SIZE);
+            } else if (arg.startsWith(DICTIONARY)) {
+                String[] dictionary = arg.substring(DICTIONARY.length()).split(":", 2);
+                if (dictionary.length != 2 || dictionary[1].isEmpty()) {
+                    throw new IllegalArgumentException(DICTIONARY + " expects name:path, got " + arg);
+                }
+                if (!Mask.DICTIONARIES.containsKey(dictionary[0])) {
+                    throw new IllegalArgumentException("Unknown dictionary " + dictionary[0] + ", expected one of " +
+                            Mask.DICTIONARIES.keySet());
+                }
+                options.dictionaries.put(dictionary[0], dictionary[1]);
+            } else if (arg.equals(PIPELINE)) {
+                options.pipeline = true;
+            } else if (arg.startsWith(QUEUE_SIZE)) {
+                options.queueSize = positive(arg, QUEUE_SIZE);
+            } else if (arg.startsWith(OUTPUT_BUFFER)) {
+                options.outputBuffer = positive(arg, OUTPUT_BUFFER);
+            } else if (arg.startsWith(OUTPUT)) {
+                options.outputMode = MaskOutput.MODE.valueOf(arg.substring(OUTPUT.length()));
+            } else if (arg.equals(GZIP)) {
+                options.gzip = true;
+            } else if (arg.startsWith(GZIP_LEVEL)) {
+                options.gzipLevel = Integer.parseInt(arg.substring(GZIP_LEVEL.length()));
+                if (options.gzipLevel < 0 || options.gzipLevel > 9) {
+                    throw new IllegalArgumentException(GZIP_LEVEL + " must be between 0 and 9");
+                }
+            } else if (arg.startsWith(SPLIT_BYTES)) {
+                options.splitBytes = positive(arg, SPLIT_BYTES);
+            } else if (arg.startsWith(CHECKPOINT_DIR)) {
+                options.checkpointDir = arg.substring(CHECKPOINT_DIR.length());
+            } else if (arg.startsWith(SEED)) {
+                options.seed = Long.parseLong(arg.substring(SEED.length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+        if (options.stream && options.parallel) {
+            throw new IllegalArgumentException(PARALLEL + " cannot be combined with " + STREAM);
+        }
+        if (options.stream && options.ndjson) {
+            throw new IllegalArgumentException(NDJSON + " cannot be combined with " + STREAM);
+        }
+        if (options.csv && (options.stream || options.parallel || options.ndjson)) {
+            throw new IllegalArgumentException(CSV + " cannot be combined with " + STREAM + ", " + PARALLEL +
+                    " or " + NDJSON);
+        }
+        if (options.pipeline && (options.stream || options.parallel || options.ndjson || options.csv)) {
+            throw new IllegalArgumentException(PIPELINE + " cannot be combined with " + STREAM + ", " + PARALLEL +
+                    ", " + NDJSON + " or " + CSV);
+        }
+        if (options.checkpointDir != null && !options.ndjson) {
+            throw new IllegalArgumentException(CHECKPOINT_DIR + " needs " + NDJSON);
+        }
+        if (options.csv && (options.outputMode != null || options.splitBytes > 0)) {
+            throw new IllegalArgumentException(CSV + " cannot be combined with " + OUTPUT + " or " + SPLIT_BYTES);
+        }
+        if (options.ndjson && options.outputMode != null && options.outputMode != MaskOutput.MODE.ndjson) {
+            throw new IllegalArgumentException(NDJSON + " input is written as " + OUTPUT + MaskOutput.MODE.ndjson);
+        }
+        if (options.gzipLevel != null && !options.gzip) {
+            throw new IllegalArgumentException(GZIP_LEVEL + " needs " + GZIP);
+        }
+        if (options.isBatch() && (options.csv || options.pipeline || options.checkpointDir != null)) {
+            throw new IllegalArgumentException("A directory or glob cannot be masked with " + CSV + ", " + PIPELINE +
+                    " or " + CHECKPOINT_DIR);
+        }
+        if (options.checkpointDir != null && options.splitBytes > 0) {
+            throw new IllegalArgumentException(CHECKPOINT_DIR + " cannot be combined with " + SPLIT_BYTES);
+        }
+        return options;
+    }
+
+    /**
+     * @return the command line help, one line per option
+     */
+    static String usage() {
+        StringBuilder usage = new StringBuilder()
+                .append("Usage: Mask PATH [options]\n")
+                .append("PATH is a json file of 'flat records' (json array of objects), or a directory or glob of\n")
+                .append("files masked in one batch with one pseudonym table\n\n");
+        option(usage, STREAM, "", "mask one record at a time");
+        option(usage, PARALLEL, "", "mask on all cores, also splits " + NDJSON + " input in chunks");
+        option(usage, THREADS, "N", "worker threads of " + PARALLEL + ", " + PIPELINE + " and batches");
+        option(usage, CHUNK_SIZE, "N", "records per task of " + PARALLEL);
+        option(usage, LOG_SAMPLE, "N", "print every Nth record");
+        option(usage, TIMINGS, "", "time every field");
+        option(usage, BLOOM_FILTER, "N", "check leaks with a bloom filter sized for N sensitive values");
+        option(usage, BLOOM_FPP, "R", "false positive rate of the bloom filter");
+        option(usage, PSEUDONYM_CACHE, "N", "pseudonyms kept in memory");
+        option(usage, SPILL_DIR, "DIR", "spill pseudonyms beyond the cache to files in DIR");
+        option(usage, HINT, "field:hint", "replace the hint of a field");
+        option(usage, TOKEN_KEY, "SECRET", "secret of the tokenize hint, default the " + Tokenizer.KEY_ENV +
+                " environment variable");
+        option(usage, SEED, "N", "seed of the random hint for a reproducible run");
+        option(usage, DATE_SHIFT_KEY, "FIELD", "member field whose dates the date_shift hint moves together");
+        option(usage, DATE_SHIFT_DAYS, "N", "largest shift of the date_shift hint in days");
+        option(usage, DETECT_PII, "", "mask SSNs, phone numbers, emails, dates and ZIP codes in unknown fields" +
+                " and text");
+        option(usage, PII_HINT, "kind:hint", "replace the hint of a kind of finding");
+        option(usage, NDJSON, "", "read and write one record per line");
+        option(usage, CHUNK_BYTES, "N", "bytes per chunk of " + NDJSON + " with " + PARALLEL);
+        option(usage, CSV, "", "read and write CSV with a header row");
+        option(usage, BATCH_SIZE, "N", "rows masked one column at a time with " + CSV);
+        option(usage, DICTIONARY, "NAME:FILE", "replace a dictionary with a tab separated file with a header line");
+        option(usage, CHECKPOINT_DIR, "DIR", "checkpoint an " + NDJSON + " run in DIR, the same run resumes it");
+        option(usage, PIPELINE, "", "parse, mask and write in overlapping stages");
+        option(usage, QUEUE_SIZE, "N", "batches queued between the stages of " + PIPELINE);
+        option(usage, OUTPUT, "pretty|compact|ndjson", "layout of json output");
+        option(usage, GZIP, "", "compress the output");
+        option(usage, GZIP_LEVEL, "N", "compression level of " + GZIP);
+        option(usage, OUTPUT_BUFFER, "N", "output buffer size in bytes");
+        option(usage, SPLIT_BYTES, "N", "split the output in parts of about N bytes");
+        return usage.toString();
+    }
+
+    private static void option(StringBuilder usage, String flag, String argument, String text) {
+        usage.append(String.format("  %-30s %s%n", flag + argument, text));
+    }
+
+    private static int positive(String arg, String flag) {
+        int value = Integer.parseInt(arg.substring(flag.length()));
+        if (value < 1) {
+            throw new IllegalArgumentException(flag + " must be positive");
+        }
+        return value;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the masked file, or the name its numbered parts are derived from if the output is split
+     */
+    public String getOutputPath() {
+        return outputPath(path);
+    }
+
+    /**
+     * outputPath
+     *
+     * @param in an input file
+     * @return the masked file of the input, or the name its numbered parts are derived from if the output is split
+     */
+    public String outputPath(String in) {
+        return in + ".masked" + (csv ? ".csv" + (gzip ? ".gz" : "") : output().extension());
+    }
+
+    /**
+     * @return true if the path is a directory or a glob of files to mask in one batch
+     */
+    public boolean isBatch() {
+        return BatchMask.isBatch(path);
+    }
+
+    /**
+     * files
+     *
+     * @return the files of a batch, the .json or with isNdjson the .ndjson files of a directory or the files of a glob
+     * @throws IOException if no file matches
+     */
+    public List<File> files() throws IOException {
+        return BatchMask.files(path, ndjson ? ".ndjson" : ".json");
+    }
+
+    /**
+     * output
+     *
+     * @return layout, compression and splitting of the masked file as selected by the options
+     */
+    public MaskOutput output() {
+        MaskOutput.MODE mode = (outputMode != null) ? outputMode : ndjson ? MaskOutput.MODE.ndjson
+                : MaskOutput.MODE.pretty;
+        MaskOutput.Builder builder = MaskOutput.builder()
+                .mode(mode)
+                .bufferSize(outputBuffer)
+                .splitBytes(splitBytes);
+        if (gzip) {
+            builder.gzip((gzipLevel != null) ? gzipLevel : MaskOutput.DEFAULT_LEVEL);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return true to read and write one record at a time instead of loading the whole file
+     */
+    public boolean isStream() {
+        return stream;
+    }
+
+    /**
+     * @return true to read and write one record per line, in parallel chunks with isParallel
+     */
+    public boolean isNdjson() {
+        return ndjson;
+    }
+
+    /**
+     * @return size of the line aligned chunks of NDJSON input
+     */
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * @return true to read and write CSV with a header row, masking a batch of rows one column at a time
+     */
+    public boolean isCsv() {
+        return csv;
+    }
+
+    /**
+     * @return number of CSV rows masked together
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return true to parse, mask and write in overlapping stages, with getThreads() masking workers
+     */
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return number of record batches each pipeline queue holds
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return true to mask the records on a fork join pool
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return largest number of records one fork join task masks without splitting
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return print every logSample-th record before and after masking, 0 to not print records
+     */
+    public int getLogSample() {
+        return logSample;
+    }
+
+    /**
+     * @return true to time every masked field by hint and type, off by default as it reads the clock twice per field
+     */
+    public boolean isTimings() {
+        return timings;
+    }
+
+    /**
+     * @return expected number of distinct sensitive values to size a bloom filter leak index for, 0 for the exact index
+     */
+    public int getBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * @return false positive rate of the bloom filter leak index
+     */
+    public double getBloomFpp() {
+        return bloomFpp;
+    }
+
+    /**
+     * leakIndex
+     *
+     * @return a new leak index for the run as selected by the options
+     */
+    public LeakIndex leakIndex() {
+        return (bloomFilter > 0) ? new BloomLeakIndex(bloomFilter, bloomFpp) : new HashLeakIndex();
+    }
+
+    /**
+     * @return largest number of pseudonyms kept in memory before spilling to disk, only with a spill directory
+     */
+    public int getPseudonymCache() {
+        return pseudonymCache;
+    }
+
+    /**
+     * @return directory of the temporary pseudonym spill files, null to keep every pseudonym in memory
+     */
+    public String getSpillDir() {
+        return spillDir;
+    }
+
+    /**
+     * pseudonyms
+     *
+     * @return a new pseudonym table for the run as selected by the options, its spilled and checkpointed entries
+     * keyed by a digest key derived from the token key, or a random one without a token key
+     */
+    public PseudonymTable pseudonyms() {
+        return new PseudonymTable(pseudonymCache, (spillDir != null) ? new File(spillDir) : null,
+                (tokenKey != null && !tokenKey.isEmpty()) ? KeyedDigest.derive(tokenKey, "pseudonyms") :
+                        KeyedDigest.random());
+    }
+
+    /**
+     * @return HINT name by field name, overriding the sensitive rule table
+     */
+    public Map<String, String> getHints() {
+        return hints;
+    }
+
+    /**
+     * @return secret of the tokenize hint, from the command line or the MASK_TOKEN_KEY environment variable
+     */
+    public String getTokenKey() {
+        return tokenKey;
+    }
+
+    /**
+     * @return seed of the random hint for reproducible runs, null for different values every run
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return field holding the member id the date_shift hint keys its offsets on
+     */
+    public String getDateShiftKey() {
+        return dateShiftKey;
+    }
+
+    /**
+     * @return largest number of days the date_shift hint moves a date
+     */
+    public int getDateShiftDays() {
+        return dateShiftDays;
+    }
+
+    /**
+     * @return true to mask the PII found in unknown fields and non sensitive text
+     */
+    public boolean isDetectPii() {
+        return detectPii;
+    }
+
+    /**
+     * @return HINT by kind of PII, replacing the defaults of MaskPlan.piiHints
+     */
+    public Map<PiiScanner.KIND, Mask.HINT> getPiiHints() {
+        return piiHints;
+    }
+
+    /**
+     * @return dictionary file path by dictionary name, replacing the built-in dictionaries
+     */
+    public Map<String, String> getDictionaries() {
+        return dictionaries;
+    }
+
+    /**
+     * plan
+     *
+     * @return the default rules with the hint overrides, token key, seed and dictionaries of the options compiled in
+     * @throws IllegalArgumentException if a field uses the tokenize hint without a token key, or a dictionary lacks a
+     *                                  column of the address hints
+     * @throws IOException              if a dictionary file cannot be read
+     */
+    public MaskPlan plan() throws IOException {
+        return plan(seed);
+    }
+
+    /**
+     * plan
+     *
+     * @param seed seed of the random hint in place of the options' seed, null for different values every run
+     * @return the default rules with the hint overrides, token key, seed and dictionaries compiled in
+     * @throws IllegalArgumentException if a field uses the tokenize hint without a token key, or a dictionary lacks a
+     *                                  column of the address hints
+     * @throws IOException              if a dictionary file cannot be read
+     */
+    public MaskPlan plan(Long seed) throws IOException {
+        if (hints.isEmpty() && tokenKey == null && seed == null && dictionaries.isEmpty() && !detectPii) {
+            return MaskPlan.DEFAULT;
+        }
+        Tokenizer tokenizer = (tokenKey != null && !tokenKey.isEmpty()) ? new Tokenizer(tokenKey) : null;
+        RandomSource random = (seed != null) ? new SeededRandomSource(seed) : ThreadLocalRandomSource.INSTANCE;
+        Map<String, Dictionary> opened = new LinkedHashMap<>(Mask.DICTIONARIES);
+        for (Map.Entry<String, String> dictionary : dictionaries.entrySet()) {
+            opened.put(dictionary.getKey(), Dictionary.open(new File(dictionary.getValue())));
+        }
+        Map<PiiScanner.KIND, Mask.HINT> pii = null;
+        if (detectPii) {
+            pii = MaskPlan.piiHints(tokenizer != null);
+            pii.putAll(piiHints);
+        }
+        return MaskPlan.builder()
+                .sensitives(MaskPlan.withHints(Mask.SENSITIVES, hints))
+                .tokenizer(tokenizer)
+                .random(random)
+                .dictionaries(opened)
+                .dateShift(new DateShift(random, dateShiftKey, dateShiftDays))
+                .piiHints(pii)
+                .build();
+    }
+
+    /**
+     * @return directory of the run's checkpoint, null to not checkpoint
+     */
+    public String getCheckpointDir() {
+        return checkpointDir;
+    }
+
+    /**
+     * checkpoint
+     *
+     * @return the checkpoint of the run, resuming one of an earlier run with the same options, or null
+     * @throws IOException if the checkpoint directory cannot be created or read
+     */
+    public Checkpoint checkpoint() throws IOException {
+        if (checkpointDir == null) {
+            return null;
+        }
+        // everything the masked output depends on, the token key only as the key of the checkpoint's HMAC
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append("hints=").append(hints).append('\n')
+                .append("seed=").append(seed).append('\n')
+                .append("dateShift=").append(dateShiftKey).append(',').append(dateShiftDays).append('\n')
+                .append("pii=").append(detectPii).append(',').append(piiHints).append('\n')
+                .append("bloomFilter=").append(bloomFilter).append(',').append(bloomFpp).append('\n')
+                .append("chunkBytes=").append(chunkBytes).append('\n')
+                .append("output=").append(gzip).append(',').append(gzipLevel).append(',').append(outputBuffer)
+                .append('\n');
+        for (Map.Entry<String, String> dictionary : dictionaries.entrySet()) {
+            File file = new File(dictionary.getValue());
+            fingerprint.append("dictionary=").append(dictionary.getKey()).append(':').append(file.getAbsolutePath())
+                    .append(',').append(file.length()).append(',').append(file.lastModified()).append('\n');
+        }
+        return Checkpoint.open(new File(checkpointDir), fingerprint.toString(),
+                (tokenKey != null && !tokenKey.isEmpty()) ? tokenKey : null, seed);
+    }
+}
@@ -0,0 +1,380 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * MaskOutput is how masked records are written: layout, compression and splitting into part files
+ *
+ * A pretty or compact output is a json array, an ndjson output has one record per line.  Gzip compression goes
+ * through java.util.zip with the given buffer size and level.  Split output starts a new part file once a part holds
+ * splitBytes of json before compression, each part is a complete document of whole records so loaders can read the
+ * parts in parallel.
+ */
+public class MaskOutput {
+
+    public enum MODE {pretty, compact, ndjson}
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * pretty printed json, uncompressed and not split
+     */
+    public static final MaskOutput DEFAULT = builder().build();
+
+    private final MODE mode;
+    private final boolean gzip;
+    private final int level;
+    private final int bufferSize;
+    private final long splitBytes;
+
+    private MaskOutput(Builder builder) {
+        this.mode = builder.mode;
+        this.gzip = builder.gzip;
+        this.level = builder.level;
+        this.bufferSize = builder.bufferSize;
+        this.splitBytes = builder.splitBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public MODE getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true to gzip the output
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return deflate level of the gzip output, 0 to 9 or -1 for the default
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return size of the output buffer and of the gzip buffer
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return bytes of json after which a part file is closed and the next one started, 0 to not split
+     */
+    public long getSplitBytes() {
+        return splitBytes;
+    }
+
+    /**
+     * extension
+     *
+     * @return the file extension of the output, e.g. ".ndjson.gz"
+     */
+    public String extension() {
+        return ((mode == MODE.ndjson) ? ".ndjson" : ".json") + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * part
+     *
+     * @param out   the output file as if it were not split, ending in extension()
+     * @param index index of the part
+     * @return the part file, e.g. data.masked-00002.json.gz for data.masked.json.gz
+     */
+    public File part(File out, int index) {
+        String path = out.getPath();
+        String extension = extension();
+        String base = path.endsWith(extension) ? path.substring(0, path.length() - extension.length()) : path;
+        return new File(String.format("%s-%05d%s", base, index, path.endsWith(extension) ? extension : ""));
+    }
+
+    /**
+     * compress
+     *
+     * @param out stream of the output file
+     * @return the buffered stream to write the output to, gzip compressed if the output is
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out, bufferSize);
+        if (!gzip) {
+            return buffered;
+        }
+        return new GZIPOutputStream(buffered, bufferSize) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * open
+     *
+     * @param factory creates the generators
+     * @param out     the output file, replaced by numbered part files if the output is split
+     * @return a writer of masked records to the output
+     */
+    public RecordWriter open(JsonFactory factory, File out) throws IOException {
+        RecordWriter writer = new RecordWriter(this, factory, out, null);
+        writer.startPart();
+        return writer;
+    }
+
+    /**
+     * open
+     *
+     * @param factory creates the generator
+     * @param out     receives the whole output, never split, closed by the writer
+     * @return a writer of masked records to the stream
+     */
+    public RecordWriter open(JsonFactory factory, OutputStream out) throws IOException {
+        RecordWriter writer = new RecordWriter(this, factory, null, out);
+        writer.startPart();
+        return writer;
+    }
+
+    /**
+     * wrap
+     *
+     * @param generator receives a json array of the records, set up and closed by the caller
+     * @return a writer of masked records to the generator
+     */
+    public static RecordWriter wrap(JsonGenerator generator) throws IOException {
+        RecordWriter writer = new RecordWriter(DEFAULT, null, null, null);
+        writer.generator = generator;
+        generator.writeStartArray();
+        return writer;
+    }
+
+    /**
+     * RecordWriter writes masked records to the output, one thread at a time
+     */
+    public static final class RecordWriter implements Closeable {
+
+        private final MaskOutput output;
+        private final JsonFactory factory;
+        private final File out;
+        private final OutputStream stream;
+        private final List<File> files = new ArrayList<>();
+        private final char[] buffer = new char[Formats.BUFFER_SIZE];
+        private CountingOutputStream counter;
+        private JsonGenerator generator;
+        private int partRecords;
+
+        private RecordWriter(MaskOutput output, JsonFactory factory, File out, OutputStream stream) {
+            this.output = output;
+            this.factory = factory;
+            this.out = out;
+            this.stream = stream;
+        }
+
+        /**
+         * write
+         *
+         * @param record masked record
+         * @param plan   rules the record was masked with to apply the FORMAT of its fields, null if it is formatted
+         */
+        public void write(Map<String, Object> record, MaskPlan plan) throws IOException {
+            if (isSplit() && partRecords > 0 && counter.count >= output.splitBytes) {
+                endPart();
+                startPart();
+            }
+            StreamingMask.writeRecord(generator, record, plan, buffer);
+            if (output.mode == MODE.ndjson) {
+                generator.writeRaw('\n');
+            }
+            partRecords++;
+            if (isSplit()) {
+                // move the record out of the generator's buffer to count it
+                generator.flush();
+            }
+        }
+
+        /**
+         * finish
+         *
+         * Ends the output after the last record
+         */
+        public void finish() throws IOException {
+            if (generator == null) {
+                return;
+            }
+            if (counter == null) {
+                generator.writeEndArray();
+                generator.flush();
+                generator = null;
+                return;
+            }
+            endPart();
+        }
+
+        /**
+         * @return the files written, the output file or its parts
+         */
+        public List<File> getFiles() {
+            return Collections.unmodifiableList(files);
+        }
+
+        /**
+         * close
+         *
+         * Closes the file of an unfinished output without ending it
+         */
+        @Override
+        public void close() throws IOException {
+            if (generator != null && counter != null) {
+                JsonGenerator open = generator;
+                generator = null;
+                open.close();
+            }
+        }
+
+        private boolean isSplit() {
+            return out != null && output.splitBytes > 0;
+        }
+
+        private void startPart() throws IOException {
+            OutputStream target;
+            if (stream != null) {
+                target = stream;
+            } else {
+                File file = isSplit() ? output.part(out, files.size()) : out;
+                files.add(file);
+                target = new FileOutputStream(file);
+            }
+            try {
+                counter = new CountingOutputStream(output.compress(target));
+                generator = factory.createGenerator(counter, JsonEncoding.UTF8);
+            } catch (IOException | RuntimeException e) {
+                target.close();
+                throw e;
+            }
+            partRecords = 0;
+            if (output.mode == MODE.ndjson) {
+                // records are separated by the line breaks written after each one
+                generator.setRootValueSeparator(null);
+            } else {
+                if (output.mode == MODE.pretty) {
+                    generator.useDefaultPrettyPrinter();
+                }
+                generator.writeStartArray();
+            }
+        }
+
+        private void endPart() throws IOException {
+            JsonGenerator part = generator;
+            generator = null;
+            try {
+                if (output.mode != MODE.ndjson) {
+                    part.writeEndArray();
+                }
+            } finally {
+                part.close();
+            }
+        }
+    }
+
+    /**
+     * CountingOutputStream counts the bytes written and does not pass on flushes, so counting a record does not push
+     * the output buffer to the file
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+            // the stream is flushed when it is closed
+        }
+    }
+
+    public static final class Builder {
+
+        private MODE mode = MODE.pretty;
+        private boolean gzip;
+        private int level = DEFAULT_LEVEL;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private long splitBytes;
+
+        private Builder() {
+        }
+
+        public Builder mode(MODE mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param level deflate level, 0 to 9 or -1 for the default
+         */
+        public Builder gzip(int level) {
+            if (level < -1 || level > 9) {
+                throw new IllegalArgumentException("Gzip level must be between 0 and 9");
+            }
+            this.gzip = true;
+            this.level = level;
+            return this;
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Output buffer size must be positive");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param splitBytes bytes of json per part file before compression, 0 to not split
+         */
+        public Builder splitBytes(long splitBytes) {
+            if (splitBytes < 0) {
+                throw new IllegalArgumentException("Split size must not be negative");
+            }
+            this.splitBytes = splitBytes;
+            return this;
+        }
+
+        public MaskOutput build() {
+            return new MaskOutput(this);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.tackleset.masker;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MaskPlan is the SENSITIVES and NON_SENSITIVES rule tables compiled into one FieldRule per field
+ *
+ * A plan is compiled once per run and is immutable, so masking threads share it.  The rules of compact records are
+ * resolved once per schema into an array indexed by slot, so masking a field does not look up its name.
+ */
+public class MaskPlan {
+
+    private static final FieldRule UNKNOWN = new FieldRule(null, FieldRule.KIND.UNKNOWN, Mask.HINT.unique,
+            Mask.TYPE.alphanumeric, null, builder());
+
+    /**
+     * the plan compiled from Mask.SENSITIVES and Mask.NON_SENSITIVES
+     */
+    public static final MaskPlan DEFAULT = builder().build();
+
+    private final Map<String, FieldRule> rules;
+    private final String shiftKey;
+    private final String addressKey;
+    private final FieldRule[] piiRules;
+    private final Map<CompactRecord.Schema, FieldRule[]> slotRules = new ConcurrentHashMap<>();
+
+    private MaskPlan(Map<String, FieldRule> rules, String shiftKey, String addressKey, FieldRule[] piiRules) {
+        this.rules = rules;
+        this.shiftKey = shiftKey;
+        this.addressKey = addressKey;
+        this.piiRules = piiRules;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * compile
+     *
+     * @param options rule tables and what their hints mask with
+     * @return the compiled plan
+     * @throws IllegalArgumentException if a rule names an unknown HINT, TYPE or FORMAT, a kind of PII has no hint or
+     *                                  a hint needs a missing tokenizer, dictionary or dictionary column
+     */
+    public static MaskPlan compile(Builder options) {
+        FieldRule[] piiRules = null;
+        String shiftKey = null;
+        String addressKey = null;
+        if (options.piiHints != null) {
+            piiRules = new FieldRule[PiiScanner.KIND.values().length];
+            for (PiiScanner.KIND kind : PiiScanner.KIND.values()) {
+                Mask.HINT hint = options.piiHints.get(kind);
+                if (hint == null) {
+                    throw new IllegalArgumentException("No hint for " + kind + " PII");
+                }
+                piiRules[kind.ordinal()] = new FieldRule("pii_" + kind, FieldRule.KIND.SENSITIVE, hint,
+                        kind.getType(), null, options);
+                if (hint == Mask.HINT.date_shift) {
+                    shiftKey = options.getDateShift().getKey();
+                }
+            }
+        }
+        Map<String, FieldRule> rules = new HashMap<>();
+        for (Map.Entry<String, Map<Class, String>> entry : options.nonSensitives.entrySet()) {
+            Map<Class, String> rule = entry.getValue();
+            String strType = rule.get(Mask.TYPE.class);
+            rules.put(entry.getKey(), new FieldRule(entry.getKey(), FieldRule.KIND.NON_SENSITIVE, null,
+                    StringUtils.isNotEmpty(strType) ? Mask.TYPE.valueOf(strType) : null, format(rule), options));
+        }
+        // a field in both tables is sensitive
+        for (Map.Entry<String, Map<Class, String>> entry : options.sensitives.entrySet()) {
+            Map<Class, String> rule = entry.getValue();
+            String strHint = rule.get(Mask.HINT.class);
+            String strType = rule.get(Mask.TYPE.class);
+            rules.put(entry.getKey(), new FieldRule(entry.getKey(), FieldRule.KIND.SENSITIVE,
+                    StringUtils.isNotEmpty(strHint) ? Mask.HINT.valueOf(strHint) : null,
+                    StringUtils.isNotEmpty(strType) ? Mask.TYPE.valueOf(strType) : Mask.TYPE.alphanumeric,
+                    format(rule), options));
+            if (rules.get(entry.getKey()).getHint() == Mask.HINT.date_shift) {
+                shiftKey = options.getDateShift().getKey();
+            }
+            if (rules.get(entry.getKey()).getHint() == Mask.HINT.address_address_1) {
+                addressKey = entry.getKey();
+            }
+        }
+        return new MaskPlan(rules, shiftKey, addressKey, piiRules);
+    }
+
+    /**
+     * withHints
+     *
+     * @param sensitives rule table of sensitive fields, keyed by field name
+     * @param hints      HINT name by field name, replacing the hint of a sensitive field or making a field sensitive
+     * @return a copy of the rule table with the hints replaced
+     */
+    public static Map<String, Map<Class, String>> withHints(Map<String, Map<Class, String>> sensitives,
+                                                           Map<String, String> hints) {
+        Map<String, Map<Class, String>> result = new LinkedHashMap<>(sensitives);
+        for (Map.Entry<String, String> hint : hints.entrySet()) {
+            Map<Class, String> rule = new HashMap<>();
+            if (sensitives.containsKey(hint.getKey())) {
+                rule.putAll(sensitives.get(hint.getKey()));
+            }
+            rule.put(Mask.HINT.class, Mask.HINT.valueOf(hint.getValue()).name());
+            result.put(hint.getKey(), rule);
+        }
+        return result;
+    }
+
+    private static Mask.FORMAT format(Map<Class, String> rule) {
+        String strFormat = rule.get(Mask.FORMAT.class);
+        return StringUtils.isNotEmpty(strFormat) ? Mask.FORMAT.valueOf(strFormat) : null;
+    }
+
+    /**
+     * @return field holding the member id the date_shift hint keys its offsets on, null if no field uses the hint
+     */
+    String getShiftKey() {
+        return shiftKey;
+    }
+
+    /**
+     * @return field holding the address_1 the address hints pick their dictionary row by, null if no field uses the
+     * address_address_1 hint
+     */
+    String getAddressKey() {
+        return addressKey;
+    }
+
+    /**
+     * pseudonymValue
+     *
+     * @param rule    masking rule of a field
+     * @param value   original value of the field
+     * @param address original value of the record's address key
+     * @return the value the field's pseudonym is keyed by: the address_1 for every address hint, so the masked
+     * address_1, address_2, city, state and zip of a record come from one dictionary row, otherwise the value itself
+     */
+    static Object pseudonymValue(FieldRule rule, Object value, Object address) {
+        return (address != null && !"".equals(address) && rule.getHint() != null &&
+                rule.getHint().getSource() == Mask.SOURCE.ADDRESS) ? address : value;
+    }
+
+    /**
+     * piiHints
+     *
+     * @param tokenize true if a token key is set
+     * @return the default HINT of each kind of PII: const_ssn, tokenize for phone numbers and email addresses, or
+     * unique without a token key, date_shift and address_zip
+     */
+    public static Map<PiiScanner.KIND, Mask.HINT> piiHints(boolean tokenize) {
+        Map<PiiScanner.KIND, Mask.HINT> hints = new EnumMap<>(PiiScanner.KIND.class);
+        hints.put(PiiScanner.KIND.ssn, Mask.HINT.const_ssn);
+        hints.put(PiiScanner.KIND.phone, tokenize ? Mask.HINT.tokenize : Mask.HINT.unique);
+        hints.put(PiiScanner.KIND.email, tokenize ? Mask.HINT.tokenize : Mask.HINT.unique);
+        hints.put(PiiScanner.KIND.date, Mask.HINT.date_shift);
+        hints.put(PiiScanner.KIND.zip, Mask.HINT.address_zip);
+        return hints;
+    }
+
+    /**
+     * @return true if unknown fields and non sensitive text are scanned for PII
+     */
+    boolean isDetecting() {
+        return piiRules != null;
+    }
+
+    /**
+     * piiRule
+     *
+     * @param kind kind of PII found
+     * @return the rule masking it
+     */
+    FieldRule piiRule(PiiScanner.KIND kind) {
+        return piiRules[kind.ordinal()];
+    }
+
+    /**
+     * isScanned
+     *
+     * @param rule rule of a non sensitive field
+     * @return true if the field's text is scanned for PII
+     */
+    boolean isScanned(FieldRule rule) {
+        return piiRules != null && (rule.getType() == Mask.TYPE.text || rule.getType() == Mask.TYPE.alphanumeric);
+    }
+
+    /**
+     * rule
+     *
+     * @param key field name
+     * @return the field's rule, or the unique hint rule for fields in neither table
+     */
+    FieldRule rule(String key) {
+        FieldRule rule = rules.get(key);
+        return (rule != null) ? rule : UNKNOWN;
+    }
+
+    /**
+     * rules
+     *
+     * @param schema key table of compact records
+     * @return the rule of each slot of the schema, see rule
+     */
+    FieldRule[] rules(CompactRecord.Schema schema) {
+        FieldRule[] rules = slotRules.get(schema);
+        if (rules == null) {
+            rules = new FieldRule[schema.size()];
+            for (int slot = 0; slot < rules.length; slot++) {
+                rules[slot] = rule(schema.name(slot));
+            }
+            slotRules.putIfAbsent(schema, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Builder of the options a MaskPlan is compiled with, every option has a default
+     */
+    public static class Builder {
+
+        private Map<String, Map<Class, String>> sensitives = Mask.SENSITIVES;
+        private Map<String, Map<Class, String>> nonSensitives = Mask.NON_SENSITIVES;
+        private Tokenizer tokenizer;
+        private RandomSource random = ThreadLocalRandomSource.INSTANCE;
+        private Map<String, Dictionary> dictionaries = Mask.DICTIONARIES;
+        private DateShift dateShift;
+        private Map<PiiScanner.KIND, Mask.HINT> piiHints;
+
+        /**
+         * @param sensitives rule table of sensitive fields, keyed by field name, defaults to Mask.SENSITIVES
+         */
+        public Builder sensitives(Map<String, Map<Class, String>> sensitives) {
+            this.sensitives = sensitives;
+            return this;
+        }
+
+        /**
+         * @param nonSensitives rule table of non sensitive fields, keyed by field name, defaults to
+         *                      Mask.NON_SENSITIVES
+         */
+        public Builder nonSensitives(Map<String, Map<Class, String>> nonSensitives) {
+            this.nonSensitives = nonSensitives;
+            return this;
+        }
+
+        /**
+         * @param tokenizer keyed tokenizer for fields with the tokenize hint, may be null if there are none
+         */
+        public Builder tokenizer(Tokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        /**
+         * @param random source of the random hint, defaults to a different value every run
+         */
+        public Builder random(RandomSource random) {
+            this.random = random;
+            return this;
+        }
+
+        /**
+         * @param dictionaries values of the list and address hints by dictionary name, defaults to Mask.DICTIONARIES
+         */
+        public Builder dictionaries(Map<String, Dictionary> dictionaries) {
+            this.dictionaries = dictionaries;
+            return this;
+        }
+
+        /**
+         * @param dateShift offsets of the date_shift hint, defaults to DateShift.DEFAULT_DAYS keyed on
+         *                  DateShift.DEFAULT_KEY drawn from the random source
+         */
+        public Builder dateShift(DateShift dateShift) {
+            this.dateShift = dateShift;
+            return this;
+        }
+
+        /**
+         * @param piiHints HINT masking each kind of PII found in unknown fields and non sensitive text, null, the
+         *                 default, to not look for PII
+         */
+        public Builder piiHints(Map<PiiScanner.KIND, Mask.HINT> piiHints) {
+            this.piiHints = piiHints;
+            return this;
+        }
+
+        public MaskPlan build() {
+            return compile(this);
+        }
+
+        Tokenizer getTokenizer() {
+            return tokenizer;
+        }
+
+        RandomSource getRandom() {
+            return random;
+        }
+
+        Map<String, Dictionary> getDictionaries() {
+            return dictionaries;
+        }
+
+        /**
+         * @return the date shift, the default one is drawn once so every rule of a plan shifts by the same offsets
+         */
+        DateShift getDateShift() {
+            if (dateShift == null) {
+                dateShift = new DateShift(random, DateShift.DEFAULT_KEY, DateShift.DEFAULT_DAYS);
+            }
+            return dateShift;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * NdjsonMask masks a file of flat records written one json object per line
+ *
+ * The input is read through FileChannel.map in chunks that end on a line break, so workers parse their chunks on
+ * their own without scanning the rest of the file.  A parallel run counts the records of every chunk to number them
+ * like a serial run, indexes the sensitive values of every chunk and then masks the chunks into part files next to the
+ * output, which are concatenated with FileChannel.transferTo so the masked data is not copied through the heap.
+ *
+ * A run with a Checkpoint always indexes every chunk before masking, serial or parallel, keeps the part files in the
+ * checkpoint directory and skips the chunks whose parts are already there.
+ *
+ * Gzip output compresses every part as a gzip member of its own, a file of concatenated members is one gzip stream.
+ * Split output of a parallel run splits each chunk's output and numbers the parts in chunk order, so a part also ends
+ * at the end of a chunk.
+ */
+public class NdjsonMask {
+
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 26;
+
+    private static final MaskOutput LINES = MaskOutput.builder().mode(MaskOutput.MODE.ndjson).build();
+
+    private final JsonFactory factory;
+    private final ObjectReader recordReader;
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+    private final MaskOutput output;
+
+    /**
+     * @param objectMapper parses the records
+     * @param pool         masks the chunks in parallel, null to mask them in order on the calling thread
+     * @param chunkBytes   size a chunk is cut at before moving to the next line break
+     */
+    public NdjsonMask(ObjectMapper objectMapper, ForkJoinPool pool, int chunkBytes) {
+        this(objectMapper, pool, chunkBytes, LINES);
+    }
+
+    /**
+     * @param objectMapper parses the records
+     * @param pool         masks the chunks in parallel, null to mask them in order on the calling thread
+     * @param chunkBytes   size a chunk is cut at before moving to the next line break
+     * @param output       compression and splitting of the masked file, its mode must be ndjson
+     */
+    public NdjsonMask(ObjectMapper objectMapper, ForkJoinPool pool, int chunkBytes, MaskOutput output) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        if (output.getMode() != MaskOutput.MODE.ndjson) {
+            throw new IllegalArgumentException("NDJSON input is masked to NDJSON output, not " + output.getMode());
+        }
+        this.factory = objectMapper.getFactory();
+        this.recordReader = objectMapper.reader(CompactRecord.class);
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+        this.output = output;
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      file with one flat record per line, blank lines are skipped
+     * @param out     masked file with one record per line
+     * @param context state of the masking run
+     * @return number of records masked
+     * @throws JsonParseException if a line does not hold exactly one json object
+     */
+    public int anonymizeFile(File in, File out, MaskContext context) throws IOException {
+        return anonymizeFile(in, out, context, null);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in         file with one flat record per line, blank lines are skipped
+     * @param out        masked file with one record per line, or the base name of its parts if the output is split
+     * @param context    state of the masking run, its plan must use the checkpoint's seed
+     * @param checkpoint progress of earlier runs to resume from and record into, null to not checkpoint
+     * @return number of records in the input, including those of reused parts
+     * @throws JsonParseException if a line does not hold exactly one json object
+     * @throws IllegalArgumentException if a checkpointed run has split output
+     */
+    public int anonymizeFile(File in, File out, MaskContext context, Checkpoint checkpoint) throws IOException {
+        if (checkpoint != null && output.getSplitBytes() > 0) {
+            throw new IllegalArgumentException("Checkpointed output cannot be split");
+        }
+        try (FileChannel input = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(input);
+            if (checkpoint != null) {
+                return anonymizeCheckpointed(input, chunks, out, context, checkpoint);
+            }
+            if (pool == null) {
+                return anonymizeSerial(input, chunks, out, context, 1);
+            }
+            int records = number(input, chunks, 1);
+            invokeAll(chunks, chunk -> indexChunk(input, chunk, context));
+            maskChunks(input, chunks, out, context);
+            return records;
+        }
+    }
+
+    /**
+     * countRecords
+     *
+     * @param in file with one flat record per line
+     * @return number of records in the file
+     */
+    public int countRecords(File in) throws IOException {
+        try (FileChannel input = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            return number(input, split(input), 1);
+        }
+    }
+
+    /**
+     * indexFile
+     *
+     * Indexes the sensitive values and claims the pseudonyms of every record without masking, see maskFile
+     *
+     * @param in      file with one flat record per line
+     * @param context state of the masking run
+     * @param first   record number of the file's first record in the run
+     */
+    public void indexFile(File in, MaskContext context, int first) throws IOException {
+        try (FileChannel input = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(input);
+            number(input, chunks, first);
+            invokeAll(chunks, chunk -> indexChunk(input, chunk, context));
+        }
+    }
+
+    /**
+     * maskFile
+     *
+     * Masks a file indexed with indexFile, so values are masked as the record holding them first in the whole run
+     *
+     * @param in      file with one flat record per line
+     * @param out     masked file with one record per line, or the base name of its parts if the output is split
+     * @param context state of the masking run
+     * @param first   record number of the file's first record in the run
+     * @return number of records masked
+     */
+    public int maskFile(File in, File out, MaskContext context, int first) throws IOException {
+        try (FileChannel input = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(input);
+            if (pool == null) {
+                return anonymizeSerial(input, chunks, out, context, first);
+            }
+            int records = number(input, chunks, first);
+            maskChunks(input, chunks, out, context);
+            return records;
+        }
+    }
+
+    /**
+     * number
+     *
+     * Counts the records of every chunk and numbers the chunks' first records
+     *
+     * @return number of records of all chunks
+     */
+    private int number(FileChannel input, List<Chunk> chunks, int first) throws IOException {
+        invokeAll(chunks, chunk -> chunk.records = countRecords(map(input, chunk)));
+        int records = 0;
+        for (Chunk chunk : chunks) {
+            chunk.first = first + records;
+            records += chunk.records;
+        }
+        return records;
+    }
+
+    private void indexChunk(FileChannel input, Chunk chunk, MaskContext context) throws IOException {
+        forEachRecord(input, chunk, (record, iteration) -> Mask.indexRecord(record, context, iteration));
+    }
+
+    /**
+     * maskChunks
+     *
+     * Masks the numbered and indexed chunks in parallel into part files and concatenates them
+     */
+    private void maskChunks(FileChannel input, List<Chunk> chunks, File out, MaskContext context)
+            throws IOException {
+        if (output.getSplitBytes() > 0) {
+            anonymizeSplit(input, chunks, out, context);
+            return;
+        }
+        List<File> parts = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            parts.add(new File(out.getPath() + ".part" + i));
+        }
+        try {
+            invokeAll(chunks, chunk -> {
+                try (MaskOutput.RecordWriter writer = output.open(factory,
+                        new FileOutputStream(parts.get(chunk.index)))) {
+                    maskChunk(input, chunk, writer, context);
+                    writer.finish();
+                }
+            });
+            concat(parts, out);
+        } finally {
+            for (File part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    private int anonymizeCheckpointed(FileChannel input, List<Chunk> chunks, File out, MaskContext context,
+                                      Checkpoint checkpoint) throws IOException {
+        invokeAll(chunks, chunk -> chunk.hash = Checkpoint.hash(map(input, chunk)));
+        int records = number(input, chunks, 1);
+        boolean state = checkpoint.begin(chunks);
+        // a finished run needs no state, its parts are only concatenated again
+        if (!checkpoint.isComplete() && !(state && checkpoint.loadState(context))) {
+            invokeAll(chunks, chunk -> indexChunk(input, chunk, context));
+            checkpoint.saveState(chunks, context);
+        }
+        List<Chunk> remaining = new ArrayList<>();
+        List<File> parts = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            parts.add(checkpoint.part(chunk.index));
+            if (!checkpoint.isFinished(chunk)) {
+                remaining.add(chunk);
+            }
+        }
+        invokeAll(remaining, chunk -> {
+            MessageDigest digest = Checkpoint.sha256();
+            File part = parts.get(chunk.index);
+            try (MaskOutput.RecordWriter writer = output.open(factory,
+                    new DigestOutputStream(new FileOutputStream(part), digest))) {
+                maskChunk(input, chunk, writer, context);
+                writer.finish();
+            }
+            Checkpoint.sync(part);
+            checkpoint.finish(chunk, digest.digest());
+        });
+        concat(parts, out);
+        checkpoint.complete(chunks);
+        return records;
+    }
+
+    private int anonymizeSerial(FileChannel input, List<Chunk> chunks, File out, MaskContext context, int first)
+            throws IOException {
+        int records = 0;
+        try (MaskOutput.RecordWriter writer = output.open(factory, out)) {
+            for (Chunk chunk : chunks) {
+                chunk.first = first + records;
+                records += maskChunk(input, chunk, writer, context);
+            }
+            writer.finish();
+        }
+        return records;
+    }
+
+    /**
+     * anonymizeSplit
+     *
+     * Masks the chunks in parallel into parts of their own, then renames the parts in chunk order
+     */
+    private void anonymizeSplit(FileChannel input, List<Chunk> chunks, File out, MaskContext context)
+            throws IOException {
+        List<List<File>> parts = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        try {
+            invokeAll(chunks, chunk -> {
+                File base = new File(out.getPath() + ".chunk" + chunk.index + output.extension());
+                try (MaskOutput.RecordWriter writer = output.open(factory, base)) {
+                    try {
+                        maskChunk(input, chunk, writer, context);
+                        writer.finish();
+                    } finally {
+                        parts.set(chunk.index, new ArrayList<>(writer.getFiles()));
+                    }
+                }
+            });
+            int index = 0;
+            for (List<File> chunkParts : parts) {
+                for (File part : chunkParts) {
+                    Files.move(part.toPath(), output.part(out, index++).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            for (List<File> chunkParts : parts) {
+                for (File part : chunkParts) {
+                    part.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * maskChunk
+     *
+     * @return number of records masked
+     */
+    private int maskChunk(FileChannel input, Chunk chunk, MaskOutput.RecordWriter writer, MaskContext context)
+            throws IOException {
+        MaskPlan plan = context.getPlan();
+        int records = forEachRecord(input, chunk, (record, iteration) -> {
+            Mask.anonymizeRecord(record, context, iteration, false);
+            writer.write(record, plan);
+        });
+        context.getMetrics().addBytes(chunk.length);
+        return records;
+    }
+
+    /**
+     * split
+     *
+     * @return chunks of about chunkBytes covering the file, each ending after a line break or at the end of the file
+     */
+    List<Chunk> split(FileChannel input) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long size = input.size();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkBytes, size);
+            // move the end past the next line break
+            while (end < size) {
+                probe.clear();
+                int read = input.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                end = (newline >= 0) ? end + newline + 1 : end + Math.max(read, 0);
+                if (newline >= 0 || read <= 0) {
+                    break;
+                }
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line at byte " + start + " is longer than 2 GB");
+            }
+            chunks.add(new Chunk(chunks.size(), start, (int) (end - start)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static MappedByteBuffer map(FileChannel input, Chunk chunk) throws IOException {
+        return input.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.length);
+    }
+
+    /**
+     * countRecords
+     *
+     * @return number of lines holding anything but white space
+     */
+    static int countRecords(ByteBuffer lines) {
+        int records = 0;
+        boolean blank = true;
+        for (int i = 0, limit = lines.limit(); i < limit; i++) {
+            byte b = lines.get(i);
+            if (b == '\n') {
+                if (!blank) {
+                    records++;
+                }
+                blank = true;
+            } else if (!isWhitespace(b)) {
+                blank = false;
+            }
+        }
+        return blank ? records : records + 1;
+    }
+
+    /**
+     * forEachRecord
+     *
+     * Parses the non blank lines of the chunk and hands each record to the action with its record number
+     *
+     * @return number of records
+     */
+    private int forEachRecord(FileChannel input, Chunk chunk, RecordAction action) throws IOException {
+        MappedByteBuffer lines = map(input, chunk);
+        // the parser reads each line straight from the mapping into its recycled buffer
+        LineInputStream line = new LineInputStream(lines.duplicate());
+        int iteration = chunk.first;
+        int lineStart = 0;
+        int limit = lines.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && lines.get(i) != '\n') {
+                continue;
+            }
+            int start = lineStart;
+            int end = i;
+            lineStart = i + 1;
+            while (start < end && isWhitespace(lines.get(start))) {
+                start++;
+            }
+            while (end > start && isWhitespace(lines.get(end - 1))) {
+                end--;
+            }
+            if (start == end) {
+                continue;
+            }
+            line.select(start, end);
+            action.accept(parse(line, chunk.start + start), iteration++);
+        }
+        return iteration - chunk.first;
+    }
+
+    private Map<String, Object> parse(LineInputStream line, long offset) throws IOException {
+        try (JsonParser parser = factory.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Expected one flat record per line at byte " + offset,
+                        parser.getCurrentLocation());
+            }
+            Map<String, Object> record = recordReader.readValue(parser);
+            if (parser.nextToken() != null) {
+                throw new JsonParseException("Expected one flat record per line at byte " + offset,
+                        parser.getCurrentLocation());
+            }
+            return record;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static void concat(List<File> parts, File out) throws IOException {
+        try (FileChannel output = FileChannel.open(out.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (File part : parts) {
+                try (FileChannel input = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long size = input.size();
+                    for (long done = 0; done < size; ) {
+                        done += input.transferTo(done, size - done, output);
+                    }
+                }
+            }
+        }
+    }
+
+    private void invokeAll(List<Chunk> chunks, ChunkAction action) throws IOException {
+        if (pool == null) {
+            for (Chunk chunk : chunks) {
+                action.accept(chunk);
+            }
+            return;
+        }
+        // a task of the pool, such as a file of a BatchMask, forks the chunks to its own queue for idle workers to steal
+        boolean inPool = ForkJoinTask.getPool() == pool;
+        List<ForkJoinTask<Void>> futures = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            ForkJoinTask<Void> task = ForkJoinTask.adapt(() -> {
+                action.accept(chunk);
+                return null;
+            });
+            futures.add(inPool ? task.fork() : pool.submit(task));
+        }
+        for (ForkJoinTask<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while masking", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * a line aligned range of the input
+     */
+    static final class Chunk {
+
+        private final int index;
+        private final long start;
+        private final int length;
+        private int records;
+        private int first = 1;
+        private byte[] hash;
+
+        Chunk(int index, long start, int length) {
+            this.index = index;
+            this.start = start;
+            this.length = length;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * @return record number of the chunk's first record
+         */
+        int getFirst() {
+            return first;
+        }
+
+        /**
+         * @return SHA-256 of the chunk, set for checkpointed runs
+         */
+        byte[] getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * reads one line of a mapped chunk at a time, without copying the chunk to the heap
+     */
+    private static final class LineInputStream extends InputStream {
+
+        private final ByteBuffer lines;
+
+        LineInputStream(ByteBuffer lines) {
+            this.lines = lines;
+        }
+
+        /**
+         * Makes the bytes from start to end the whole stream
+         */
+        void select(int start, int end) {
+            lines.limit(end).position(start);
+        }
+
+        @Override
+        public int read() {
+            return lines.hasRemaining() ? lines.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!lines.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, lines.remaining());
+            lines.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return lines.remaining();
+        }
+    }
+
+    private interface ChunkAction {
+        void accept(Chunk chunk) throws IOException;
+    }
+
+    private interface RecordAction {
+        void accept(Map<String, Object> record, int iteration) throws IOException;
+    }
+}
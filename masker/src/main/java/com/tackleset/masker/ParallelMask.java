@@ -0,0 +1,98 @@
+package com.tackleset.masker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelMask masks a list of flat records on a fork join pool
+ *
+ * Records are masked in place so the output keeps the input order, and every record gets the iteration number it
+ * would get in a serial run (its position in the list starting at 1) so unique and list hints are unchanged.  The
+ * sensitive values of every record are indexed and their pseudonyms claimed before masking starts, so leak detection
+ * and pseudonyms do not depend on which worker gets to a record first.
+ */
+public class ParallelMask {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelMask(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * anonymizeRecords
+     *
+     * @param records flat records, masked in place
+     * @return the masked records in input order
+     */
+    public List<Map<String, Object>> anonymizeRecords(List<Map<String, Object>> records) {
+        return anonymizeRecords(records, new MaskContext());
+    }
+
+    /**
+     * anonymizeRecords
+     *
+     * @param records flat records, masked in place
+     * @param context state of the masking run, shared by all workers
+     * @return the masked records in input order
+     */
+    public List<Map<String, Object>> anonymizeRecords(List<Map<String, Object>> records, MaskContext context) {
+        if (records.isEmpty()) {
+            return records;
+        }
+        List<Map<String, Object>> indexed = (records instanceof RandomAccess) ? records : new ArrayList<>(records);
+        pool.invoke(new MaskTask(indexed, context, 0, indexed.size(), true));
+        pool.invoke(new MaskTask(indexed, context, 0, indexed.size(), false));
+        return records;
+    }
+
+    private class MaskTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map<String, Object>> records;
+        private final MaskContext context;
+        private final int start;
+        private final int end;
+        private final boolean index;
+
+        /**
+         * @param index true to only index the sensitive values, false to mask
+         */
+        MaskTask(List<Map<String, Object>> records, MaskContext context, int start, int end, boolean index) {
+            this.records = records;
+            this.context = context;
+            this.start = start;
+            this.end = end;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= chunkSize) {
+                for (int i = start; i < end; i++) {
+                    if (index) {
+                        Mask.indexRecord(records.get(i), context, i + 1);
+                    } else {
+                        Mask.anonymizeRecord(records.get(i), context, i + 1);
+                    }
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new MaskTask(records, context, start, middle, index),
+                    new MaskTask(records, context, middle, end, index));
+        }
+    }
+}
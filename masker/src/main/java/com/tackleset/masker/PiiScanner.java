@@ -0,0 +1,389 @@
+package com.tackleset.masker;
+
+/**
+ * PiiScanner finds social security numbers, phone numbers, email addresses, dates and ZIP codes in text
+ *
+ * The text is read once, left to right, by two automata running side by side on a table of character classes.  One
+ * collects a run of digit groups and the separators between them, e.g. 555-12-3456 is the groups 3, 2 and 4 joined by
+ * dashes, and classifies the run when it ends; the other follows local part, at sign and domain labels of an email
+ * address.  Separators that are not spaces glue groups into one token, a space separated run such as 555 123 4567 is
+ * also tried group by group, so 19901 and 12.5 in the same run are told apart.  An email address takes precedence over
+ * the numbers inside it.  Scanning allocates nothing; a scanner keeps its findings for the last text, so every thread
+ * uses its own, see get().
+ */
+public final class PiiScanner {
+
+    /**
+     * what a finding is, with the TYPE of the rule masking it
+     */
+    public enum KIND {
+        ssn(Mask.TYPE.unsigned), phone(Mask.TYPE.text), email(Mask.TYPE.text), date(Mask.TYPE.date),
+        zip(Mask.TYPE.unsigned);
+
+        private final Mask.TYPE type;
+
+        KIND(Mask.TYPE type) {
+            this.type = type;
+        }
+
+        Mask.TYPE getType() {
+            return type;
+        }
+    }
+
+    private static final int DIGIT = 1;
+    private static final int ALPHA = 2;
+    // characters of the local part and of a domain label of an email address
+    private static final int LOCAL = 4;
+    private static final int DOMAIN = 8;
+    // characters after which a digit does not start a number
+    private static final int GLUE = 16;
+    // characters that continue the word of a number before them
+    private static final int WORD = 32;
+    private static final byte[] CLASSES = new byte[128];
+    private static final KIND[] KINDS = KIND.values();
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT | LOCAL | DOMAIN | GLUE | WORD;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = ALPHA | LOCAL | DOMAIN | GLUE | WORD;
+            CLASSES[c - 'a' + 'A'] = ALPHA | LOCAL | DOMAIN | GLUE | WORD;
+        }
+        CLASSES['%'] = LOCAL;
+        CLASSES['+'] = LOCAL;
+        CLASSES['-'] = LOCAL | DOMAIN;
+        CLASSES['.'] = LOCAL | GLUE;
+        CLASSES['_'] = LOCAL | GLUE | WORD;
+        CLASSES['@'] = GLUE | WORD;
+        CLASSES['$'] = GLUE;
+        CLASSES[','] = GLUE;
+    }
+
+    private static final int MAX_GROUPS = 8;
+    private static final ThreadLocal<PiiScanner> SCANNERS = ThreadLocal.withInitial(PiiScanner::new);
+
+    private final int[] starts = new int[MAX_GROUPS];
+    private final int[] lengths = new int[MAX_GROUPS];
+    private final int[] values = new int[MAX_GROUPS];
+    private final char[] separators = new char[MAX_GROUPS];
+    // the text being scanned followed by two zeros, so looking ahead needs no bounds checks
+    private char[] chars = new char[256];
+    // kind, start and end of each finding
+    private int[] findings = new int[3 * 8];
+    private int count;
+
+    /**
+     * get
+     *
+     * @return the scanner of the current thread
+     */
+    public static PiiScanner get() {
+        return SCANNERS.get();
+    }
+
+    /**
+     * scan
+     *
+     * @param text text to scan
+     * @return number of findings, in text order and not overlapping
+     */
+    public int scan(CharSequence text) {
+        count = 0;
+        int length = text.length();
+        if (chars.length < length + 2) {
+            chars = new char[Math.max(length + 2, 2 * chars.length)];
+        }
+        char[] chars = this.chars;
+        if (text instanceof String) {
+            ((String) text).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = text.charAt(i);
+            }
+        }
+        chars[length] = 0;
+        chars[length + 1] = 0;
+        // the run of digit groups, its first char is number, a ( or + opening it is open
+        int number = -1;
+        char open = 0;
+        int groups = 0;
+        int digits = 0;
+        int value = 0;
+        // the email address, local is its first char and at its @
+        int local = -1;
+        int at = -1;
+        int labelLength = 0;
+        boolean labelAlpha = true;
+        int dots = 0;
+        int lastDot = -1;
+        int lastLabelLength = 0;
+        boolean lastLabelAlpha = false;
+        int previous = 0;
+        for (int i = 0; i <= length; i++) {
+            char c = chars[i];
+            int cls = classOf(c);
+
+            if (number >= 0) {
+                if ((cls & DIGIT) != 0) {
+                    digits++;
+                    value = (digits <= 9) ? value * 10 + (c - '0') : value;
+                } else if (digits > 0 && groups < MAX_GROUPS - 1 && isSeparator(c, open, groups, digits) &&
+                        (isDigit(chars[i + 1]) || (c == ')' && chars[i + 1] == ' ' && isDigit(chars[i + 2])))) {
+                    closeGroup(groups++, digits, value, c);
+                    starts[groups] = (c == ')' && chars[i + 1] == ' ') ? i + 2 : i + 1;
+                    digits = 0;
+                    value = 0;
+                } else if (digits == 0 && c == ' ' && separators[groups - 1] == ')' && isDigit(chars[i + 1])) {
+                    // the space of (555) 123-4567
+                } else {
+                    if ((cls & WORD) == 0) {
+                        if (digits > 0) {
+                            closeGroup(groups++, digits, value, ' ');
+                        }
+                        classify(number, open, groups);
+                    } else if (groups > 0 && separators[groups - 1] == ' ') {
+                        // the last group runs into a word, the groups before it still count
+                        classify(number, open, groups);
+                    }
+                    number = -1;
+                }
+            } else if ((previous & GLUE) == 0 && ((cls & DIGIT) != 0 || ((c == '(' || c == '+') && isDigit(chars[i + 1])))) {
+                number = i;
+                groups = 0;
+                value = 0;
+                if ((cls & DIGIT) != 0) {
+                    open = 0;
+                    starts[0] = i;
+                    digits = 1;
+                    value = c - '0';
+                } else {
+                    open = c;
+                    starts[0] = i + 1;
+                    digits = 0;
+                }
+            }
+
+            if (at >= 0) {
+                if ((cls & DOMAIN) != 0) {
+                    labelLength++;
+                    labelAlpha &= (cls & ALPHA) != 0;
+                } else if (c == '.' && labelLength > 0) {
+                    dots++;
+                    lastDot = i;
+                    lastLabelLength = labelLength;
+                    lastLabelAlpha = labelAlpha;
+                    labelLength = 0;
+                    labelAlpha = true;
+                } else {
+                    if (labelLength > 0 && dots > 0 && labelLength >= 2 && labelAlpha) {
+                        email(local, at, i);
+                    } else if (labelLength == 0 && dots > 1 && lastLabelLength >= 2 && lastLabelAlpha) {
+                        // a dot ending a sentence
+                        email(local, at, lastDot);
+                    }
+                    at = -1;
+                    local = -1;
+                }
+            } else if (c == '@' && local >= 0) {
+                at = i;
+                labelLength = 0;
+                labelAlpha = true;
+                dots = 0;
+            } else if ((cls & LOCAL) != 0) {
+                if (local < 0) {
+                    local = i;
+                }
+            } else {
+                local = -1;
+            }
+            previous = cls;
+        }
+        return count;
+    }
+
+    /**
+     * classify
+     *
+     * @param text text to classify
+     * @return the kind of the text if all of it is one finding, otherwise null
+     */
+    public KIND classify(CharSequence text) {
+        scan(text);
+        return isWhole(text) ? kind(0) : null;
+    }
+
+    /**
+     * isWhole
+     *
+     * @param text the text of the last scan
+     * @return true if all of it is one finding
+     */
+    public boolean isWhole(CharSequence text) {
+        return count == 1 && start(0) == 0 && end(0) == text.length();
+    }
+
+    /**
+     * @param finding index of the finding, below the count of the last scan
+     */
+    public KIND kind(int finding) {
+        return KINDS[findings[3 * finding]];
+    }
+
+    /**
+     * @return index of the first char of the finding
+     */
+    public int start(int finding) {
+        return findings[3 * finding + 1];
+    }
+
+    /**
+     * @return index after the last char of the finding
+     */
+    public int end(int finding) {
+        return findings[3 * finding + 2];
+    }
+
+    private static int classOf(char c) {
+        if (c < 128) {
+            return CLASSES[c];
+        }
+        return Character.isLetterOrDigit(c) ? ALPHA | GLUE | WORD : 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c, char open, int groups, int digits) {
+        if (c == ')') {
+            return open == '(' && groups == 0 && digits == 3;
+        }
+        return c == '-' || c == '.' || c == '/' || c == ' ';
+    }
+
+    private void closeGroup(int group, int digits, int value, char separator) {
+        lengths[group] = digits;
+        values[group] = value;
+        separators[group] = separator;
+    }
+
+    /**
+     * classify
+     *
+     * Takes the longest run of groups from the first group that is a finding, then from the group after it, a run
+     * only starting and ending at the ends or at spaces
+     */
+    private void classify(int number, char open, int groups) {
+        int first = 0;
+        while (first < groups) {
+            int last = groups - 1;
+            KIND kind = null;
+            int start = starts[first];
+            for (; last >= first; last--) {
+                if ((first == 0 || separators[first - 1] == ' ') && (last == groups - 1 || separators[last] == ' ')) {
+                    if (first == 0 && open != 0) {
+                        kind = kind(first, last, open);
+                        start = number;
+                    }
+                    if (kind == null && (open != '(' || separators[0] != ')')) {
+                        // (19901) is a ZIP code in brackets
+                        kind = kind(first, last, (char) 0);
+                        start = starts[first];
+                    }
+                    if (kind != null) {
+                        break;
+                    }
+                }
+            }
+            if (kind == null) {
+                first++;
+                continue;
+            }
+            add(kind, start, starts[last] + lengths[last]);
+            first = last + 1;
+        }
+    }
+
+    private KIND kind(int first, int last, char open) {
+        int n = last - first + 1;
+        if (open == '+') {
+            int total = 0;
+            for (int g = first; g <= last; g++) {
+                total += lengths[g];
+            }
+            return (total >= 8 && total <= 15) ? KIND.phone : null;
+        }
+        if (open == '(') {
+            return (n == 3 && separators[first] == ')' && lengths[first + 1] == 3 && lengths[last] == 4 && separators[first + 1] != '/' &&
+                    separators[first + 1] != ')') ? KIND.phone : null;
+        }
+        int a = lengths[first];
+        if (n == 1) {
+            return (a == 9) ? KIND.ssn : (a == 10) ? KIND.phone : (a == 5) ? KIND.zip : null;
+        }
+        char separator = separators[first];
+        if (n == 2) {
+            return (a == 5 && lengths[last] == 4 && separator == '-') ? KIND.zip : null;
+        }
+        for (int g = first; g < last; g++) {
+            if (separators[g] != separator) {
+                return null;
+            }
+        }
+        int b = lengths[first + 1];
+        int c = lengths[first + 2];
+        if (n == 3) {
+            if (a == 3 && b == 2 && c == 4 && (separator == '-' || separator == ' ')) {
+                return KIND.ssn;
+            }
+            if (a == 3 && b == 3 && c == 4 && separator != '/') {
+                return KIND.phone;
+            }
+            if (a == 4 && b == 2 && c == 2 && separator != ' ' &&
+                    isDate(values[first], values[first + 1], values[first + 2])) {
+                return KIND.date;
+            }
+            if (a <= 2 && b <= 2 && c == 4 && separator != ' ' &&
+                    isDate(values[first + 2], values[first], values[first + 1])) {
+                return KIND.date;
+            }
+            return null;
+        }
+        if (n == 4 && a == 1 && values[first] == 1 && b == 3 && c == 3 && lengths[last] == 4 && separator != '/') {
+            return KIND.phone;
+        }
+        return null;
+    }
+
+    private static boolean isDate(int year, int month, int day) {
+        return month >= 1 && month <= 12 && day >= 1 && day <= DateShift.daysOfMonth(year, month);
+    }
+
+    private void add(KIND kind, int start, int end) {
+        if (3 * count == findings.length) {
+            int[] grown = new int[2 * findings.length];
+            System.arraycopy(findings, 0, grown, 0, findings.length);
+            findings = grown;
+        }
+        findings[3 * count] = kind.ordinal();
+        findings[3 * count + 1] = start;
+        findings[3 * count + 2] = end;
+        count++;
+    }
+
+    private void email(int local, int at, int end) {
+        while (local < at && (classOf(chars[local]) & (DIGIT | ALPHA)) == 0) {
+            local++;
+        }
+        if (local == at) {
+            return;
+        }
+        // numbers found inside the address are part of it
+        while (count > 0 && end(count - 1) > local) {
+            count--;
+        }
+        add(KIND.email, local, end);
+    }
+}
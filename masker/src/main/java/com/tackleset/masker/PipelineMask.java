@@ -0,0 +1,378 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PipelineMask masks a json array of flat records in three overlapping stages
+ *
+ * The calling thread parses batches of records, indexes them in input order and hands each batch to two bounded
+ * queues: the mask queue, from which a pool of workers takes batches to mask, and the write queue, from which a writer
+ * thread takes the batches in input order and writes each one once it is masked.  A full queue blocks the parser, so
+ * at most twice the queue size of batches are held in memory.  Indexing in input order before masking gives every
+ * pseudonym and leak check the record numbers of a serial run, so the output is the output of StreamingMask.
+ *
+ * The depth of both queues is sampled on every batch, and the time each stage spends blocked on a full or empty queue
+ * is summed, to tune the number of workers and the queue size.
+ */
+public class PipelineMask {
+
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final long POLL_MILLIS = 50;
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader recordReader;
+    private final int workers;
+    private final int queueSize;
+    private final int batchSize;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder maskQueueDepth = new LongAdder();
+    private final LongAdder writeQueueDepth = new LongAdder();
+    private volatile int maxMaskQueueDepth;
+    private volatile int maxWriteQueueDepth;
+    private final LongAdder parserStallNanos = new LongAdder();
+    private final LongAdder workerIdleNanos = new LongAdder();
+    private final LongAdder writerStallNanos = new LongAdder();
+
+    /**
+     * @param objectMapper parses the records
+     * @param workers      number of masking threads
+     * @param queueSize    number of batches each queue holds
+     * @param batchSize    number of records handed between stages together
+     */
+    public PipelineMask(ObjectMapper objectMapper, int workers, int queueSize, int batchSize) {
+        if (workers < 1 || queueSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Pipeline workers, queue size and batch size must be positive");
+        }
+        this.objectMapper = objectMapper;
+        this.recordReader = objectMapper.reader(CompactRecord.class);
+        this.workers = workers;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      json file containing an array of flat records
+     * @param out     masked json file, pretty printed like the non streaming output
+     * @param context state of the masking run
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context) throws IOException {
+        return anonymizeFile(in, out, context, MaskOutput.DEFAULT);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      json file containing an array of flat records
+     * @param out     masked file, or the base name of its parts if the output is split
+     * @param context state of the masking run
+     * @param output  layout, compression and splitting of the masked file
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context, MaskOutput output) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            StreamingMask.startArray(parser);
+            try (MaskOutput.RecordWriter writer = output.open(objectMapper.getFactory(), out)) {
+                return anonymize(parser, writer, context);
+            }
+        }
+    }
+
+    /**
+     * anonymizeStream
+     *
+     * @param parser    positioned before the top level array
+     * @param generator receives the masked array, from the writer thread
+     * @param context   state of the masking run
+     * @return number of records masked
+     * @throws JsonParseException if the input is not an array of objects
+     */
+    public int anonymizeStream(JsonParser parser, JsonGenerator generator, MaskContext context) throws IOException {
+        StreamingMask.startArray(parser);
+        return anonymize(parser, MaskOutput.wrap(generator), context);
+    }
+
+    private int anonymize(JsonParser parser, MaskOutput.RecordWriter writer, MaskContext context)
+            throws IOException {
+        BlockingQueue<Batch> maskQueue = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Batch> writeQueue = new ArrayBlockingQueue<>(queueSize);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(workers + 1);
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(() -> mask(maskQueue, context, failure), "mask-worker-" + i));
+        }
+        threads.add(new Thread(() -> write(writeQueue, writer, context.getPlan(), failure), "mask-writer"));
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int count = 0;
+        try {
+            MaskMetrics metrics = context.getMetrics();
+            long offset = parser.getCurrentLocation().getByteOffset();
+            Batch batch = new Batch(batchSize, 1);
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                Map<String, Object> record = recordReader.readValue(parser);
+                count++;
+                long end = parser.getCurrentLocation().getByteOffset();
+                if (end > offset) {
+                    metrics.addBytes(end - offset);
+                    offset = end;
+                }
+                Mask.indexRecord(record, context, count);
+                batch.add(record);
+                if (batch.records.size() == batchSize) {
+                    handOff(batch, maskQueue, writeQueue, failure);
+                    batch = new Batch(batchSize, count + 1);
+                }
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException("Expected a flat record object", parser.getCurrentLocation());
+            }
+            if (!batch.records.isEmpty()) {
+                handOff(batch, maskQueue, writeQueue, failure);
+            }
+            for (int i = 0; i < workers; i++) {
+                put(maskQueue, Batch.END, failure);
+            }
+            put(writeQueue, Batch.END, failure);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InterruptedIOException("Interrupted while masking"));
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        Throwable cause = failure.get();
+        if (cause != null) {
+            // stop the other stages before the caller closes the generator
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            boolean interrupted = false;
+            for (Thread thread : threads) {
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return count;
+    }
+
+    private void handOff(Batch batch, BlockingQueue<Batch> maskQueue, BlockingQueue<Batch> writeQueue,
+                         AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+        batches.increment();
+        int maskDepth = maskQueue.size();
+        int writeDepth = writeQueue.size();
+        maskQueueDepth.add(maskDepth);
+        writeQueueDepth.add(writeDepth);
+        // only the parser thread writes the maxima
+        if (maskDepth > maxMaskQueueDepth) {
+            maxMaskQueueDepth = maskDepth;
+        }
+        if (writeDepth > maxWriteQueueDepth) {
+            maxWriteQueueDepth = writeDepth;
+        }
+        // the writer's queue first, so the writer waits on the batch rather than missing it
+        put(writeQueue, batch, failure);
+        put(maskQueue, batch, failure);
+    }
+
+    private void put(BlockingQueue<Batch> queue, Batch batch, AtomicReference<Throwable> failure)
+            throws IOException, InterruptedException {
+        if (queue.offer(batch)) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                throw new InterruptedIOException("Pipeline stopped");
+            }
+        }
+        parserStallNanos.add(System.nanoTime() - start);
+    }
+
+    private void mask(BlockingQueue<Batch> queue, MaskContext context, AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null) {
+                long start = System.nanoTime();
+                Batch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                workerIdleNanos.add(System.nanoTime() - start);
+                if (batch == Batch.END) {
+                    return;
+                }
+                if (batch == null) {
+                    continue;
+                }
+                int iteration = batch.first;
+                for (Map<String, Object> record : batch.records) {
+                    Mask.anonymizeRecord(record, context, iteration++, false);
+                }
+                batch.masked.countDown();
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void write(BlockingQueue<Batch> queue, MaskOutput.RecordWriter writer, MaskPlan plan,
+                       AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null) {
+                long start = System.nanoTime();
+                Batch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == Batch.END) {
+                    writerStallNanos.add(System.nanoTime() - start);
+                    writer.finish();
+                    return;
+                }
+                if (batch == null) {
+                    writerStallNanos.add(System.nanoTime() - start);
+                    continue;
+                }
+                while (!batch.masked.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                }
+                writerStallNanos.add(System.nanoTime() - start);
+                for (Map<String, Object> record : batch.records) {
+                    writer.write(record, plan);
+                }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * @return number of batches handed from the parser to the other stages
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return mean number of batches waiting in the mask queue when a batch was handed off
+     */
+    public double getMaskQueueDepth() {
+        long count = batches.sum();
+        return (count == 0) ? 0 : (double) maskQueueDepth.sum() / count;
+    }
+
+    /**
+     * @return mean number of batches waiting in the write queue when a batch was handed off
+     */
+    public double getWriteQueueDepth() {
+        long count = batches.sum();
+        return (count == 0) ? 0 : (double) writeQueueDepth.sum() / count;
+    }
+
+    public int getMaxMaskQueueDepth() {
+        return maxMaskQueueDepth;
+    }
+
+    public int getMaxWriteQueueDepth() {
+        return maxWriteQueueDepth;
+    }
+
+    /**
+     * @return nanoseconds the parser waited for room in a full queue
+     */
+    public long getParserStallNanos() {
+        return parserStallNanos.sum();
+    }
+
+    /**
+     * @return nanoseconds the workers together waited for a batch to mask
+     */
+    public long getWorkerIdleNanos() {
+        return workerIdleNanos.sum();
+    }
+
+    /**
+     * @return nanoseconds the writer waited for the next batch to be parsed or masked
+     */
+    public long getWriterStallNanos() {
+        return writerStallNanos.sum();
+    }
+
+    /**
+     * summary
+     *
+     * @return one line of queue depths and stage stall times
+     */
+    public String summary() {
+        return String.format("pipeline batches %d, mask queue depth mean %.1f max %d, write queue depth mean %.1f" +
+                        " max %d of %d, stalled parser %d ms, workers %d ms, writer %d ms%n",
+                getBatches(), getMaskQueueDepth(), getMaxMaskQueueDepth(), getWriteQueueDepth(),
+                getMaxWriteQueueDepth(), queueSize, TimeUnit.NANOSECONDS.toMillis(getParserStallNanos()),
+                TimeUnit.NANOSECONDS.toMillis(getWorkerIdleNanos()),
+                TimeUnit.NANOSECONDS.toMillis(getWriterStallNanos()));
+    }
+
+    /**
+     * records handed between the stages together
+     */
+    private static final class Batch {
+
+        static final Batch END = new Batch(0, 0);
+
+        private final List<Map<String, Object>> records;
+        private final CountDownLatch masked = new CountDownLatch(1);
+        private final int first;
+
+        /**
+         * @param first record number of the batch's first record
+         */
+        Batch(int size, int first) {
+            this.records = new ArrayList<>(size);
+            this.first = first;
+        }
+
+        void add(Map<String, Object> record) {
+            records.add(record);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.tackleset.masker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * PrivateFiles creates files that only their owner can read, on file systems with POSIX permissions
+ *
+ * File.createTempFile and FileOutputStream create files with the process umask, which usually lets every user read
+ * them.  Files derived from original values are created here instead.
+ */
+final class PrivateFiles {
+
+    private PrivateFiles() {
+    }
+
+    /**
+     * createTempFile
+     *
+     * @param dir    directory of the file
+     * @param prefix start of the file name
+     * @param suffix end of the file name
+     * @return a new empty file readable and writable by its owner only
+     */
+    static File createTempFile(File dir, String prefix, String suffix) throws IOException {
+        Path path = dir.toPath();
+        return isPosix(path) ? Files.createTempFile(path, prefix, suffix, ownerOnly()).toFile() :
+                Files.createTempFile(path, prefix, suffix).toFile();
+    }
+
+    /**
+     * create
+     *
+     * @param file replaced by a new empty file readable and writable by its owner only
+     */
+    static void create(File file) throws IOException {
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        if (isPosix(path)) {
+            Files.createFile(path, ownerOnly());
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static FileAttribute<?> ownerOnly() {
+        return PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+    }
+}
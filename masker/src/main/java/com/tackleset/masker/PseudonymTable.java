@@ -0,0 +1,488 @@
+package com.tackleset.masker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PseudonymTable maps the original value of a field to its masked value for a whole run
+ *
+ * The first record holding a value masks it, every later record holding the same value in the same field gets the
+ * same masked value, so masked records keep their referential integrity.  Entries live in memory, or with a spill
+ * directory in size-bounded LRU segments whose least recently used entries spill to a SpillStore on disk and are
+ * loaded back when the value shows up again.  Original values never leave the heap: spilled and checkpointed entries
+ * are keyed by the KeyedDigest of their field and value.
+ *
+ * Parallel runs claim every value with its record number before masking, so each value is masked as the record that
+ * holds it first in the input and the output does not depend on thread scheduling.
+ */
+public class PseudonymTable implements Closeable {
+
+    public static final int DEFAULT_CACHE_SIZE = 1 << 20;
+
+    private static final int SEGMENTS = 64;
+    private static final Object UNMASKED = new Object();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final SpillStore store;
+    private final KeyedDigest digest;
+    // entries read from a checkpoint without a spill store, by digest, until their value shows up again
+    private final Map<ByteBuffer, Entry> restored = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder spills = new LongAdder();
+
+    /**
+     * an in-memory table without a size bound
+     */
+    public PseudonymTable() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param cacheSize largest number of entries kept in memory
+     * @param spillDir  directory of the temporary spill files, null to keep every entry in memory
+     */
+    public PseudonymTable(int cacheSize, File spillDir) {
+        this(cacheSize, spillDir, KeyedDigest.random());
+    }
+
+    /**
+     * @param cacheSize largest number of entries kept in memory
+     * @param spillDir  directory of the temporary spill files, null to keep every entry in memory
+     * @param digest    keys spilled and checkpointed entries, a checkpoint is only read back under the same key
+     */
+    PseudonymTable(int cacheSize, File spillDir, KeyedDigest digest) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Pseudonym cache size must be positive");
+        }
+        this.digest = digest;
+        this.store = (spillDir != null) ? new SpillStore(spillDir) : null;
+        int capacity = (store != null) ? Math.max(1, cacheSize / SEGMENTS) : Integer.MAX_VALUE;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * claim
+     *
+     * Records that the value appears in the field of a record without masking it
+     *
+     * @param field     field name
+     * @param value     original value, ignored when null
+     * @param iteration record number in the run, starting at 1
+     */
+    public void claim(String field, Object value, int iteration) {
+        if (value == null) {
+            return;
+        }
+        Key key = new Key(field, value);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.entry(key, iteration);
+        }
+    }
+
+    /**
+     * pseudonym
+     *
+     * @param field     field name
+     * @param rule      masking rule of the field
+     * @param value     original value
+     * @param iteration record number in the run, starting at 1
+     * @param metrics   receives the hint timing when the value is masked
+     * @param format    false to keep masked values unformatted, the same for every call of a run
+     * @return the masked value of the first record holding the value, a null value is masked for every record
+     */
+    Object pseudonym(String field, FieldRule rule, Object value, int iteration, MaskMetrics metrics,
+                     boolean format) {
+        if (value == null) {
+            return mask(rule, null, iteration, metrics, format);
+        }
+        Key key = new Key(field, value);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.entry(key, iteration);
+            if (entry.masked == UNMASKED) {
+                entry.masked = mask(rule, value, entry.first, metrics, format);
+                entry.stored = false;
+            } else {
+                hits.increment();
+            }
+            return entry.masked;
+        }
+    }
+
+    private static Object mask(FieldRule rule, Object value, int iteration, MaskMetrics metrics, boolean format) {
+        boolean timings = metrics.isTimings();
+        long start = timings ? System.nanoTime() : 0;
+        Object masked = rule.mask(value, iteration, format);
+        if (timings) {
+            metrics.recordHint(rule.getHint(), rule.getType(), System.nanoTime() - start);
+        }
+        return masked;
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return number of values found already masked
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of entries read back from the spill store
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return number of entries written to the spill store
+     */
+    public long getSpills() {
+        return spills.sum();
+    }
+
+    /**
+     * @return number of entries held in memory
+     */
+    public long getCached() {
+        long cached = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                cached += segment.size();
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * @return number of distinct entries in the spill store
+     */
+    public long getSpilled() {
+        return (store != null) ? store.size() : 0;
+    }
+
+    /**
+     * summary
+     *
+     * @return one line of cache and spill counters
+     */
+    public String summary() {
+        return String.format("pseudonyms cached %d, hits %d, spilled %d, spills %d, loads %d%n",
+                getCached(), getHits(), getSpilled(), getSpills(), getLoads());
+    }
+
+    /**
+     * @return the digest spilled and checkpointed entries are keyed by
+     */
+    KeyedDigest getDigest() {
+        return digest;
+    }
+
+    /**
+     * writeTo
+     *
+     * Writes every entry, in memory, restored or spilled, by the digest of its key with the first record holding its
+     * value and its masked value if it was masked, for a checkpoint.  No other thread may use the table while it is
+     * written.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        Set<ByteBuffer> written = new HashSet<>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Key, Entry> entry : segment.entrySet()) {
+                    byte[] key = digest.digest(entry.getKey().encode());
+                    written.add(ByteBuffer.wrap(key));
+                    writeEntry(out, key, entry.getValue().encode());
+                }
+            }
+        }
+        for (Map.Entry<ByteBuffer, Entry> entry : restored.entrySet()) {
+            writeEntry(out, entry.getKey().array(), entry.getValue().encode());
+        }
+        if (store != null) {
+            // spilled entries that were loaded back are written from memory, where they may be newer
+            store.forEach((key, value) -> {
+                if (!written.contains(ByteBuffer.wrap(key))) {
+                    writeEntry(out, key, value);
+                }
+            });
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * readFrom
+     *
+     * @param in entries written by writeTo of a table with the same digest key, kept in the spill store if there is
+     *           one and loaded into memory when their value shows up
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        while (in.readBoolean()) {
+            byte[] key = readBytes(in);
+            byte[] entry = readBytes(in);
+            if (store != null) {
+                store.put(key, entry);
+            } else {
+                restored.put(ByteBuffer.wrap(key), Entry.decode(entry));
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, byte[] key, byte[] entry) throws IOException {
+        out.writeBoolean(true);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(entry.length);
+        out.write(entry);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private static final class Key {
+
+        private final String field;
+        private final Object value;
+        private final int hash;
+
+        Key(String field, Object value) {
+            this.field = field;
+            this.value = value;
+            this.hash = 31 * field.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && field.equals(key.field) && value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, field);
+            writeValue(out, value);
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final class Entry {
+
+        private int first;
+        private Object masked = UNMASKED;
+        // true while the spill store holds the current first and masked
+        private boolean stored;
+
+        Entry(int first) {
+            this.first = first;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(first);
+            out.writeBoolean(masked != UNMASKED);
+            if (masked != UNMASKED) {
+                writeValue(out, masked);
+            }
+            return bytes.toByteArray();
+        }
+
+        static Entry decode(byte[] encoded) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            Entry entry = new Entry(in.readInt());
+            if (in.readBoolean()) {
+                entry.masked = readValue(in);
+            }
+            entry.stored = true;
+            return entry;
+        }
+    }
+
+    /**
+     * an LRU map of entries, the eldest entry spills to the store when the segment is full
+     */
+    private final class Segment extends LinkedHashMap<Key, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        /**
+         * entry
+         *
+         * @return the entry of the key from memory or the store, created when new, claimed for the iteration
+         */
+        Entry entry(Key key, int iteration) {
+            Entry entry = get(key);
+            if (entry == null) {
+                entry = load(key);
+                if (entry == null) {
+                    entry = new Entry(iteration);
+                }
+                put(key, entry);
+            }
+            // an earlier record can only show up in the parallel claim pass, before anything is masked
+            if (iteration < entry.first) {
+                entry.first = iteration;
+                entry.stored = false;
+            }
+            return entry;
+        }
+
+        private Entry load(Key key) {
+            boolean spilled = store != null && store.size() > 0;
+            if (!spilled && restored.isEmpty()) {
+                return null;
+            }
+            try {
+                byte[] keyDigest = digest.digest(key.encode());
+                Entry entry = restored.isEmpty() ? null : restored.remove(ByteBuffer.wrap(keyDigest));
+                if (entry != null) {
+                    entry.stored = false;
+                } else {
+                    byte[] encoded = spilled ? store.get(keyDigest) : null;
+                    if (encoded == null) {
+                        return null;
+                    }
+                    entry = Entry.decode(encoded);
+                }
+                loads.increment();
+                return entry;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            Entry entry = eldest.getValue();
+            if (!entry.stored) {
+                try {
+                    store.put(digest.digest(eldest.getKey().encode()), entry.encode());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                spills.increment();
+            }
+            return true;
+        }
+    }
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte BIG_INTEGER = 6;
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else {
+            throw new IllegalArgumentException("Cannot spill a value of " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString(in);
+            case BOOLEAN:
+                return in.readBoolean();
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            default:
+                throw new IOException("Unknown pseudonym value tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,30 @@
+package com.tackleset.masker;
+
+/**
+ * RandomSource supplies the random bits of the random hint
+ *
+ * A source is asked for the bits of one field of one record, so a seeded source can make them a function of the run
+ * seed, the field and the record number and give the same masked values in serial, streaming and parallel runs.
+ */
+public interface RandomSource {
+
+    /**
+     * nextLong
+     *
+     * @param salt      identifies the field being masked
+     * @param iteration record number in the run, starting at 1
+     * @return 64 random bits
+     */
+    long nextLong(long salt, int iteration);
+
+    /**
+     * bounded
+     *
+     * @param bits  32 random bits in the low half
+     * @param bound exclusive upper bound, 0 or more
+     * @return a number from 0 to bound - 1, 0 if bound is 0
+     */
+    static int bounded(long bits, int bound) {
+        return (int) (((bits & 0xffffffffL) * bound) >>> 32);
+    }
+}
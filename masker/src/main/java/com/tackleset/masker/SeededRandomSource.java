@@ -0,0 +1,40 @@
+package com.tackleset.masker;
+
+/**
+ * SeededRandomSource derives the bits of a field from the run seed, the field and the record number
+ *
+ * It is a counter based SplitMix64: the bits are a hash of the three inputs rather than the next state of a shared
+ * generator, so every thread computes them on its own and a run with the same seed masks the same way whatever order
+ * the records are masked in.
+ */
+public class SeededRandomSource implements RandomSource {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+
+    public SeededRandomSource(long seed) {
+        this.seed = mix(seed);
+    }
+
+    @Override
+    public long nextLong(long salt, int iteration) {
+        return mix(seed + salt * GOLDEN_GAMMA + mix(iteration * GOLDEN_GAMMA));
+    }
+
+    /**
+     * salt
+     *
+     * @param field field name, may be null
+     * @return a salt spreading the field name over 64 bits
+     */
+    public static long salt(String field) {
+        return (field == null) ? 0 : mix(field.hashCode() * GOLDEN_GAMMA);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
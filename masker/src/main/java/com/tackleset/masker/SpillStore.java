@@ -0,0 +1,248 @@
+package com.tackleset.masker;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * SpillStore is an on-disk hash map of byte array keys to byte array values
+ *
+ * Records are appended to a data file and found through an open addressing index of (hash, offset) slots in a
+ * memory-mapped file, so a lookup reads one record from disk and the heap holds neither keys nor values.  Updating a
+ * key appends a new record, the old one is left in the data file.  Both files are temporary, readable by their owner
+ * only, and deleted on close or when the JVM shuts down.
+ */
+final class SpillStore implements Closeable {
+
+    private static final int SLOT_BYTES = 16;
+    private static final int REGION_SLOTS = 1 << 23;
+    private static final int INITIAL_SLOTS = 1 << 16;
+    private static final int HEADER_BYTES = 8;
+
+    private final File dir;
+    private File dataFile;
+    private FileChannel data;
+    private long dataEnd;
+    private File indexFile;
+    private MappedByteBuffer[] regions;
+    private long slots;
+    private long size;
+    private Thread cleanup;
+
+    /**
+     * @param dir directory the temporary files are created in, they are only created on the first put
+     */
+    SpillStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * get
+     *
+     * @param key encoded key
+     * @return the encoded value last put for the key, or null
+     */
+    synchronized byte[] get(byte[] key) throws IOException {
+        if (size == 0) {
+            return null;
+        }
+        long hash = hash(key);
+        for (long slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long slotHash = slotHash(slot);
+            if (slotHash == 0) {
+                return null;
+            }
+            if (slotHash == hash) {
+                byte[][] record = read(slotOffset(slot));
+                if (Arrays.equals(record[0], key)) {
+                    return record[1];
+                }
+            }
+        }
+    }
+
+    /**
+     * put
+     *
+     * @param key   encoded key
+     * @param value encoded value, replaces the previous value of the key
+     */
+    synchronized void put(byte[] key, byte[] value) throws IOException {
+        if (data == null) {
+            open();
+        }
+        long offset = append(key, value);
+        long hash = hash(key);
+        for (long slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long slotHash = slotHash(slot);
+            if (slotHash == 0) {
+                setSlot(slot, hash, offset);
+                if (++size > slots / 2) {
+                    grow();
+                }
+                return;
+            }
+            if (slotHash == hash && Arrays.equals(read(slotOffset(slot))[0], key)) {
+                setSlot(slot, hash, offset);
+                return;
+            }
+        }
+    }
+
+    /**
+     * forEach
+     *
+     * @param action receives every key with the value last put for it
+     */
+    synchronized void forEach(RecordAction action) throws IOException {
+        for (long slot = 0; slot < slots && size > 0; slot++) {
+            if (slotHash(slot) != 0) {
+                byte[][] record = read(slotOffset(slot));
+                action.accept(record[0], record[1]);
+            }
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes written to the data file, including replaced records
+     */
+    synchronized long getDataBytes() {
+        return dataEnd;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+            regions = null;
+            deleteFiles();
+            try {
+                Runtime.getRuntime().removeShutdownHook(cleanup);
+            } catch (IllegalStateException e) {
+                // closed by the shutdown hook itself
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        dataFile = PrivateFiles.createTempFile(dir, "pseudonyms", ".data");
+        cleanup = new Thread(this::deleteFiles, "pseudonym spill cleanup");
+        Runtime.getRuntime().addShutdownHook(cleanup);
+        data = new RandomAccessFile(dataFile, "rw").getChannel();
+        mapIndex(INITIAL_SLOTS);
+    }
+
+    private void deleteFiles() {
+        dataFile.delete();
+        if (indexFile != null) {
+            indexFile.delete();
+        }
+    }
+
+    private void mapIndex(long slotCount) throws IOException {
+        File file = PrivateFiles.createTempFile(dir, "pseudonyms", ".index");
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((slotCount + REGION_SLOTS - 1) / REGION_SLOTS)];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < mapped.length; i++) {
+                long regionSlots = Math.min(REGION_SLOTS, slotCount - (long) i * REGION_SLOTS);
+                // a new mapping past the end of the file extends it with zeros, which are empty slots
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) i * REGION_SLOTS * SLOT_BYTES, regionSlots * SLOT_BYTES);
+            }
+        }
+        if (indexFile != null) {
+            indexFile.delete();
+        }
+        indexFile = file;
+        regions = mapped;
+        slots = slotCount;
+    }
+
+    private void grow() throws IOException {
+        MappedByteBuffer[] oldRegions = regions;
+        long oldSlots = slots;
+        mapIndex(slots * 2);
+        for (long slot = 0; slot < oldSlots; slot++) {
+            MappedByteBuffer region = oldRegions[(int) (slot / REGION_SLOTS)];
+            int position = (int) (slot % REGION_SLOTS) * SLOT_BYTES;
+            long hash = region.getLong(position);
+            if (hash != 0) {
+                long newSlot = hash & (slots - 1);
+                while (slotHash(newSlot) != 0) {
+                    newSlot = (newSlot + 1) & (slots - 1);
+                }
+                setSlot(newSlot, hash, region.getLong(position + 8));
+            }
+        }
+    }
+
+    private long slotHash(long slot) {
+        return regions[(int) (slot / REGION_SLOTS)].getLong((int) (slot % REGION_SLOTS) * SLOT_BYTES);
+    }
+
+    private long slotOffset(long slot) {
+        return regions[(int) (slot / REGION_SLOTS)].getLong((int) (slot % REGION_SLOTS) * SLOT_BYTES + 8);
+    }
+
+    private void setSlot(long slot, long hash, long offset) {
+        MappedByteBuffer region = regions[(int) (slot / REGION_SLOTS)];
+        int position = (int) (slot % REGION_SLOTS) * SLOT_BYTES;
+        region.putLong(position + 8, offset);
+        region.putLong(position, hash);
+    }
+
+    private long append(byte[] key, byte[] value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + key.length + value.length);
+        buffer.putInt(key.length).putInt(value.length).put(key).put(value).flip();
+        long offset = dataEnd;
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += data.write(buffer, position);
+        }
+        dataEnd = position;
+        return offset;
+    }
+
+    private byte[][] read(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(header, offset);
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt() + header.getInt(4));
+        readFully(body, offset + HEADER_BYTES);
+        byte[] bytes = body.array();
+        int keyLength = header.getInt(0);
+        return new byte[][] {Arrays.copyOf(bytes, keyLength), Arrays.copyOfRange(bytes, keyLength, bytes.length)};
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = data.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Truncated pseudonym record at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static long hash(byte[] key) {
+        // 0 marks an empty slot
+        long hash = Hashes.hash(key);
+        return (hash == 0) ? 1 : hash;
+    }
+
+    interface RecordAction {
+        void accept(byte[] key, byte[] value) throws IOException;
+    }
+}
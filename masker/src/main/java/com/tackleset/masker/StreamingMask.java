@@ -0,0 +1,224 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * StreamingMask masks a json array of flat records one record at a time
+ *
+ * Only the record being masked is held in memory so heap use does not grow with the size of the file.  Masked values
+ * are kept unformatted and each record is written field by field, rendering formatted numbers into a reusable buffer
+ * straight to the generator.
+ */
+public class StreamingMask {
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader recordReader;
+
+    public StreamingMask(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.recordReader = objectMapper.reader(CompactRecord.class);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in  json file containing an array of flat records
+     * @param out masked json file, pretty printed like the non streaming output
+     * @param context state of the masking run
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context) throws IOException {
+        return anonymizeFile(in, out, context, MaskOutput.DEFAULT);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      json file containing an array of flat records
+     * @param out     masked file, or the base name of its parts if the output is split
+     * @param context state of the masking run
+     * @param output  layout, compression and splitting of the masked file
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context, MaskOutput output) throws IOException {
+        return anonymizeFile(in, out, context, output, 1);
+    }
+
+    /**
+     * anonymizeFile
+     *
+     * @param in      json file containing an array of flat records
+     * @param out     masked file, or the base name of its parts if the output is split
+     * @param context state of the masking run
+     * @param output  layout, compression and splitting of the masked file
+     * @param first   record number of the file's first record in the run
+     * @return number of records masked
+     */
+    public int anonymizeFile(File in, File out, MaskContext context, MaskOutput output, int first)
+            throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            startArray(parser);
+            try (MaskOutput.RecordWriter writer = output.open(objectMapper.getFactory(), out)) {
+                return anonymize(parser, writer, context, first);
+            }
+        }
+    }
+
+    /**
+     * countRecords
+     *
+     * @param in json file containing an array of flat records
+     * @return number of records, counted without binding them
+     */
+    public int countRecords(File in) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            startArray(parser);
+            int count = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                count++;
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException("Expected a flat record object", parser.getCurrentLocation());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * indexFile
+     *
+     * Indexes the sensitive values and claims the pseudonyms of every record without masking, so a later
+     * anonymizeFile masks values as the record holding them first in the whole run
+     *
+     * @param in      json file containing an array of flat records
+     * @param context state of the masking run
+     * @param first   record number of the file's first record in the run
+     */
+    public void indexFile(File in, MaskContext context, int first) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            startArray(parser);
+            int iteration = first;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Object> record = recordReader.readValue(parser);
+                Mask.indexRecord(record, context, iteration++);
+            }
+        }
+    }
+
+    /**
+     * anonymizeStream
+     *
+     * Reads the top level array from the parser and writes each masked record to the generator as soon as it is masked
+     *
+     * @param parser    positioned before the top level array
+     * @param generator receives the masked array
+     * @param context   state of the masking run
+     * @return number of records masked
+     * @throws JsonParseException if the input is not an array of objects
+     */
+    public int anonymizeStream(JsonParser parser, JsonGenerator generator, MaskContext context) throws IOException {
+        startArray(parser);
+        return anonymize(parser, MaskOutput.wrap(generator), context, 1);
+    }
+
+    /**
+     * startArray
+     *
+     * @throws JsonParseException if the next token is not the start of the top level array
+     */
+    static void startArray(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException("Expected a json array of flat records", parser.getCurrentLocation());
+        }
+    }
+
+    private int anonymize(JsonParser parser, MaskOutput.RecordWriter writer, MaskContext context, int first)
+            throws IOException {
+        MaskMetrics metrics = context.getMetrics();
+        MaskPlan plan = context.getPlan();
+        long offset = parser.getCurrentLocation().getByteOffset();
+        int count = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            Map<String, Object> record = recordReader.readValue(parser);
+            count++;
+            long end = parser.getCurrentLocation().getByteOffset();
+            if (end > offset) {
+                metrics.addBytes(end - offset);
+                offset = end;
+            }
+            Mask.anonymizeRecord(record, context, first + count - 1, false);
+            writer.write(record, plan);
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new JsonParseException("Expected a flat record object", parser.getCurrentLocation());
+        }
+        writer.finish();
+        return count;
+    }
+
+    /**
+     * writeRecord
+     *
+     * Writes the record like the ObjectMapper would after applying the FORMAT of each formatted field
+     *
+     * @param generator receives the record object
+     * @param record    record masked without formatting
+     * @param plan      rules the record was masked with, null if the record is masked with formatting
+     * @param buffer    scratch space for rendering formatted numbers
+     */
+    static void writeRecord(JsonGenerator generator, Map<String, Object> record, MaskPlan plan, char[] buffer)
+            throws IOException {
+        CompactRecord compact = (record instanceof CompactRecord) ? (CompactRecord) record : null;
+        int position = -1;
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            position++;
+            generator.writeFieldName(entry.getKey());
+            FieldRule rule = (plan != null) ? plan.rule(entry.getKey()) : null;
+            boolean formatted = rule != null && rule.isFormatted();
+            if (compact != null && !formatted && compact.writeNumber(position, generator)) {
+                continue;
+            }
+            Object value = entry.getValue();
+            if (formatted && value != null) {
+                if (value instanceof Integer || value instanceof Long) {
+                    generator.writeString(buffer, 0, rule.getFormat().format(((Number) value).longValue(), buffer));
+                    continue;
+                }
+                value = rule.getFormat().format(value);
+            }
+            writeValue(generator, value);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.tackleset.masker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ThreadLocalRandomSource draws from the calling thread's ThreadLocalRandom
+ *
+ * Masked values differ from run to run; threads never share a generator so there is no contention and no allocation.
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+
+    public static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+
+    @Override
+    public long nextLong(long salt, int iteration) {
+        return ThreadLocalRandom.current().nextLong();
+    }
+}
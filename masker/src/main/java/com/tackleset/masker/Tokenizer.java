@@ -0,0 +1,250 @@
+package com.tackleset.masker;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer is a keyed format preserving permutation of values, used by the tokenize hint
+ *
+ * Digits stay digits, lower and upper case ASCII letters stay lower and upper case letters and every other character
+ * is kept in place, so a token has the length and shape of its value.  Whole numbers stay whole numbers with the same
+ * number of digits.  The same key always gives the same token and different values of the same shape always give
+ * different tokens, so tokens are consistent across records, files and runs without keeping any table.
+ *
+ * The letters and digits are read as a mixed radix number, cut into blocks of at most 62 bits and each block is
+ * encrypted with an 8 round Feistel network over SipHash-2-4, cycle walking back into the block's range.  Blocks are
+ * chained forward and then backward so every output character depends on every input character.  Dates and other
+ * values with a structure beyond their characters are not kept valid.
+ *
+ * This construction is not a standard format preserving encryption mode, neither NIST FF1 nor FF3-1, and has not had
+ * a cryptographic review.  Short values have few possible tokens and are easily guessed from them, so tokens are
+ * pseudonyms for testing and analysis, not a protection of the values against someone holding the masked data.
+ */
+public class Tokenizer {
+
+    public static final String KEY_ENV = "MASK_TOKEN_KEY";
+
+    private static final int ROUNDS = 8;
+    private static final long MAX_BLOCK = 1L << 62;
+
+    private final long k0;
+    private final long k1;
+
+    /**
+     * @param secret secret the 128 bit key is derived from with HKDF-SHA256
+     */
+    public Tokenizer(String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Tokenizer needs a non empty secret");
+        }
+        ByteBuffer key = ByteBuffer.wrap(KeyedDigest.hkdf(secret.getBytes(StandardCharsets.UTF_8), "tokenize"));
+        this.k0 = key.getLong();
+        this.k1 = key.getLong();
+    }
+
+    /**
+     * tokenize
+     *
+     * @param value original value
+     * @return an Integer, Long or BigInteger token of the same sign and number of digits for whole numbers, null for
+     * null and a String token of the value's text for anything else
+     */
+    public Object tokenize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof BigInteger) {
+            String token = tokenize(value.toString(), true);
+            if (token.length() <= 18) {
+                long number = Long.parseLong(token);
+                return (value instanceof Integer && number == (int) number) ? (Object) (int) number : (Object) number;
+            }
+            BigInteger number = new BigInteger(token);
+            return (number.bitLength() < 64) ? (Object) number.longValue() : number;
+        }
+        return tokenize(value.toString(), false);
+    }
+
+    /**
+     * tokenize
+     *
+     * @param value original text
+     * @return token of the same length with digits, lower case and upper case letters in the same places
+     */
+    public String tokenize(String value) {
+        return tokenize(value, false);
+    }
+
+    /**
+     * @param number true if the value is a whole number, its first digit is then never 0 unless it is its only digit
+     */
+    private String tokenize(String value, boolean number) {
+        char[] chars = value.toCharArray();
+        int[] positions = new int[chars.length];
+        int count = 0;
+        long pattern = number ? Long.rotateLeft(Hashes.FNV_OFFSET, 32) : Hashes.FNV_OFFSET;
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (radix(c) > 0) {
+                positions[count++] = i;
+            }
+            pattern = Hashes.fnv(pattern, charClass(c));
+        }
+        if (count == 0) {
+            return value;
+        }
+        // 0 to 9 tokenize to 0 to 9, the first digit of any other number is 1 to 9 so the digits and sign are kept
+        boolean leading = number && (count > 1 || chars[0] == '-');
+        int[] digits = new int[count];
+        int[] radixes = new int[count];
+        for (int i = 0; i < count; i++) {
+            char c = chars[positions[i]];
+            radixes[i] = radix(c);
+            digits[i] = c - base(c);
+        }
+        if (leading) {
+            radixes[0] = 9;
+            digits[0] -= 1;
+        }
+
+        // cut the positions into blocks whose mixed radix range fits in a long
+        int[] blockEnds = new int[count];
+        int blocks = 0;
+        long range = 1;
+        for (int i = 0; i < count; i++) {
+            if (range > MAX_BLOCK / radixes[i]) {
+                blockEnds[blocks++] = i;
+                range = 1;
+            }
+            range *= radixes[i];
+        }
+        blockEnds[blocks++] = count;
+
+        long chain = Hashes.fmix(pattern ^ k1);
+        for (int b = 0; b < blocks; b++) {
+            chain = encryptBlock(digits, radixes, (b == 0) ? 0 : blockEnds[b - 1], blockEnds[b], chain, b);
+        }
+        if (blocks > 1) {
+            chain = Hashes.fmix(chain ^ pattern);
+            for (int b = blocks - 1; b >= 0; b--) {
+                chain = encryptBlock(digits, radixes, (b == 0) ? 0 : blockEnds[b - 1], blockEnds[b], chain, blocks + b);
+            }
+        }
+
+        if (leading) {
+            digits[0] += 1;
+        }
+        for (int i = 0; i < count; i++) {
+            char c = chars[positions[i]];
+            chars[positions[i]] = (char) (base(c) + digits[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * encryptBlock
+     *
+     * Replaces the digits from start to end with their encryption under a tweak of the chain and the block number
+     *
+     * @return the chain value for the next block
+     */
+    private long encryptBlock(int[] digits, int[] radixes, int start, int end, long chain, int block) {
+        long range = 1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            range *= radixes[i];
+            value = value * radixes[i] + digits[i];
+        }
+        long tweak = Hashes.fmix(chain + block * 0x9e3779b97f4a7c15L);
+        long encrypted = encrypt(value, range, tweak);
+        long next = Hashes.fmix(chain ^ encrypted ^ block);
+        for (int i = end - 1; i >= start; i--) {
+            digits[i] = (int) (encrypted % radixes[i]);
+            encrypted /= radixes[i];
+        }
+        return next;
+    }
+
+    /**
+     * encrypt
+     *
+     * @param value number below range
+     * @param range size of the domain, at most 2^62
+     * @param tweak distinguishes the permutations of different blocks and shapes
+     * @return the value's image under a keyed permutation of 0 to range - 1
+     */
+    long encrypt(long value, long range, long tweak) {
+        if (range < 2) {
+            return value;
+        }
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(range - 1));
+        bits += bits & 1;
+        int half = bits / 2;
+        long mask = (1L << half) - 1;
+        long x = value;
+        do {
+            long left = x >>> half;
+            long right = x & mask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long f = sipHash(tweak, ((long) round << 32) | right) & mask;
+                long next = left ^ f;
+                left = right;
+                right = next;
+            }
+            x = (left << half) | right;
+        } while (x >= range);
+        return x;
+    }
+
+    private static int radix(char c) {
+        if (c >= '0' && c <= '9') {
+            return 10;
+        }
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return 26;
+        }
+        return 0;
+    }
+
+    private static char base(char c) {
+        if (c >= '0' && c <= '9') {
+            return '0';
+        }
+        return (c >= 'a' && c <= 'z') ? 'a' : 'A';
+    }
+
+    private static int charClass(char c) {
+        // letters and digits only contribute their class to the shape, other characters themselves
+        return (radix(c) == 0) ? c : 0x10000 + base(c);
+    }
+
+    /**
+     * SipHash-2-4 of the two words m0 and m1
+     */
+    private long sipHash(long m0, long m1) {
+        long v0 = k0 ^ 0x736f6d6570736575L;
+        long v1 = k1 ^ 0x646f72616e646f6dL;
+        long v2 = k0 ^ 0x6c7967656e657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        for (int word = 0; word < 3; word++) {
+            long m = (word == 0) ? m0 : (word == 1) ? m1 : 16L << 56;
+            v3 ^= m;
+            for (int i = 0; i < 2; i++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        v2 ^= 0xff;
+        for (int i = 0; i < 4; i++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
@@ -0,0 +1,97 @@
+package com.tackleset.masker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AnonymizeRecordBenchmark measures the cost of masking one flat record
+ *
+ * Every invocation masks a fresh compact copy of the record, copyRecord measures the copy alone.  The member id, SSN
+ * and names of the copies cycle through MEMBERS values, so the first pass during warm-up masks them and the measured
+ * calls find them in a pseudonym table of that many members, as the later records of a long run do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AnonymizeRecordBenchmark {
+
+    static final int MEMBERS = 1 << 16;
+
+    private Map<String, Object> template;
+    private MaskContext context;
+    private int iteration;
+
+    static Map<String, Object> record(int memberId) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("member_id", memberId);
+        record.put("person_code", "01");
+        record.put("first_name", "Ann");
+        record.put("last_name", "Lee");
+        record.put("date_of_birth", "1970-01-02");
+        record.put("gender", "female");
+        record.put("ssn", "555667777");
+        record.put("address_1", "12 Elm St");
+        record.put("address_2", "Apt 3");
+        record.put("city", "Dover");
+        record.put("state", "DE");
+        record.put("zip", "19901");
+        record.put("prescription_number", 1234567);
+        record.put("drug_id", 42);
+        record.put("quantity", 30);
+        record.put("days_supply", 30);
+        record.put("strength", "10 mg tablet");
+        record.put("total_cost", 12.5);
+        record.put("copay", 5);
+        record.put("ingredient_cost", "7");
+        record.put("dispensing_fee", 0.5);
+        record.put("notes", "refill");
+        return record;
+    }
+
+    @Setup
+    public void setUp() {
+        context = new MaskContext(new MaskMetrics(false), 0, System.out);
+        template = record(0);
+        iteration = 0;
+    }
+
+    /**
+     * @return a compact copy of the template with the member values of one of MEMBERS members
+     */
+    private Map<String, Object> copy(int iteration) {
+        int member = iteration % MEMBERS;
+        CompactRecord record = new CompactRecord();
+        record.putAll(template);
+        record.put("member_id", 100000 + member);
+        record.put("ssn", Integer.toString(555000000 + member));
+        record.put("first_name", "Ann" + member);
+        record.put("last_name", "Lee" + member);
+        return record;
+    }
+
+    @Benchmark
+    public Map<String, Object> copyRecord() {
+        return copy(++iteration);
+    }
+
+    @Benchmark
+    public Map<String, Object> anonymizeRecord() {
+        ++iteration;
+        return Mask.anonymizeRecord(copy(iteration), context, iteration);
+    }
+}
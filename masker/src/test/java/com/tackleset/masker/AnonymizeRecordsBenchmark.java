@@ -0,0 +1,113 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AnonymizeRecordsBenchmark measures masking a whole generated dataset with each engine
+ *
+ * One operation masks all size records with a fresh MaskContext, so records per second is the score times size.
+ * The list engines mask a copy of the records, copyRecords measures the copy alone.  The stream, ndjson and csv
+ * engines read and write their format in memory or, for ndjson, through temporary files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnonymizeRecordsBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"all", "sensitive", "nonsensitive", "leaky"})
+    public String mix;
+
+    private ObjectMapper objectMapper;
+    private List<Map<String, Object>> records;
+    private byte[] json;
+    private String csv;
+    private File ndjsonIn;
+    private File ndjsonOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper();
+        records = BenchmarkData.records(size, mix, 42);
+        json = objectMapper.writeValueAsBytes(records);
+        csv = BenchmarkData.csv(records);
+        ndjsonIn = File.createTempFile("bench", ".ndjson");
+        ndjsonOut = File.createTempFile("bench", ".masked.ndjson");
+        Files.write(ndjsonIn.toPath(), BenchmarkData.ndjson(objectMapper, records));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ndjsonIn.delete();
+        ndjsonOut.delete();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> copyRecords() {
+        return BenchmarkData.copy(records);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> anonymizeRecords() {
+        return Mask.anonymizeRecords(BenchmarkData.copy(records), new MaskContext());
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> anonymizeRecordsParallel() {
+        return new ParallelMask(ForkJoinPool.commonPool(), 1024)
+                .anonymizeRecords(BenchmarkData.copy(records), new MaskContext());
+    }
+
+    @Benchmark
+    public int anonymizeStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            return new StreamingMask(objectMapper).anonymizeStream(parser, generator, new MaskContext());
+        }
+    }
+
+    @Benchmark
+    public int anonymizeNdjson() throws IOException {
+        return new NdjsonMask(objectMapper, null, NdjsonMask.DEFAULT_CHUNK_BYTES)
+                .anonymizeFile(ndjsonIn, ndjsonOut, new MaskContext());
+    }
+
+    @Benchmark
+    public int anonymizeCsv() throws IOException {
+        StringWriter out = new StringWriter(csv.length());
+        return new CsvMask(CsvMask.DEFAULT_BATCH_SIZE)
+                .anonymize(new StringReader(csv), out, new MaskContext());
+    }
+}
@@ -0,0 +1,141 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.StringJoiner;
+
+/**
+ * BenchmarkData generates repeatable datasets of flat records for the JMH benchmarks
+ *
+ * The mix picks the fields of each record:
+ * all          every SENSITIVES and NON_SENSITIVES field and one unknown field
+ * sensitive    only the SENSITIVES fields
+ * nonsensitive member_id and the NON_SENSITIVES fields
+ * leaky        like all, with one record in ten echoing an earlier ssn in a non sensitive field
+ *
+ * Every member appears in four records on average so the pseudonym table sees repeats.
+ */
+final class BenchmarkData {
+
+    static final String[] MIXES = {"all", "sensitive", "nonsensitive", "leaky"};
+
+    private static final String[] FIRST_NAMES = {"Ann", "Bob", "Carla", "Dmitri", "Eve", "Farid", "Grace", "Hui"};
+    private static final String[] LAST_NAMES = {"Lee", "Smith", "Okafor", "Garcia", "Novak", "Tanaka", "Brown"};
+    private static final String[] CITIES = {"Dover", "Salem", "Austin", "Fresno", "Tulsa", "Boise"};
+    private static final String[] STATES = {"DE", "OR", "TX", "CA", "OK", "ID"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * records
+     *
+     * @param size number of records
+     * @param mix  one of MIXES
+     * @param seed seed of the generated values
+     * @return the records, the same for the same arguments
+     */
+    static List<Map<String, Object>> records(int size, String mix, long seed) {
+        if (!Arrays.asList(MIXES).contains(mix)) {
+            throw new IllegalArgumentException("Unknown field mix " + mix);
+        }
+        boolean sensitive = !mix.equals("nonsensitive");
+        boolean nonSensitive = !mix.equals("sensitive");
+        boolean leaky = mix.equals("leaky");
+        SplittableRandom random = new SplittableRandom(seed);
+        int members = Math.max(1, size / 4);
+        List<Map<String, Object>> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int member = random.nextInt(members);
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("member_id", 100000 + member);
+            if (sensitive) {
+                record.put("person_code", String.format("%02d", member % 4));
+                record.put("first_name", FIRST_NAMES[member % FIRST_NAMES.length]);
+                record.put("last_name", LAST_NAMES[member % LAST_NAMES.length]);
+                record.put("date_of_birth", String.format("%d-%02d-%02d", 1930 + member % 70, 1 + member % 12,
+                        1 + member % 28));
+                record.put("gender", (member % 2 == 0) ? "female" : "male");
+                record.put("ssn", Integer.toString(100000000 + member * 7919 % 900000000));
+                record.put("address_1", (member % 900 + 1) + " Elm St");
+                record.put("address_2", "Apt " + (member % 40));
+                int place = member % CITIES.length;
+                record.put("city", CITIES[place]);
+                record.put("state", STATES[place]);
+                record.put("zip", String.format("%05d", 10000 + member % 89999));
+            }
+            if (nonSensitive) {
+                record.put("prescription_number", 1000000 + random.nextInt(9000000));
+                record.put("drug_id", random.nextInt(5000));
+                record.put("quantity", 1 + random.nextInt(90));
+                record.put("days_supply", 30);
+                record.put("strength", (5 * (1 + random.nextInt(40))) + "mg");
+                record.put("total_cost", random.nextInt(50000) / 100.0);
+                record.put("copay", random.nextInt(5000) / 100.0);
+                record.put("ingredient_cost", Integer.toString(random.nextInt(1000)));
+                record.put("dispensing_fee", 1.5);
+            }
+            if (sensitive && nonSensitive) {
+                record.put("notes", (i % 3 == 0) ? "refill" : "new prescription");
+            }
+            if (leaky && i > 0 && i % 10 == 0) {
+                record.put("strength", records.get(random.nextInt(i)).get("ssn"));
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * copy
+     *
+     * @return a copy of every record, masking works in place
+     */
+    static List<Map<String, Object>> copy(List<Map<String, Object>> records) {
+        List<Map<String, Object>> copy = new ArrayList<>(records.size());
+        for (Map<String, Object> record : records) {
+            copy.add(new LinkedHashMap<>(record));
+        }
+        return copy;
+    }
+
+    /**
+     * csv
+     *
+     * @return the records as CSV with the first record's fields as header, no generated value needs quoting
+     */
+    static String csv(List<Map<String, Object>> records) {
+        StringBuilder csv = new StringBuilder();
+        csv.append(String.join(",", records.get(0).keySet())).append('\n');
+        for (Map<String, Object> record : records) {
+            StringJoiner row = new StringJoiner(",");
+            for (Object value : record.values()) {
+                row.add(String.valueOf(value));
+            }
+            csv.append(row).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * ndjson
+     *
+     * @return the records as UTF-8 json, one record per line
+     */
+    static byte[] ndjson(ObjectMapper objectMapper, List<Map<String, Object>> records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map<String, Object> record : records) {
+            out.write(objectMapper.writeValueAsBytes(record));
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+}
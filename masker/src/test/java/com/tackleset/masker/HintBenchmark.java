@@ -0,0 +1,78 @@
+package com.tackleset.masker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HintBenchmark measures the throughput of masking one member_id, ssn or date_of_birth with the unique, random and
+ * tokenize hints, and of formatting a masked member_id
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HintBenchmark {
+
+    private FieldRule unique;
+    private FieldRule random;
+    private FieldRule randomDate;
+    private FieldRule tokenizeId;
+    private FieldRule tokenizeSsn;
+    private int iteration;
+
+    @Setup
+    public void setUp() {
+        MaskPlan.Builder options = MaskPlan.builder().tokenizer(new Tokenizer("benchmark"));
+        unique = new FieldRule("member_id", FieldRule.KIND.SENSITIVE, Mask.HINT.unique, Mask.TYPE.unsigned, null,
+                options);
+        random = new FieldRule("ssn", FieldRule.KIND.SENSITIVE, Mask.HINT.random, Mask.TYPE.unsigned, null, options);
+        randomDate = new FieldRule("date_of_birth", FieldRule.KIND.SENSITIVE, Mask.HINT.random, Mask.TYPE.date, null,
+                options);
+        tokenizeId = new FieldRule("member_id", FieldRule.KIND.SENSITIVE, Mask.HINT.tokenize, Mask.TYPE.unsigned,
+                null, options);
+        tokenizeSsn = new FieldRule("ssn", FieldRule.KIND.SENSITIVE, Mask.HINT.tokenize, Mask.TYPE.unsigned,
+                null, options);
+    }
+
+    @Benchmark
+    public Object uniqueMemberId() {
+        return unique.mask(100230 + (iteration & 1023), ++iteration);
+    }
+
+    @Benchmark
+    public Object randomSsn() {
+        return random.mask("555667777", ++iteration);
+    }
+
+    @Benchmark
+    public Object randomDateOfBirth() {
+        return randomDate.mask("1970-01-02", ++iteration);
+    }
+
+    @Benchmark
+    public Object formatMemberId() {
+        return Mask.FORMAT.NUM10LEAD0.format((Object) (100230 + (++iteration & 1023)));
+    }
+
+    @Benchmark
+    public Object tokenizeMemberId() {
+        return tokenizeId.mask(100230 + (iteration & 1023), ++iteration);
+    }
+
+    @Benchmark
+    public Object tokenizeSsn() {
+        return tokenizeSsn.mask("555667777", ++iteration);
+    }
+}
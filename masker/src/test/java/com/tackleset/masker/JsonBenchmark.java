@@ -0,0 +1,88 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonBenchmark measures reading and writing a generated dataset without masking it
+ *
+ * readList and writeList are the json input and output of the list engines, readStream is the record at a time
+ * parsing of the streaming engine.  The records are read into Jackson's maps or into compact records, which the
+ * engines use.  One operation covers all size records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"all"})
+    public String mix;
+
+    @Param({"map", "compact"})
+    public String record;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader recordReader;
+    private JavaType listType;
+    private List<Map<String, Object>> records;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper();
+        Class<?> recordType = "compact".equals(record) ? CompactRecord.class : Map.class;
+        recordReader = objectMapper.reader(recordType);
+        listType = objectMapper.getTypeFactory().constructCollectionType(List.class, recordType);
+        records = BenchmarkData.records(size, mix, 42);
+        json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(records);
+    }
+
+    @Benchmark
+    public List readList() throws IOException {
+        return objectMapper.readValue(json, listType);
+    }
+
+    @Benchmark
+    public byte[] writeList() throws IOException {
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(records);
+    }
+
+    @Benchmark
+    public int readStream(Blackhole blackhole) throws IOException {
+        int count = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                blackhole.consume(recordReader.readValue(parser));
+                count++;
+            }
+        }
+        return count;
+    }
+}
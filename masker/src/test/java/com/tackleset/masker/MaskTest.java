@@ -0,0 +1,1130 @@
+package com.tackleset.masker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit test for Mask
+ */
+public class MaskTest extends TestCase {
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * records without random hints so that the masked output is repeatable
+     */
+    static List<Map<String, Object>> records(int size) {
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("member_id", 100230 + (i % 4));
+            record.put("first_name", (i % 2 == 0) ? "Ann" : "Bob");
+            record.put("last_name", "Lee");
+            record.put("gender", "female");
+            record.put("ssn", "555667777");
+            record.put("address_1", "12 Elm St");
+            record.put("city", "Dover");
+            record.put("zip", "19901");
+            record.put("prescription_number", 1234567 + i);
+            record.put("drug_id", 42);
+            record.put("strength", "10mg");
+            record.put("total_cost", 12.5);
+            record.put("copay", "five");
+            record.put("notes", "refill");
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * testStreamMatchesList
+     *
+     * streaming one record at a time produces the same document as masking the whole list
+     */
+    public void testStreamMatchesList() throws IOException {
+        String json = objectMapper.writeValueAsString(records(25));
+        List<Map<String, Object>> recordList = objectMapper.readValue(json, List.class);
+        String expected = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(
+                Mask.anonymizeRecords(recordList));
+
+        StringWriter out = new StringWriter();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            int count = new StreamingMask(objectMapper).anonymizeStream(parser, generator, new MaskContext());
+            assertEquals(25, count);
+        }
+        assertEquals(expected, out.toString());
+    }
+
+    /**
+     * testStreamRejectsObject
+     *
+     * the top level value must be an array of records
+     */
+    public void testStreamRejectsObject() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser("{\"member_id\": 1}");
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(new StringWriter())) {
+            new StreamingMask(objectMapper).anonymizeStream(parser, generator, new MaskContext());
+            fail("Expected a parse exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Expected a json array"));
+        }
+    }
+
+    /**
+     * testCompactRecord
+     *
+     * a compact record holds the values, order and types Jackson puts in a map and masks to the same output
+     */
+    public void testCompactRecord() throws IOException {
+        String json = "{\"notes\": \"refill\", \"member_id\": 100230, \"prescription_number\": 12345678901," +
+                " \"total_cost\": 12.5, \"extra\": {\"a\": [1, 2]}, \"copay\": null, \"gender\": true," +
+                " \"drug_id\": 123456789012345678901234567890, \"member_id\": 100231}";
+        Map<String, Object> map = objectMapper.readValue(json, Map.class);
+        CompactRecord record = objectMapper.readValue(json, CompactRecord.class);
+        assertEquals(map, record);
+        assertEquals(map.toString(), record.toString());
+        assertEquals(new ArrayList<>(map.keySet()), new ArrayList<>(record.keySet()));
+        assertEquals(Integer.class, record.get("member_id").getClass());
+        assertEquals(Long.class, record.get("prescription_number").getClass());
+        assertEquals(Double.class, record.get("total_cost").getClass());
+        assertTrue(record.containsKey("copay"));
+        assertFalse(record.containsKey("ssn"));
+        assertEquals(objectMapper.writeValueAsString(map), objectMapper.writeValueAsString(record));
+
+        // removing schema, overflow and missing fields, directly and while iterating, works like the map
+        for (String key : Arrays.asList("total_cost", "extra", "ssn", "member_id")) {
+            assertEquals(map.remove(key), record.remove(key));
+            assertEquals(map, record);
+            assertEquals(map.toString(), record.toString());
+        }
+        record.keySet().removeIf("gender"::equals);
+        map.remove("gender");
+        assertEquals(map.toString(), record.toString());
+        record.put("total_cost", 1.5);
+        map.put("total_cost", 1.5);
+        assertEquals(objectMapper.writeValueAsString(map), objectMapper.writeValueAsString(record));
+
+        List<Map<String, Object>> records = records(10);
+        // a number of a non sensitive field leaking a sensitive value is caught without boxing
+        records.get(3).put("drug_id", 555667777);
+        String list = objectMapper.writeValueAsString(records);
+        List<Map<String, Object>> compact = objectMapper.readValue(list,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, CompactRecord.class));
+        assertEquals(records, compact);
+        String masked = objectMapper.writeValueAsString(Mask.anonymizeRecords(compact));
+        assertEquals(objectMapper.writeValueAsString(Mask.anonymizeRecords(objectMapper.readValue(list, List.class))),
+                masked);
+        assertTrue(masked.contains("\"drug_id\":\"SENSITIVE MATCHING VALUE\""));
+    }
+
+    /**
+     * testPipelineMatchesList
+     *
+     * the pipeline writes the records in input order with the values and leak checks of a serial run
+     */
+    public void testPipelineMatchesList() throws IOException {
+        String json = objectMapper.writeValueAsString(records(1000));
+        List<Map<String, Object>> recordList = objectMapper.readValue(json, List.class);
+        recordList.get(500).put("notes", recordList.get(20).get("ssn"));
+        recordList.get(20).put("notes", recordList.get(900).get("ssn"));
+        json = objectMapper.writeValueAsString(recordList);
+        MaskMetrics expectedMetrics = new MaskMetrics(false);
+        String expected = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(
+                Mask.anonymizeRecords(recordList, new MaskContext(expectedMetrics, 0, System.out)));
+
+        MaskMetrics metrics = new MaskMetrics(false);
+        PipelineMask pipeline = new PipelineMask(objectMapper, 4, 2, 7);
+        StringWriter out = new StringWriter();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            assertEquals(1000, pipeline.anonymizeStream(parser, generator, new MaskContext(metrics, 0, System.out)));
+        }
+        assertEquals(expected, out.toString());
+        assertEquals(expectedMetrics.getSensitiveMatches(), metrics.getSensitiveMatches());
+        assertEquals(143, pipeline.getBatches());
+        assertTrue(pipeline.getMaxMaskQueueDepth() <= 2);
+        assertTrue(pipeline.summary().startsWith("pipeline batches 143"));
+
+        try (JsonParser parser = objectMapper.getFactory().createParser("[{\"member_id\": 1}, 2]");
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(new StringWriter())) {
+            new PipelineMask(objectMapper, 2, 1, 1).anonymizeStream(parser, generator, new MaskContext());
+            fail("Expected a parse exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Expected a flat record object"));
+        }
+    }
+
+    /**
+     * testParallelMatchesSerial
+     *
+     * parallel masking keeps the input order and the serial iteration numbers
+     */
+    public void testParallelMatchesSerial() throws IOException {
+        List<Map<String, Object>> expected = Mask.anonymizeRecords(records(1000));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Map<String, Object>> masked = new ParallelMask(pool, 16).anonymizeRecords(records(1000));
+            assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(masked));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * testMetrics
+     *
+     * counts records, fields and the MISMATCH TYPE and SENSITIVE MATCHING VALUE outcomes
+     */
+    public void testMetrics() {
+        List<Map<String, Object>> records = records(10);
+        records.get(3).put("ssn", "999887777");
+        records.get(3).put("strength", "999887777");
+        MaskMetrics metrics = new MaskMetrics(true);
+        Mask.anonymizeRecords(records, new MaskContext(metrics, 0, System.out));
+
+        assertEquals(10, metrics.getRecords());
+        assertEquals(140, metrics.getFields());
+        assertEquals(10, metrics.getMismatchTypes());
+        assertEquals(1, metrics.getSensitiveMatches());
+        assertEquals("SENSITIVE MATCHING VALUE", records.get(3).get("strength"));
+        assertEquals(2, metrics.getHintTiming(Mask.HINT.const_ssn).getCount());
+        assertTrue(metrics.summary().contains("MISMATCH TYPE 10, SENSITIVE MATCHING VALUE 1"));
+
+        // per field timings are opt in
+        assertFalse(MaskOptions.parse(new String[] {"in.json"}).isTimings());
+        assertTrue(MaskOptions.parse(new String[] {"in.json", "--timings"}).isTimings());
+        MaskMetrics counters = new MaskMetrics(false);
+        Mask.anonymizeRecords(records(10), new MaskContext(counters, 0, System.out));
+        assertEquals(140, counters.getFields());
+        assertEquals(0, counters.getHintTiming(Mask.HINT.const_ssn).getCount());
+        assertFalse(counters.summary().contains("HINT"));
+    }
+
+    /**
+     * testUsage
+     *
+     * the usage prints one line for each option
+     */
+    public void testUsage() throws IllegalAccessException {
+        String usage = MaskOptions.usage();
+        int options = 0;
+        for (java.lang.reflect.Field field : MaskOptions.class.getDeclaredFields()) {
+            if (field.getType() == String.class && Modifier.isStatic(field.getModifiers())) {
+                String flag = (String) field.get(null);
+                assertTrue(flag, usage.contains("  " + flag));
+                options++;
+            }
+        }
+        assertEquals(options, usage.split("\n  --").length - 1);
+    }
+
+    /**
+     * records with sensitive values leaked into later and earlier records' non sensitive fields
+     */
+    static List<Map<String, Object>> leakingRecords() {
+        List<Map<String, Object>> records = records(6);
+        records.get(1).put("ssn", "111223333");
+        records.get(4).put("strength", "111223333");
+        records.get(2).put("member_id", 123456789);
+        records.get(4).put("prescription_number", 123456789);
+        records.get(5).put("ssn", "444556666");
+        records.get(0).put("strength", "444556666");
+        return records;
+    }
+
+    /**
+     * testCrossRecordLeak
+     *
+     * a sensitive value of an earlier record is caught in a later record, not the other way round
+     */
+    public void testCrossRecordLeak() throws IOException {
+        List<Map<String, Object>> records = leakingRecords();
+        MaskMetrics metrics = new MaskMetrics(false);
+        Mask.anonymizeRecords(records, new MaskContext(metrics, 0, System.out));
+
+        assertEquals("SENSITIVE MATCHING VALUE", records.get(4).get("strength"));
+        assertEquals("SENSITIVE MATCHING VALUE", records.get(4).get("prescription_number"));
+        assertEquals("444556666", records.get(0).get("strength"));
+        assertEquals(2, metrics.getSensitiveMatches());
+
+        // values too short to be a leak candidate are not indexed
+        HashLeakIndex index = new HashLeakIndex();
+        Mask.anonymizeRecords(records(3), MaskContext.builder().leakIndex(index).build());
+        assertEquals(2, index.size());
+        assertTrue(index.contains("555667777", 1));
+        assertFalse(index.contains("Dover", 1));
+
+        // a checkpoint holds digests of the values, not the values
+        KeyedDigest digest = KeyedDigest.derive("secret", "test");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes), digest);
+        assertFalse(new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1).contains("555667777"));
+        HashLeakIndex restored = new HashLeakIndex();
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), digest);
+        assertTrue(restored.contains("555667777", 1));
+        assertFalse(restored.contains("555667777", 0));
+        assertFalse(restored.contains("555667778", 1));
+    }
+
+    /**
+     * testParallelCrossRecordLeak
+     *
+     * parallel masking finds the same leaks as serial masking
+     */
+    public void testParallelCrossRecordLeak() throws IOException {
+        List<Map<String, Object>> expected = Mask.anonymizeRecords(leakingRecords());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Map<String, Object>> masked = new ParallelMask(pool, 1).anonymizeRecords(leakingRecords());
+            assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(masked));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * testBloomLeakIndex
+     *
+     * the bloom filter finds every added value and ignores the record number
+     */
+    public void testBloomLeakIndex() {
+        BloomLeakIndex index = new BloomLeakIndex(1000, BloomLeakIndex.DEFAULT_FALSE_POSITIVE_RATE);
+        for (int i = 0; i < 1000; i++) {
+            index.add(Integer.toString(100000000 + i), i + 1);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(index.contains(Integer.toString(100000000 + i), 1));
+            if (index.contains(Integer.toString(200000000 + i), 1)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50);
+    }
+
+    /**
+     * testPseudonymsAcrossRecords
+     *
+     * a value repeated in any later record gets the masked value of its first record
+     */
+    public void testPseudonymsAcrossRecords() {
+        List<Map<String, Object>> records = Mask.anonymizeRecords(records(8));
+        assertEquals("0000000001", records.get(0).get("member_id"));
+        assertEquals("0000000002", records.get(1).get("member_id"));
+        assertEquals("0000000001", records.get(4).get("member_id"));
+        assertEquals("0000000002", records.get(5).get("member_id"));
+        assertEquals(records.get(1).get("first_name"), records.get(7).get("first_name"));
+    }
+
+    /**
+     * testPseudonymSpill
+     *
+     * a table that spills most of its entries to disk masks like an in-memory table
+     */
+    public void testPseudonymSpill() throws IOException {
+        List<Map<String, Object>> expected = spillRecords();
+        Mask.anonymizeRecords(expected);
+
+        List<Map<String, Object>> masked = spillRecords();
+        File dir = Files.createTempDirectory("spill").toFile();
+        try {
+            try (PseudonymTable pseudonyms = new PseudonymTable(256, dir)) {
+                Mask.anonymizeRecords(masked, MaskContext.builder().pseudonyms(pseudonyms).build());
+                assertTrue(pseudonyms.getCached() <= 256);
+                assertTrue(pseudonyms.getSpilled() > 40000);
+                assertTrue(pseudonyms.getLoads() > 0);
+                // the spill files are private and hold digests, not the original fields and values
+                File[] files = dir.listFiles();
+                assertEquals(2, files.length);
+                for (File file : files) {
+                    assertEquals(PosixFilePermissions.fromString("rw-------"),
+                            Files.getPosixFilePermissions(file.toPath()));
+                    assertFalse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1)
+                            .contains("member_id"));
+                }
+            }
+            assertEquals(0, dir.list().length);
+        } finally {
+            dir.delete();
+        }
+        assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(masked));
+
+        // without a spill directory every pseudonym stays in memory
+        PseudonymTable pseudonyms = MaskOptions.parse(new String[] {"in.json", "--pseudonym-cache=256"}).pseudonyms();
+        Mask.anonymizeRecords(spillRecords(), MaskContext.builder().pseudonyms(pseudonyms).build());
+        assertEquals(0, pseudonyms.getSpilled());
+        assertTrue(pseudonyms.getCached() > 40000);
+    }
+
+    private static List<Map<String, Object>> spillRecords() {
+        List<Map<String, Object>> records = records(60000);
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).put("member_id", 200000 + (i % 50000));
+        }
+        return records;
+    }
+
+    /**
+     * testTokenize
+     *
+     * tokens keep the shape of the value, depend on the key and do not collide
+     */
+    public void testTokenize() {
+        Tokenizer tokenizer = new Tokenizer("secret");
+        String token = tokenizer.tokenize("555-66-7777 Ab");
+        assertTrue(token, token.matches("\\d{3}-\\d{2}-\\d{4} [A-Z][a-z]"));
+        assertFalse(token.equals("555-66-7777 Ab"));
+        assertEquals(token, new Tokenizer("secret").tokenize("555-66-7777 Ab"));
+        assertFalse(token.equals(new Tokenizer("other").tokenize("555-66-7777 Ab")));
+
+        Object number = tokenizer.tokenize((Object) 100230);
+        assertTrue(number instanceof Integer);
+        assertEquals(6, number.toString().length());
+        Set<Object> units = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            units.add(tokenizer.tokenize((Object) i));
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)), units);
+        assertTrue(((Integer) tokenizer.tokenize((Object) (-7))) < 0);
+
+        String longText = "Ann Lee lives at 12 Elm Street in Dover since 1970";
+        String longToken = tokenizer.tokenize(longText);
+        assertEquals(longText.length(), longToken.length());
+        assertFalse(longToken.endsWith("1970"));
+
+        Set<String> tokens = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            tokens.add(tokenizer.tokenize(String.format("%09d", i)));
+        }
+        assertEquals(10000, tokens.size());
+    }
+
+    /**
+     * testTokenizeHint
+     *
+     * the tokenize hint is selected per field on the command line and needs a key
+     */
+    public void testTokenizeHint() throws IOException {
+        MaskOptions options = MaskOptions.parse(
+                new String[] {"in.json", "--hint=ssn:tokenize", "--hint=member_id:tokenize", "--token-key=secret"});
+        List<Map<String, Object>> records = Mask.anonymizeRecords(records(4),
+                MaskContext.builder().plan(options.plan()).build());
+        String ssn = (String) records.get(0).get("ssn");
+        assertTrue(ssn.matches("\\d{9}"));
+        assertEquals(new Tokenizer("secret").tokenize("555667777"), ssn);
+        assertEquals(ssn, records.get(3).get("ssn"));
+        assertEquals(String.format("%010d", new Tokenizer("secret").tokenize((Object) 100230)),
+                records.get(0).get("member_id"));
+
+        // a member id held as text is tokenized as text, keeping its leading zeros, and padded like a number
+        Map<String, Object> record = new LinkedHashMap<>(records(1).get(0));
+        record.put("member_id", "00123");
+        Object member = Mask.anonymizeRecords(Collections.singletonList(record),
+                MaskContext.builder().plan(options.plan()).build()).get(0).get("member_id");
+        assertEquals("00000" + new Tokenizer("secret").tokenize("00123"), member);
+        assertEquals("ab12", Mask.FORMAT.NUM10LEAD0.format("ab12"));
+
+        try {
+            MaskOptions.parse(new String[] {"in.json", "--hint=ssn:tokenize", "--token-key="}).plan();
+            fail("Expected a missing key");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("token key"));
+        }
+    }
+
+    /**
+     * testDictionaries
+     *
+     * list and address hints take entry iteration % size of a memory-mapped dictionary file, every address column of
+     * a record from the row of its address_1
+     */
+    public void testDictionaries() throws IOException {
+        File names = File.createTempFile("names", ".tsv");
+        File addresses = File.createTempFile("addresses", ".tsv");
+        try {
+            StringBuilder text = new StringBuilder("first_name\n");
+            for (int i = 0; i < 1000; i++) {
+                text.append("Name").append(i).append('\n');
+            }
+            Files.write(names.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+            Files.write(addresses.toPath(), ("zip\tcity\taddress_1\taddress_2\tstate\r\n" +
+                    "11111\tZ\u00fcrich\t1 A St\t\tZH\r\n\r\n" +
+                    "22222\tOslo\t2 B St\tApt 2\tOS\r\n" +
+                    "33333\tLima\t3 C St\tApt 3\tLI").getBytes(StandardCharsets.UTF_8));
+            MaskOptions options = MaskOptions.parse(new String[] {"in.json", "--dictionary=first_names:" + names,
+                    "--dictionary=addresses:" + addresses});
+            List<Map<String, Object>> records = records(600);
+            for (int i = 0; i < records.size(); i++) {
+                records.get(i).put("first_name", "first" + i);
+                records.get(i).put("address_1", "street" + i);
+                records.get(i).put("city", "city" + i);
+            }
+            records.get(3).put("address_1", "street0");
+            records.get(4).put("city", "city1");
+            Mask.anonymizeRecords(records, MaskContext.builder().plan(options.plan()).build());
+            assertEquals("Name1", records.get(0).get("first_name"));
+            assertEquals("Name599", records.get(598).get("first_name"));
+            assertEquals("Oslo", records.get(0).get("city"));
+            assertEquals("Lima", records.get(1).get("city"));
+            assertEquals("Z\u00fcrich", records.get(2).get("city"));
+            for (int i : new int[] {0, 3}) {
+                assertEquals("2 B St", records.get(i).get("address_1"));
+                assertEquals("Oslo", records.get(i).get("city"));
+                assertEquals("22222", records.get(i).get("zip"));
+            }
+            assertEquals("3 C St", records.get(4).get("address_1"));
+            assertEquals("Lima", records.get(4).get("city"));
+            assertEquals("33333", records.get(4).get("zip"));
+
+            Files.write(addresses.toPath(), "zip\tcity\n11111\tOslo\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                options.plan();
+                fail("Expected a missing column");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("has no column address_1"));
+            }
+            Files.write(addresses.toPath(), "zip\tcity\n11111\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                options.plan();
+                fail("Expected a short line");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Line 2"));
+            }
+        } finally {
+            names.delete();
+            addresses.delete();
+        }
+    }
+
+    private static List<Map<String, Object>> randomRecords() {
+        List<Map<String, Object>> records = records(200);
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).put("date_of_birth", "1970-01-" + (10 + i % 20));
+            records.get(i).put("person_code", "0" + (i % 10));
+        }
+        return records;
+    }
+
+    /**
+     * testSeededRandom
+     *
+     * a seeded random hint gives the same valid values in serial and parallel runs, and other values for another seed
+     */
+    public void testSeededRandom() throws IOException {
+        MaskPlan plan = MaskOptions.parse(new String[] {"in.json", "--seed=42"}).plan();
+        List<Map<String, Object>> serial = Mask.anonymizeRecords(randomRecords(),
+                MaskContext.builder().plan(plan).build());
+        for (Map<String, Object> record : serial) {
+            String date = (String) record.get("date_of_birth");
+            assertTrue(date, date.matches("(19[1-9]\\d|200\\d)-(0[1-9]|1[0-2])-(0[1-9]|[12]\\d|3[01])"));
+            assertEquals(date, LocalDate.parse(date).toString());
+            assertTrue(((String) record.get("person_code")).matches("\\d{2}"));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Map<String, Object>> parallel = new ParallelMask(pool, 8).anonymizeRecords(randomRecords(),
+                    MaskContext.builder().plan(plan).build());
+            assertEquals(objectMapper.writeValueAsString(serial), objectMapper.writeValueAsString(parallel));
+        } finally {
+            pool.shutdown();
+        }
+
+        MaskPlan other = MaskOptions.parse(new String[] {"in.json", "--seed=43"}).plan();
+        List<Map<String, Object>> otherSeed = Mask.anonymizeRecords(randomRecords(),
+                MaskContext.builder().plan(other).build());
+        assertFalse(objectMapper.writeValueAsString(serial).equals(objectMapper.writeValueAsString(otherSeed)));
+    }
+
+    /**
+     * testDateShift
+     *
+     * date_shift moves every date of a member by the same offset, dates parse and render like java.time
+     */
+    public void testDateShift() throws IOException {
+        for (long day = LocalDate.of(1600, 1, 1).toEpochDay(); day < LocalDate.of(2400, 1, 1).toEpochDay(); day++) {
+            String date = LocalDate.ofEpochDay(day).toString();
+            assertEquals(day, DateShift.epochDay(date));
+            assertEquals(date, DateShift.format(day));
+        }
+        assertEquals(Long.MIN_VALUE, DateShift.epochDay("2001-02-29"));
+        assertEquals(Long.MIN_VALUE, DateShift.epochDay("2001-2-3"));
+
+        MaskPlan plan = MaskOptions.parse(new String[] {"in.json", "--seed=42", "--hint=date_of_birth:date_shift",
+                "--hint=fill_date:date_shift", "--date-shift-days=30"}).plan();
+        List<Map<String, Object>> records = records(8);
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).put("date_of_birth", "1950-03-0" + (1 + i % 4));
+            records.get(i).put("fill_date", (i == 0) ? "2020-02-28T10:15:00" : "2020-02-2" + i);
+        }
+        records.get(7).put("fill_date", "yesterday");
+        List<Map<String, Object>> masked = Mask.anonymizeRecords(records,
+                MaskContext.builder().plan(plan).build());
+        Set<Long> offsets = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            Map<String, Object> record = masked.get(i);
+            String fill = (String) record.get("fill_date");
+            long offset = DateShift.epochDay(fill) - LocalDate.of(2020, 2, (i == 0) ? 28 : 20 + i).toEpochDay();
+            assertEquals(offset, DateShift.epochDay((String) record.get("date_of_birth")) -
+                    LocalDate.of(1950, 3, 1 + i % 4).toEpochDay());
+            assertTrue(offset != 0 && Math.abs(offset) <= 30);
+            // the member of record i is also the member of record i + 4
+            if (i >= 4) {
+                assertEquals(masked.get(i - 4).get("date_of_birth"), record.get("date_of_birth"));
+            }
+            offsets.add(offset);
+        }
+        assertTrue(offsets.size() > 1);
+        assertTrue(((String) masked.get(0).get("fill_date")).endsWith("T10:15:00"));
+        assertEquals("MISMATCH TYPE", masked.get(7).get("fill_date"));
+
+        DateShift shift = new DateShift(new SeededRandomSource(42), "member_id", 30);
+        assertEquals(shift.offset(100230), shift.offset("100230"));
+        assertEquals(shift.offset(100230), shift.offset(100230L));
+    }
+
+    private static List<String> findings(String text) {
+        PiiScanner scanner = PiiScanner.get();
+        List<String> findings = new ArrayList<>();
+        for (int i = 0; i < scanner.scan(text); i++) {
+            findings.add(scanner.kind(i) + ":" + text.substring(scanner.start(i), scanner.end(i)));
+        }
+        return findings;
+    }
+
+    /**
+     * testPiiScanner
+     *
+     * one pass finds every kind of PII in text, and not the numbers that only look like it
+     */
+    public void testPiiScanner() {
+        assertEquals(Arrays.asList("ssn:555-12-3456", "phone:(555) 123-4567", "phone:555.123.4567"),
+                findings("SSN 555-12-3456, call (555) 123-4567 or 555.123.4567"));
+        assertEquals(Arrays.asList("email:john.doe+rx@example.com", "email:a@mail.19901.com"),
+                findings("mail john.doe+rx@example.com. or a@mail.19901.com"));
+        assertEquals(Arrays.asList("date:1950-03-01", "date:3/1/1950", "zip:19901-1234", "zip:19901"),
+                findings("born 1950-03-01 or 3/1/1950, zip 19901-1234 in 19901"));
+        assertEquals(Arrays.asList("phone:+1 555 123 4567", "phone:5551234567", "ssn:555667777", "zip:19901"),
+                findings("+1 555 123 4567 5551234567 555667777 555 19901"));
+        assertEquals(new ArrayList<String>(), findings("dose 12.5mg, 10mg, $19901.50, order 1234567, id abc19901," +
+                " 2001-02-29, 13/01/2020, 555-1234, x@localhost, 19901mg"));
+
+        PiiScanner scanner = PiiScanner.get();
+        assertEquals(PiiScanner.KIND.zip, scanner.classify("19901"));
+        assertEquals(PiiScanner.KIND.email, scanner.classify("ann@example.org"));
+        assertNull(scanner.classify("zip 19901"));
+        assertNull(scanner.classify("refill"));
+    }
+
+    /**
+     * testDetectPii
+     *
+     * PII in unknown fields and non sensitive text is masked by the hint of its kind, the rest of the text is kept
+     */
+    public void testDetectPii() throws IOException {
+        MaskPlan plan = MaskOptions.parse(new String[] {"in.json", "--detect-pii", "--seed=3",
+                "--pii-hint=phone:const_ssn"}).plan();
+        List<Map<String, Object>> records = records(2);
+        records.get(0).put("notes", "555-12-3456");
+        records.get(0).put("strength", "10mg, call 555-123-4567 or ssn 555-12-3456 zip 19901");
+        records.get(1).put("notes", "call 555-123-4567");
+        records.get(1).put("fill_date", "2020-02-03");
+        records.get(1).put("remark", "moved from 12 Elm St");
+        records.get(1).put("address", "12 Elm St");
+        MaskContext context = MaskContext.builder().plan(plan).build();
+        List<Map<String, Object>> masked = Mask.anonymizeRecords(records, context);
+        assertEquals(Mask.CONST_SSN, masked.get(0).get("notes"));
+        assertEquals("10mg, call 123121234 or ssn 123121234 zip 66753", masked.get(0).get("strength"));
+        assertEquals("call 123121234", masked.get(1).get("notes"));
+        assertEquals("moved from 12 Elm St", masked.get(1).get("remark"));
+        assertEquals("SENSITIVE MATCHING VALUE", masked.get(1).get("address"));
+        String fill = (String) masked.get(1).get("fill_date");
+        assertEquals(new DateShift(new SeededRandomSource(3), "member_id", 365).offset(100231),
+                DateShift.epochDay(fill) - LocalDate.of(2020, 2, 3).toEpochDay());
+        assertEquals(2, context.getMetrics().getPiiFindings(PiiScanner.KIND.ssn));
+        assertEquals(1, context.getMetrics().getPiiFindings(PiiScanner.KIND.date));
+        assertTrue(context.getMetrics().summary().contains("PII ssn 2, phone 2, email 0, date 1, zip 1"));
+
+        StringWriter csv = new StringWriter();
+        new CsvMask(16).anonymize(new StringReader("member_id,address_1,notes,strength\n" +
+                        "100230,12 Elm St,555-12-3456,call 555-123-4567\n100231,1 Oak Rd,12 Elm St,10mg\n"), csv,
+                MaskContext.builder().plan(plan).build());
+        String[] rows = csv.toString().split("\r?\n");
+        assertTrue(rows[1], rows[1].endsWith(",123121234,call 123121234"));
+        assertTrue(rows[2], rows[2].endsWith(",SENSITIVE MATCHING VALUE,10mg"));
+
+        // without the option unknown fields get the unique hint
+        List<Map<String, Object>> plain = Mask.anonymizeRecords(records(1));
+        assertEquals(1, plain.get(0).get("notes"));
+    }
+
+    /**
+     * testFormat
+     *
+     * zero padding renders like String.format
+     */
+    public void testFormat() {
+        char[] buffer = new char[Formats.BUFFER_SIZE];
+        long[] values = {0, 7, 42, 123456789, 12345678901L, -5, -1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            for (Mask.FORMAT format : Mask.FORMAT.values()) {
+                String expected = String.format("%0" + format.format(0L, buffer) + "d", value);
+                assertEquals(expected, new String(buffer, 0, format.format(value, buffer)));
+                assertEquals(expected, format.format((Object) value));
+            }
+        }
+        assertEquals("0000100230", Mask.FORMAT.NUM10LEAD0.format((Object) 100230));
+    }
+
+    /**
+     * testStreamFormatsOnWrite
+     *
+     * streaming writes formatted values of stateless hints like masking the whole list
+     */
+    public void testStreamFormatsOnWrite() throws IOException {
+        MaskPlan plan = MaskOptions.parse(new String[] {"in.json", "--hint=member_id:tokenize", "--token-key=k"}).plan();
+        String json = objectMapper.writeValueAsString(records(10));
+        List<Map<String, Object>> recordList = objectMapper.readValue(json, List.class);
+        String expected = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(
+                Mask.anonymizeRecords(recordList, MaskContext.builder().plan(plan).build()));
+
+        StringWriter out = new StringWriter();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            new StreamingMask(objectMapper).anonymizeStream(parser, generator, MaskContext.builder().plan(plan).build());
+        }
+        assertEquals(expected, out.toString());
+    }
+
+    /**
+     * testNdjsonMatchesList
+     *
+     * serial and chunked parallel NDJSON masking write the records of list masking one per line
+     */
+    public void testNdjsonMatchesList() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        for (Map<String, Object> record : Mask.anonymizeRecords(records(200))) {
+            expected.append(objectMapper.writeValueAsString(record)).append('\n');
+        }
+        File in = File.createTempFile("records", ".ndjson");
+        File out = File.createTempFile("records", ".masked.ndjson");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(in), StandardCharsets.UTF_8)) {
+            List<Map<String, Object>> records = records(200);
+            for (int i = 0; i < records.size(); i++) {
+                // blank lines and windows line breaks are allowed
+                writer.write(objectMapper.writeValueAsString(records.get(i)) + ((i % 7 == 0) ? "\r\n\n" : "\n"));
+            }
+            writer.close();
+
+            assertEquals(200, new NdjsonMask(objectMapper, null, 1000).anonymizeFile(in, out, new MaskContext()));
+            assertEquals(expected.toString(), new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8));
+
+            MaskMetrics metrics = new MaskMetrics(false);
+            assertEquals(200, new NdjsonMask(objectMapper, pool, 1000).anonymizeFile(in, out,
+                    new MaskContext(metrics, 0, System.out)));
+            assertEquals(expected.toString(), new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8));
+            assertEquals(in.length(), metrics.getBytes());
+        } finally {
+            pool.shutdown();
+            in.delete();
+            out.delete();
+        }
+    }
+
+    /**
+     * testNdjsonSplitsOnLines
+     *
+     * chunks end after a line break and cover the file
+     */
+    public void testNdjsonSplitsOnLines() throws IOException {
+        File in = File.createTempFile("records", ".ndjson");
+        try {
+            Files.write(in.toPath(), "{\"a\":1}\n{\"a\":22222}\n\n{\"a\":3}".getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(in.toPath())) {
+                List<NdjsonMask.Chunk> chunks = new NdjsonMask(objectMapper, null, 4).split(channel);
+                assertEquals(3, chunks.size());
+                assertEquals(8, chunks.get(0).getLength());
+                assertEquals(8, chunks.get(1).getStart());
+                assertEquals(in.length(), chunks.get(2).getStart() + chunks.get(2).getLength());
+            }
+            Files.write(in.toPath(), "{\"a\":1} {\"a\":2}\n".getBytes(StandardCharsets.UTF_8));
+            new NdjsonMask(objectMapper, null, 4).anonymizeFile(in, new File(in.getPath() + ".out"), new MaskContext());
+            fail("Expected a parse exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Expected one flat record per line at byte 0"));
+        } finally {
+            in.delete();
+            new File(in.getPath() + ".out").delete();
+        }
+    }
+
+    /**
+     * testOutputModes
+     *
+     * compact, ndjson, gzip and split output hold the records of the pretty printed output
+     */
+    public void testOutputModes() throws IOException {
+        List<Map<String, Object>> expected = Mask.anonymizeRecords(records(100));
+        File dir = Files.createTempDirectory("output").toFile();
+        File in = new File(dir, "records.json");
+        objectMapper.writeValue(in, records(100));
+        try {
+            MaskOutput compact = MaskOutput.builder().mode(MaskOutput.MODE.compact).gzip(1).bufferSize(512).build();
+            File out = new File(dir, "records.masked" + compact.extension());
+            assertEquals("records.masked.json.gz", out.getName());
+            new StreamingMask(objectMapper).anonymizeFile(in, out, new MaskContext(), compact);
+            try (InputStream gzip = new GZIPInputStream(new FileInputStream(out))) {
+                assertEquals(objectMapper.writeValueAsString(expected),
+                        new String(readAll(gzip), StandardCharsets.UTF_8));
+            }
+
+            MaskOutput split = MaskOutput.builder().mode(MaskOutput.MODE.ndjson).splitBytes(5000).build();
+            out = new File(dir, "records.masked" + split.extension());
+            new PipelineMask(objectMapper, 2, 2, 7).anonymizeFile(in, out, new MaskContext(), split);
+            assertFalse(out.exists());
+            StringBuilder lines = new StringBuilder();
+            for (Map<String, Object> record : expected) {
+                lines.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+            StringBuilder parts = new StringBuilder();
+            int count = 0;
+            for (File part = split.part(out, 0); part.exists(); part = split.part(out, ++count)) {
+                assertTrue(part.length() < 5000 + 1000);
+                parts.append(new String(Files.readAllBytes(part.toPath()), StandardCharsets.UTF_8));
+            }
+            assertTrue(count > 2);
+            assertEquals("records.masked-00001.ndjson", split.part(out, 1).getName());
+            assertEquals(lines.toString(), parts.toString());
+
+            MaskOutput pretty = MaskOutput.builder().splitBytes(5000).build();
+            out = new File(dir, "records.masked.json");
+            new StreamingMask(objectMapper).anonymizeFile(in, out, new MaskContext(), pretty);
+            List<Object> records = new ArrayList<>();
+            for (int i = 0; pretty.part(out, i).exists(); i++) {
+                records.addAll(objectMapper.readValue(pretty.part(out, i), List.class));
+            }
+            assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(records));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * testBatchMatchesConcatenation
+     *
+     * a batch masks its files like one input of the files in path order, with one pseudonym table and leak index
+     */
+    public void testBatchMatchesConcatenation() throws IOException {
+        List<Map<String, Object>> records = records(90);
+        // a later file leaks a sensitive value of an earlier one
+        records.get(70).put("strength", records.get(10).get("ssn") + "1234");
+        records.get(10).put("ssn", records.get(10).get("ssn") + "1234");
+        List<Map<String, Object>> expected = Mask.anonymizeRecords(
+                objectMapper.readValue(objectMapper.writeValueAsString(records), List.class));
+        File dir = Files.createTempDirectory("batch").toFile();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            List<File> in = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                File file = new File(dir, "drop-" + i + ".ndjson");
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                    for (Map<String, Object> record : records.subList(i * 30, i * 30 + 30)) {
+                        writer.write(objectMapper.writeValueAsString(record) + "\n");
+                    }
+                }
+                objectMapper.writeValue(new File(dir, "drop-" + i + ".json"), records.subList(i * 30, i * 30 + 30));
+            }
+            new File(dir, "drop-0.json.masked.json").createNewFile();
+
+            List<File> files = BatchMask.files(dir.getPath(), ".json");
+            assertEquals(3, files.size());
+            assertEquals(files, BatchMask.files(dir.getPath() + File.separator + "drop-*.json", ".ndjson"));
+            // an existing file is masked on its own even if its name reads as a glob
+            File bracketed = new File(dir, "claims[1].json");
+            assertTrue(bracketed.createNewFile());
+            assertFalse(BatchMask.isBatch(bracketed.getPath()));
+            assertTrue(BatchMask.isBatch(dir.getPath() + File.separator + "claims[1].json.gz"));
+            assertTrue(bracketed.delete());
+            List<File> out = new ArrayList<>();
+            for (File file : files) {
+                out.add(new File(file.getPath() + ".masked.json"));
+            }
+            BatchMask batch = new BatchMask(objectMapper, pool, false, NdjsonMask.DEFAULT_CHUNK_BYTES,
+                    MaskOutput.DEFAULT);
+            MaskMetrics metrics = new MaskMetrics(false);
+            assertEquals(90, batch.anonymizeFiles(files, out, new MaskContext(metrics, 0, System.out)));
+            List<Object> masked = new ArrayList<>();
+            for (File file : out) {
+                masked.addAll(objectMapper.readValue(file, List.class));
+            }
+            assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(masked));
+            assertEquals(1, metrics.getSensitiveMatches());
+            assertEquals(61, batch.getReports().get(2).getFirst());
+            assertTrue(batch.report().contains("batch 3 files, 90 records"));
+
+            files = BatchMask.files(dir.getPath(), ".ndjson");
+            out.clear();
+            for (File file : files) {
+                out.add(new File(file.getPath() + ".masked.ndjson"));
+            }
+            MaskOutput lines = MaskOutput.builder().mode(MaskOutput.MODE.ndjson).build();
+            new BatchMask(objectMapper, pool, true, 1000, lines).anonymizeFiles(files, out, new MaskContext());
+            StringBuilder expectedLines = new StringBuilder();
+            for (Map<String, Object> record : expected) {
+                expectedLines.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+            StringBuilder maskedLines = new StringBuilder();
+            for (File file : out) {
+                maskedLines.append(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            }
+            assertEquals(expectedLines.toString(), maskedLines.toString());
+        } finally {
+            pool.shutdown();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * testCheckpointResumes
+     *
+     * a checkpointed run resumes from its finished parts and saved state and writes the same bytes, also when records
+     * are appended to the input
+     */
+    public void testCheckpointResumes() throws IOException {
+        File in = File.createTempFile("records", ".ndjson");
+        File out = File.createTempFile("records", ".masked.ndjson");
+        File dir = Files.createTempDirectory("checkpoint").toFile();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StringBuilder input = new StringBuilder();
+            for (Map<String, Object> record : randomRecords()) {
+                input.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+            Files.write(in.toPath(), input.toString().getBytes(StandardCharsets.UTF_8));
+            MaskOptions options = MaskOptions.parse(new String[] {in.getPath(), "--ndjson", "--chunk-bytes=2000",
+                    "--checkpoint-dir=" + dir, "--pseudonym-cache=16", "--token-key=checkpoint secret",
+                    "--spill-dir=" + System.getProperty("java.io.tmpdir")});
+
+            Checkpoint checkpoint = checkpointedRun(options, null, in, out);
+            assertEquals(0, checkpoint.getReused());
+            assertFalse(new File(dir, "state").exists());
+            assertEquals(PosixFilePermissions.fromString("rw-------"),
+                    Files.getPosixFilePermissions(new File(dir, "manifest").toPath()));
+            byte[] expected = Files.readAllBytes(out.toPath());
+            int parts = dir.list((d, name) -> name.endsWith(".done")).length;
+            assertTrue(parts > 5);
+
+            // a crash before two parts were finished and a torn part
+            new File(dir, "part-2.done").delete();
+            new File(dir, "part-4").delete();
+            Files.write(new File(dir, "part-1").toPath(), "{}".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+            checkpoint = checkpointedRun(options, null, in, out);
+            assertEquals(parts - 3, checkpoint.getReused());
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(out.toPath())));
+
+            checkpoint = checkpointedRun(options, pool, in, out);
+            assertEquals(parts, checkpoint.getReused());
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(out.toPath())));
+
+            // a crash after the index pass keeps the private state for the next run
+            File blocked = Files.createTempDirectory("blocked").toFile();
+            try {
+                new File(dir, "part-3.done").delete();
+                checkpointedRun(options, null, in, blocked);
+                fail("Expected the output to be unwritable");
+            } catch (IOException e) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"),
+                        Files.getPosixFilePermissions(new File(dir, "state").toPath()));
+            } finally {
+                blocked.delete();
+            }
+            new File(dir, "part-3.done").delete();
+            checkpoint = checkpointedRun(options, pool, in, out);
+            assertEquals(parts - 1, checkpoint.getReused());
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(out.toPath())));
+            assertFalse(new File(dir, "state").exists());
+
+            // appended records only change the last chunk, the output is that of a run without a checkpoint
+            for (Map<String, Object> record : records(50)) {
+                input.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+            Files.write(in.toPath(), input.toString().getBytes(StandardCharsets.UTF_8));
+            checkpoint = checkpointedRun(options, pool, in, out);
+            assertEquals(parts - 1, checkpoint.getReused());
+            File fresh = File.createTempFile("records", ".fresh.ndjson");
+            try {
+                new NdjsonMask(objectMapper, null, 2000).anonymizeFile(in, fresh,
+                        MaskContext.builder().plan(options.plan(checkpoint.getSeed())).build());
+                assertTrue(Arrays.equals(Files.readAllBytes(fresh.toPath()), Files.readAllBytes(out.toPath())));
+            } finally {
+                fresh.delete();
+            }
+        } finally {
+            pool.shutdown();
+            in.delete();
+            out.delete();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * testCheckpointFingerprint
+     *
+     * the token key is never hashed with the options, a checkpoint with a key is fingerprinted by an HMAC keyed by it
+     */
+    public void testCheckpointFingerprint() {
+        byte[] fingerprint = Checkpoint.fingerprint("hints=x\n", "weak");
+        assertFalse(Arrays.equals(Checkpoint.sha256().digest("hints=x\n".getBytes(StandardCharsets.UTF_8)),
+                fingerprint));
+        assertFalse(Arrays.equals(Checkpoint.sha256().digest(
+                "hints=x\ntokenKey=weak\n".getBytes(StandardCharsets.UTF_8)), fingerprint));
+        assertTrue(Arrays.equals(fingerprint, Checkpoint.fingerprint("hints=x\n", "weak")));
+        assertFalse(Arrays.equals(fingerprint, Checkpoint.fingerprint("hints=x\n", "strong")));
+        assertTrue(Arrays.equals(Checkpoint.sha256().digest("hints=x\n".getBytes(StandardCharsets.UTF_8)),
+                Checkpoint.fingerprint("hints=x\n", null)));
+    }
+
+    private Checkpoint checkpointedRun(MaskOptions options, ForkJoinPool pool, File in, File out)
+            throws IOException {
+        Checkpoint checkpoint = options.checkpoint();
+        try (PseudonymTable pseudonyms = options.pseudonyms()) {
+            MaskContext context = MaskContext.builder().plan(options.plan(checkpoint.getSeed()))
+                    .pseudonyms(pseudonyms).build();
+            new NdjsonMask(objectMapper, pool, 2000).anonymizeFile(in, out, context, checkpoint);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * records with every value as text, like a CSV extract
+     */
+    private static List<Map<String, Object>> textRecords(int size) {
+        List<Map<String, Object>> records = records(size);
+        for (Map<String, Object> record : records) {
+            for (Map.Entry<String, Object> entry : record.entrySet()) {
+                entry.setValue(entry.getValue().toString());
+            }
+            record.put("strength", "10mg, \"daily\"");
+            record.put("ingredient_cost", "8.75");
+            record.put("dispensing_fee", "-1.25");
+        }
+        records.get(7).put("notes", records.get(2).get("ssn"));
+        records.get(9).put("drug_id", "555667777");
+        return records;
+    }
+
+    private static String csv(Object value) {
+        String text = value.toString();
+        return text.contains(",") ? "\"" + text.replace("\"", "\"\"") + "\"" : text;
+    }
+
+    /**
+     * testCsvMatchesList
+     *
+     * masking CSV columns in batches gives the values of masking the same records as maps
+     */
+    public void testCsvMatchesList() throws IOException {
+        List<Map<String, Object>> expectedRecords = Mask.anonymizeRecords(textRecords(50));
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        List<String> header = new ArrayList<>(expectedRecords.get(0).keySet());
+        input.append(String.join(",", header)).append("\r\n");
+        expected.append(String.join(",", header)).append('\n');
+        List<Map<String, Object>> records = textRecords(50);
+        for (int i = 0; i < records.size(); i++) {
+            List<String> row = new ArrayList<>();
+            List<String> expectedRow = new ArrayList<>();
+            for (String field : header) {
+                row.add(csv(records.get(i).get(field)));
+                expectedRow.add(csv(expectedRecords.get(i).get(field)));
+            }
+            input.append(String.join(",", row)).append("\r\n");
+            expected.append(String.join(",", expectedRow)).append('\n');
+        }
+
+        MaskMetrics metrics = new MaskMetrics(true);
+        StringWriter out = new StringWriter();
+        int count = new CsvMask(16).anonymize(new StringReader(input.toString()), out,
+                new MaskContext(metrics, 0, System.out));
+        assertEquals(50, count);
+        assertEquals(expected.toString(), out.toString());
+        assertEquals(1, metrics.getSensitiveMatches());
+        assertTrue(out.toString().contains(",\"10mg, \"\"daily\"\"\","));
+        // decimal money columns keep their values, only the copay "five" is not a decimal
+        assertTrue(out.toString().contains(",12.5,MISMATCH TYPE,"));
+        assertTrue(out.toString().contains(",8.75,-1.25\n"));
+        assertEquals(50, metrics.getMismatchTypes());
+    }
+
+    /**
+     * testCsvRejectsShortRow
+     *
+     * every row has one value per header field
+     */
+    public void testCsvRejectsShortRow() {
+        try {
+            new CsvMask(16).anonymize(new StringReader("member_id,ssn\n1,2\n3\n"), new StringWriter(),
+                    new MaskContext());
+            fail("Expected a short row");
+        } catch (IOException e) {
+            assertEquals("Record 2 has 1 values, the header has 2", e.getMessage());
+        }
+    }
+}
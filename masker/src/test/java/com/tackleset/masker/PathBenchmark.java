@@ -0,0 +1,188 @@
+package com.tackleset.masker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PathBenchmark measures every HINT, TYPE and FORMAT on its own, and the SENSITIVE MATCHING VALUE check
+ *
+ * Each hint masks the value of the first default field using it, tokenize masks an ssn and date_shift a
+ * date_of_birth of one of 1024 members.  Each type validates a
+ * value it accepts.  The leak check looks up values that were indexed and values that were not, half of each.  The
+ * PII scan reads about 4 KB of notes without PII or with some of every kind; chars per second are the score times the
+ * length of the text.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PathBenchmark {
+
+    @State(Scope.Thread)
+    public static class HintState {
+
+        @Param({"unique", "random", "const_ssn", "list_first_names", "list_last_names", "list_genders",
+                "address_address_1", "address_address_2", "address_city", "address_state", "address_zip",
+                "tokenize", "date_shift"})
+        public String hint;
+
+        FieldRule rule;
+        Object value;
+        int iteration;
+
+        Object member() {
+            return 100000 + (iteration & 1023);
+        }
+
+        @Setup
+        public void setUp() {
+            Mask.HINT maskHint = Mask.HINT.valueOf(hint);
+            String field = (maskHint == Mask.HINT.date_shift) ? "date_of_birth" : "ssn";
+            for (Map.Entry<String, Map<Class, String>> entry : Mask.SENSITIVES.entrySet()) {
+                if (hint.equals(entry.getValue().get(Mask.HINT.class))) {
+                    field = entry.getKey();
+                    break;
+                }
+            }
+            Mask.TYPE type = Mask.TYPE.valueOf(Mask.SENSITIVES.get(field).get(Mask.TYPE.class));
+            rule = new FieldRule(field, FieldRule.KIND.SENSITIVE, maskHint, type, null, MaskPlan.builder()
+                    .tokenizer(new Tokenizer("benchmark"))
+                    .dateShift(new DateShift(new SeededRandomSource(42), DateShift.DEFAULT_KEY,
+                            DateShift.DEFAULT_DAYS)));
+            value = BenchmarkData.records(1, "sensitive", 42).get(0).get(field);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TypeState {
+
+        @Param({"unsigned", "decimal", "alphanumeric", "text", "date"})
+        public String type;
+
+        Mask.TYPE maskType;
+        Object value;
+
+        @Setup
+        public void setUp() {
+            maskType = Mask.TYPE.valueOf(type);
+            switch (maskType) {
+                case unsigned:
+                    value = "1234567";
+                    break;
+                case decimal:
+                    value = 12.5;
+                    break;
+                case date:
+                    value = "1970-01-02";
+                    break;
+                default:
+                    value = "10mg tablet";
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FormatState {
+
+        @Param({"NUM10LEAD0", "PERSCODE"})
+        public String format;
+
+        Mask.FORMAT maskFormat;
+        final char[] buffer = new char[Formats.BUFFER_SIZE];
+        int iteration;
+
+        @Setup
+        public void setUp() {
+            maskFormat = Mask.FORMAT.valueOf(format);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LeakState {
+
+        @Param({"hash", "bloom"})
+        public String index;
+
+        LeakIndex leakIndex;
+        final String[] values = new String[1024];
+        int iteration;
+
+        @Setup
+        public void setUp() {
+            leakIndex = index.equals("bloom") ? new BloomLeakIndex(1 << 20, BloomLeakIndex.DEFAULT_FALSE_POSITIVE_RATE)
+                    : new HashLeakIndex();
+            for (int i = 0; i < 1 << 20; i++) {
+                leakIndex.add(Integer.toString(100000000 + 2 * i), 1);
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Integer.toString(100000000 + i * 1021);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScanState {
+
+        @Param({"plain", "pii"})
+        public String text;
+
+        String value;
+
+        @Setup
+        public void setUp() {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 4096) {
+                sb.append("Patient called about the 30 day refill of 10mg tablets, copay $12.50, pharmacy notes: ");
+                if (text.equals("pii")) {
+                    sb.append("callback (555) 123-4567 or jo.smith@example.com, SSN 555-12-3456, born 1950-03-01," +
+                            " ZIP 19901-1234. ");
+                }
+            }
+            value = sb.toString();
+        }
+    }
+
+    @Benchmark
+    public Object mask(HintState state) {
+        return state.rule.mask(state.value, ++state.iteration, true, state.member());
+    }
+
+    @Benchmark
+    public boolean validate(TypeState state) {
+        return state.maskType.validate(state.value);
+    }
+
+    @Benchmark
+    public Object format(FormatState state) {
+        return state.maskFormat.format((Object) (++state.iteration & 0xffff));
+    }
+
+    @Benchmark
+    public int formatToBuffer(FormatState state) {
+        return state.maskFormat.format(++state.iteration & 0xffff, state.buffer);
+    }
+
+    @Benchmark
+    public int scan(ScanState state) {
+        return PiiScanner.get().scan(state.value);
+    }
+
+    @Benchmark
+    public boolean sensitiveMatchingValue(LeakState state) {
+        String value = state.values[++state.iteration & (state.values.length - 1)];
+        return Mask.leakCandidate(value) != null && state.leakIndex.contains(value, 2);
+    }
+}
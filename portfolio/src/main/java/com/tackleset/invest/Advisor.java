@@ -4,6 +4,8 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import java.io.IOException;
+
 /**
  * Advisor starts Jetty embedded JAX-RS Web services
  *
@@ -11,11 +13,31 @@ import org.eclipse.jetty.servlet.ServletHolder;
 public class Advisor {
 
     public static void main(String[] args) throws Exception {
+        Server jettyServer = server(8080);
+        try {
+            jettyServer.start();
+            jettyServer.join();
+        } catch (Exception e) {
+            jettyServer.stop();
+            jettyServer.destroy();
+        }
+    }
+
+    /**
+     * server
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return the web services on an unstarted Jetty server
+     */
+    static Server server(int port) throws IOException {
+
+        // read portfolios.json before the first request and watch it for changes
+        PortfolioSource.getDefault();
 
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
 
-        Server jettyServer = new Server(8080);
+        Server jettyServer = new Server(port);
         jettyServer.setHandler(context);
 
         ServletHolder jerseyServlet = context.addServlet(
@@ -24,13 +46,6 @@ public class Advisor {
         jerseyServlet.setInitParameter(
                 "jersey.config.server.provider.classnames",
                 Portfolios.class.getCanonicalName());
-
-        try {
-            jettyServer.start();
-            jettyServer.join();
-        } catch (Exception e) {
-            jettyServer.stop();
-            jettyServer.destroy();
-        }
+        return jettyServer;
     }
 }
@@ -0,0 +1,205 @@
+package com.tackleset.invest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import javax.ws.rs.WebApplicationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * BatchAdjustments streams the adjustments of a batch of accounts as they are read
+ *
+ * The accounts are json objects, one per line or in one array, each with a riskLevel, the dollar amounts under the
+ * query parameters of getAdjustments, such as bondAmt, and an optional id echoed back.  They are parsed one at a time
+ * and handed to the pool in chunks of CHUNK_SIZE, and the chunks are written in input order as soon as each is done,
+ * one json line per account.  At most window chunks are read ahead of the one being written, so a batch of any size
+ * is never held in memory, and the whole batch is rebalanced against the PortfolioModel current when it starts.
+ *
+ * An account line holds its transactions, {"id":"a1","adjustments":[{"2":11.00},...]}, or the status that
+ * getAdjustments would answer, {"id":"a2","status":404}.  Once the response has started a malformed batch can only be
+ * reported by a last line, {"status":400,"error":"..."}, after the lines of the accounts before it.
+ */
+public class BatchAdjustments {
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+    public static final String ID = "id";
+    public static final String RISK_LEVEL = "riskLevel";
+    public static final int CHUNK_SIZE = 256;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // daemon workers, every instance shares them so no pool is left running when an instance is dropped
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final ForkJoinPool pool;
+    private final int window;
+
+    /**
+     * Rebalances on a pool of one thread per core shared by every instance
+     */
+    public BatchAdjustments() {
+        this(POOL);
+    }
+
+    /**
+     * @param pool rebalances the chunks, window is twice its parallelism, owned and shut down by the caller
+     */
+    public BatchAdjustments(ForkJoinPool pool) {
+        this.pool = pool;
+        this.window = 2 * pool.getParallelism();
+    }
+
+    /**
+     * write
+     *
+     * @param model risk levels and assets of the whole batch
+     * @param in    the accounts, read up to the end of the batch and not closed
+     * @param out   receives one json line per account, flushed after every chunk and not closed
+     * @return number of accounts written
+     * @throws IOException if the accounts cannot be read or the lines cannot be written
+     */
+    public long write(PortfolioModel model, InputStream in, OutputStream out) throws IOException {
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>(window + 1);
+        long count = 0;
+        try {
+            String error = null;
+            Chunk chunk = new Chunk(model);
+            try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+                parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new JsonParseException("Expected an account object", parser.getCurrentLocation());
+                    }
+                    chunk.read(parser);
+                    count++;
+                    if (chunk.size == CHUNK_SIZE) {
+                        submit(pending, chunk, out);
+                        chunk = new Chunk(model);
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (JsonProcessingException e) {
+                error = e.getOriginalMessage();
+            }
+            if (chunk.size > 0) {
+                submit(pending, chunk, out);
+            }
+            while (!pending.isEmpty()) {
+                writeNext(pending, out);
+            }
+            if (error != null) {
+                StringBuilder json = new StringBuilder("{\"status\":400,\"error\":\"");
+                json.append(JsonStringEncoder.getInstance().quoteAsString(error)).append("\"}\n");
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            return count;
+        } finally {
+            for (ForkJoinTask<byte[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void submit(ArrayDeque<ForkJoinTask<byte[]>> pending, Chunk chunk, OutputStream out) throws IOException {
+        pending.add(pool.submit(chunk::rebalance));
+        if (pending.size() > window) {
+            writeNext(pending, out);
+        }
+    }
+
+    private static void writeNext(ArrayDeque<ForkJoinTask<byte[]>> pending, OutputStream out) throws IOException {
+        try {
+            out.write(pending.peek().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch failed", e.getCause());
+        }
+        pending.poll();
+        out.flush();
+    }
+
+    /**
+     * Up to CHUNK_SIZE accounts as read, rebalanced together on one thread of the pool
+     */
+    private static final class Chunk {
+
+        private final PortfolioModel model;
+        private final String[] ids = new String[CHUNK_SIZE];
+        private final boolean[] quoted = new boolean[CHUNK_SIZE];
+        private final int[] levels = new int[CHUNK_SIZE];
+        private final String[][] amounts = new String[CHUNK_SIZE][];
+        private int size;
+
+        private Chunk(PortfolioModel model) {
+            this.model = model;
+        }
+
+        /**
+         * Reads the fields of the account object whose START_OBJECT the parser is on, skipping unknown fields
+         */
+        private void read(JsonParser parser) throws IOException {
+            String[] values = new String[model.getAssetCount()];
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!value.isScalarValue()) {
+                    parser.skipChildren();
+                } else if (ID.equals(name)) {
+                    ids[size] = parser.getText();
+                    quoted[size] = value == JsonToken.VALUE_STRING;
+                } else if (RISK_LEVEL.equals(name)) {
+                    levels[size] = (value == JsonToken.VALUE_NUMBER_INT &&
+                            parser.getNumberType() == JsonParser.NumberType.INT) ? parser.getIntValue() : 0;
+                } else {
+                    int asset = model.indexOfParam(name);
+                    if (asset >= 0) {
+                        values[asset] = (value == JsonToken.VALUE_NULL) ? null : parser.getText();
+                    }
+                }
+            }
+            amounts[size++] = values;
+        }
+
+        private byte[] rebalance() {
+            StringBuilder json = new StringBuilder(size * 128);
+            for (int i = 0; i < size; i++) {
+                json.append('{');
+                if (ids[i] != null) {
+                    json.append("\"" + ID + "\":");
+                    if (quoted[i]) {
+                        json.append('"').append(JsonStringEncoder.getInstance().quoteAsString(ids[i])).append("\",");
+                    } else {
+                        json.append(ids[i]).append(',');
+                    }
+                }
+                try {
+                    Rebalancer rebalancer = Portfolios.rebalance(model, levels[i], amounts[i]);
+                    json.append("\"adjustments\":");
+                    rebalancer.appendJson(json);
+                } catch (WebApplicationException e) {
+                    json.append("\"status\":").append(e.getResponse().getStatus());
+                }
+                json.append("}\n");
+            }
+            return json.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.tackleset.invest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+import javax.ws.rs.core.EntityTag;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PortfolioModel holds the risk level portfolios of portfolios.json, read once and never changed
+ *
+ * Levels are numbered from 1 and indexed by level - 1.  The assets are listed in the assets array of the file, each
+ * with the field holding its percentage and the query parameter of its dollar amount, or else are the fields of the
+ * first level after "level" in file order.  Asset 0 is bonds_pct and asset 4 is small_cap_pct in the shipped file.
+ * Every level has a percentage for every asset and the percentages of a level add up to 100.  The json response of
+ * each level is rendered once when the file is read, with a strong entity tag derived from its bytes, so the same file
+ * gives the same tags on every server and after every reload.
+ */
+public final class PortfolioModel {
+
+    public static final String LEVEL = "level";
+    public static final String RISK_LEVELS = "risk_levels";
+    public static final String ASSETS = "assets";
+    public static final String FIELD = "field";
+    public static final String PARAM = "param";
+    private static final String PERCENT = "_pct";
+
+    private final String[] assets;
+    private final String[] params;
+    private final Map<String, Integer> paramIndex = new HashMap<>();
+    private final int[][] percents;
+    private final List<Map<String, Object>> portfolios;
+    private final byte[][] json;
+    private final EntityTag[] tags;
+
+    private PortfolioModel(String[] assets, String[] params, int[][] percents, List<Map<String, Object>> portfolios,
+                           byte[][] json, EntityTag[] tags) {
+        this.assets = assets;
+        this.params = params;
+        for (int i = 0; i < params.length; i++) {
+            paramIndex.put(params[i], i);
+        }
+        this.percents = percents;
+        this.portfolios = portfolios;
+        this.json = json;
+        this.tags = tags;
+    }
+
+    /**
+     * read
+     *
+     * @param objectMapper parses the json
+     * @param in           portfolios.json, an object whose risk_levels array holds one object per level
+     * @return the model of the file
+     * @throws IOException if the file is not valid json or a level is missing, misnumbered or does not add up to 100
+     */
+    public static PortfolioModel read(ObjectMapper objectMapper, InputStream in) throws IOException {
+        JsonNode root = objectMapper.readTree(in);
+        JsonNode levels = root.path(RISK_LEVELS);
+        if (!levels.isArray() || levels.size() == 0) {
+            throw new IOException("No " + RISK_LEVELS + " in portfolios");
+        }
+        List<String> names = new ArrayList<>();
+        List<String> params = new ArrayList<>();
+        JsonNode declared = root.path(ASSETS);
+        if (declared.isArray()) {
+            for (JsonNode asset : declared) {
+                String name = asset.path(FIELD).asText();
+                names.add(name);
+                params.add(asset.hasNonNull(PARAM) ? asset.get(PARAM).asText() : param(name));
+            }
+        } else {
+            Iterator<String> fields = levels.get(0).fieldNames();
+            while (fields.hasNext()) {
+                String name = fields.next();
+                if (!LEVEL.equals(name)) {
+                    names.add(name);
+                    params.add(param(name));
+                }
+            }
+        }
+        if (names.isEmpty() || new HashSet<>(names).size() != names.size() ||
+                new HashSet<>(params).size() != params.size()) {
+            throw new IOException("Assets " + names + " with amounts " + params + " are empty or repeated");
+        }
+        String[] assets = names.toArray(new String[names.size()]);
+        int[][] percents = new int[levels.size()][assets.length];
+        List<Map<String, Object>> portfolios = new ArrayList<>(levels.size());
+        byte[][] json = new byte[levels.size()][];
+        EntityTag[] tags = new EntityTag[levels.size()];
+        for (int i = 0; i < levels.size(); i++) {
+            JsonNode level = levels.get(i);
+            if (level.path(LEVEL).asInt() != i + 1 || level.size() != assets.length + 1) {
+                throw new IOException(String.format("Risk level %d is not level %d of %d assets", i + 1,
+                        level.path(LEVEL).asInt(), assets.length));
+            }
+            Map<String, Object> portfolio = new LinkedHashMap<>();
+            portfolio.put(LEVEL, i + 1);
+            int sum = 0;
+            for (int j = 0; j < assets.length; j++) {
+                JsonNode percent = level.get(assets[j]);
+                if (percent == null || !percent.canConvertToInt() || percent.asInt() < 0) {
+                    throw new IOException(String.format("Risk level %d has no %s percentage", i + 1, assets[j]));
+                }
+                percents[i][j] = percent.asInt();
+                portfolio.put(assets[j], percents[i][j]);
+                sum += percents[i][j];
+            }
+            if (sum != 100) {
+                throw new IOException(String.format("Risk level %d adds up to %d percent", i + 1, sum));
+            }
+            portfolios.add(Collections.unmodifiableMap(portfolio));
+            byte[] bytes = objectMapper.writeValueAsBytes(portfolio);
+            json[i] = Arrays.copyOf(bytes, bytes.length + 1);
+            json[i][bytes.length] = '\n';
+            tags[i] = new EntityTag(Hashing.sha256().hashBytes(json[i]).toString().substring(0, 32));
+        }
+        return new PortfolioModel(assets, params.toArray(new String[params.size()]), percents,
+                Collections.unmodifiableList(portfolios), json, tags);
+    }
+
+    /**
+     * param
+     *
+     * @param asset field name of an asset, such as large_cap_pct
+     * @return the query parameter of its amount when portfolios.json does not name one, such as largeCapAmt
+     */
+    static String param(String asset) {
+        String name = asset.endsWith(PERCENT) ? asset.substring(0, asset.length() - PERCENT.length()) : asset;
+        StringBuilder param = new StringBuilder(name.length() + 3);
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_') {
+                upper = param.length() > 0;
+            } else {
+                param.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return param.append("Amt").toString();
+    }
+
+    /**
+     * @return number of risk levels, the highest level
+     */
+    public int size() {
+        return percents.length;
+    }
+
+    public int getAssetCount() {
+        return assets.length;
+    }
+
+    /**
+     * @return field name of the asset, such as bonds_pct
+     */
+    public String getAsset(int asset) {
+        return assets[asset];
+    }
+
+    /**
+     * @return query parameter of the dollar amount of the asset, such as bondAmt
+     */
+    public String getParam(int asset) {
+        return params[asset];
+    }
+
+    /**
+     * @param param query parameter of a dollar amount
+     * @return index of the asset whose amount the parameter holds, -1 if none
+     */
+    public int indexOfParam(String param) {
+        Integer asset = paramIndex.get(param);
+        return (asset != null) ? asset : -1;
+    }
+
+    /**
+     * getPercent
+     *
+     * @param level risk level from 1 to size()
+     * @param asset asset index from 0 to getAssetCount() - 1
+     * @return target percentage of the asset at the level
+     */
+    public int getPercent(int level, int asset) {
+        return percents[level - 1][asset];
+    }
+
+    /**
+     * getPercents
+     *
+     * @param level risk level from 1 to size()
+     * @return target percentage of every asset at the level, shared by every caller and not to be changed
+     */
+    public int[] getPercents(int level) {
+        return percents[level - 1];
+    }
+
+    /**
+     * getPortfolio
+     *
+     * @param level risk level from 1 to size()
+     * @return the level and its percentages by field name, in file order
+     */
+    public Map<String, Object> getPortfolio(int level) {
+        return portfolios.get(level - 1);
+    }
+
+    /**
+     * getPortfolioJson
+     *
+     * @param level risk level from 1 to size()
+     * @return the portfolio as a json object and a line break in UTF-8, shared by every caller and not to be changed
+     */
+    public byte[] getPortfolioJson(int level) {
+        return json[level - 1];
+    }
+
+    /**
+     * @param level risk level from 1 to size()
+     * @return strong entity tag of getPortfolioJson(level)
+     */
+    public EntityTag getPortfolioTag(int level) {
+        return tags[level - 1];
+    }
+}
@@ -0,0 +1,171 @@
+package com.tackleset.invest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PortfolioSource loads the PortfolioModel once and swaps in a new model when portfolios.json changes
+ *
+ * The file is the one named by the portfolios.file system property, or portfolios.json on the classpath.  If it is a
+ * file on disk a daemon thread watches its directory and reloads it when it is written, created or renamed into
+ * place.  Requests read the current model once and keep using it, so a reload never mixes two versions of the file.
+ * A file that does not load, such as one read while it is half written, leaves the current model in place.
+ */
+public class PortfolioSource implements Closeable {
+
+    public static final String FILE_PROPERTY = "portfolios.file";
+    public static final String RESOURCE = "portfolios.json";
+
+    private static PortfolioSource defaultSource;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicReference<PortfolioModel> model = new AtomicReference<>();
+    private final File file;
+    private volatile WatchService watchService;
+
+    /**
+     * @param file portfolios.json on disk, null to read the classpath resource
+     * @throws IOException if the file does not load
+     */
+    public PortfolioSource(File file) throws IOException {
+        this.file = file;
+        reload();
+    }
+
+    /**
+     * getDefault
+     *
+     * @return the source shared by every request, loaded on first use and watched if it is a file on disk
+     * @throws IOException if portfolios.json does not load
+     */
+    public static synchronized PortfolioSource getDefault() throws IOException {
+        if (defaultSource == null) {
+            PortfolioSource source = new PortfolioSource(defaultFile());
+            source.watch();
+            defaultSource = source;
+        }
+        return defaultSource;
+    }
+
+    private static File defaultFile() {
+        String property = System.getProperty(FILE_PROPERTY);
+        if (property != null) {
+            return new File(property);
+        }
+        URL url = Thread.currentThread().getContextClassLoader().getResource(RESOURCE);
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException e) {
+                // read the resource without watching it
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the current model
+     */
+    public PortfolioModel get() {
+        return model.get();
+    }
+
+    /**
+     * @return the watched file, null if the model is read from the classpath
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * reload
+     *
+     * Reads the file again and swaps in its model
+     *
+     * @return the new model
+     * @throws IOException if the file does not load, the current model is kept
+     */
+    public PortfolioModel reload() throws IOException {
+        try (InputStream in = (file != null) ? new FileInputStream(file)
+                : Thread.currentThread().getContextClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IOException("No " + RESOURCE + " on the classpath");
+            }
+            PortfolioModel loaded = PortfolioModel.read(objectMapper, in);
+            model.set(loaded);
+            return loaded;
+        }
+    }
+
+    /**
+     * watch
+     *
+     * Starts a daemon thread reloading the file whenever its directory reports a change to it, does nothing for
+     * the classpath resource or if the source is already watched
+     */
+    public synchronized void watch() throws IOException {
+        if (file == null || watchService != null) {
+            return;
+        }
+        Path path = file.getAbsoluteFile().toPath();
+        Path dir = path.getParent();
+        Path name = path.getFileName();
+        WatchService service = FileSystems.getDefault().newWatchService();
+        dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= (event.kind() == StandardWatchEventKinds.OVERFLOW) || name.equals(event.context());
+                    }
+                    if (changed) {
+                        try {
+                            reload();
+                        } catch (IOException e) {
+                            // keep serving the current model until the next change
+                            System.err.println("Portfolios not reloaded from " + file + ": " + e.getMessage());
+                        }
+                    }
+                    if (!key.reset()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // closed
+            }
+        }, "portfolios-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * close
+     *
+     * Stops watching the file, the current model stays readable
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+}
@@ -1,45 +1,67 @@
 package com.tackleset.invest;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.inject.Singleton;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.*;
+import java.io.InputStream;
 
 /**
  * Portfolios REST services
  *
+ * One instance serves every request, the risk levels come from the PortfolioModel current when a request starts
  */
+@Singleton
 @Path("/invest")
 public class Portfolios {
 
     public static final int MAX_LENGTH = 20;
     public static final String DEFAULT_ZERO_STR = "0";
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final List<Object> portfolios;
+    // seconds a client may reuse a portfolio before asking again, a reload shows after at most this long
+    public static final int MAX_AGE = 60;
+    private final PortfolioSource source;
+    private final CacheControl cacheControl = new CacheControl();
+    private final BatchAdjustments batch = new BatchAdjustments();
 
 
     public Portfolios() {
+        cacheControl.setMaxAge(MAX_AGE);
         try {
-            Map<String, Object> riskMap = objectMapper.readValue(
-                    Thread.currentThread().getContextClassLoader().getResourceAsStream("portfolios.json"), Map.class);
-            portfolios = (List<Object>) riskMap.get("risk_levels");
+            source = PortfolioSource.getDefault();
         } catch (IOException e) {
             e.printStackTrace();
             throw new NotFoundException();
         }
     }
 
+    /**
+     * @param source risk level portfolios, read once per request
+     */
+    public Portfolios(PortfolioSource source) {
+        this.source = source;
+        cacheControl.setMaxAge(MAX_AGE);
+    }
+
     /**
      * getRiskLevelPortfolio
      *
      * Gets a recommended portfolio based on the risk level
      *
-     * @param level risk level where 1 is low risk and numbers above are higher risk
+     * The json of every level is rendered when portfolios.json is loaded and written as is, with its entity tag and
+     * a max age, and a request whose If-None-Match holds the tag is answered 304 Not Modified without a body
+     *
+     * @param level   risk level where 1 is low risk and numbers above are higher risk
+     * @param request preconditions of the request, null to always get the portfolio
      * @return one portfolio map entry containing investment assets in percentage terms (adding to 100) in json format
      *
      * Throws NotFoundException if risk is invalid or otherwise not found
@@ -47,11 +69,17 @@ public class Portfolios {
     @GET
     @Path("portfolios")
     @Produces(MediaType.APPLICATION_JSON)
-    public String getRiskLevelPortfolio(@QueryParam("riskLevel") int level) throws IOException {
-        if (level < 1 || level > portfolios.size()) {
+    public Response getRiskLevelPortfolio(@QueryParam("riskLevel") int level, @Context Request request) {
+        PortfolioModel model = source.get();
+        if (level < 1 || level > model.size()) {
             throw new NotFoundException();
         }
-        return objectMapper.writeValueAsString(portfolios.get(level - 1)) + "\n";
+        EntityTag tag = model.getPortfolioTag(level);
+        Response.ResponseBuilder notModified = (request != null) ? request.evaluatePreconditions(tag) : null;
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+        return Response.ok(model.getPortfolioJson(level)).tag(tag).cacheControl(cacheControl).build();
     }
 
     /**
@@ -63,163 +91,97 @@ public class Portfolios {
      * Assumes if the total amount is less than a dollar then the transactional cost is not worth dividing amounts and
      * returns NotFoundException
      *
-     * @param level           risk level where 1 is low risk and numbers above are higher risk
-     * @param bondAmtStr      bond dollar amount
-     * @param largeCapAmtStr  large cap dollar amount
-     * @param midCapAmtStr    mid cap dollar amount
-     * @param foreignAmtStr   foreign dollar amount
-     * @param smallCapAmtStr  small cap dollar amount
+     * The amount of every asset of portfolios.json is read from its query parameter, bondAmt, largeCapAmt, midCapAmt,
+     * foreignAmt and smallCapAmt for the shipped assets
+     *
+     * @param level   risk level where 1 is low risk and numbers above are higher risk
+     * @param uriInfo query parameters holding the dollar amounts
      * @return  List of transactions to balance portfolio to risk level
      */
     @GET
     @Path("adjustments")
     @Produces(MediaType.APPLICATION_JSON)
-    public String getAdjustments(@QueryParam("riskLevel") int level,
-                                 @QueryParam("bondAmt") String bondAmtStr,
-                                 @QueryParam("largeCapAmt") String largeCapAmtStr,
-                                 @QueryParam("midCapAmt") String midCapAmtStr,
-                                 @QueryParam("foreignAmt") String foreignAmtStr,
-                                 @QueryParam("smallCapAmt") String smallCapAmtStr) {
-        if (level < 1 || level > portfolios.size()) {
-            throw new NotFoundException();
-        }
-        bondAmtStr = StringUtils.defaultIfBlank(bondAmtStr, DEFAULT_ZERO_STR);
-        largeCapAmtStr = StringUtils.defaultIfBlank(largeCapAmtStr, DEFAULT_ZERO_STR);
-        midCapAmtStr = StringUtils.defaultIfBlank(midCapAmtStr, DEFAULT_ZERO_STR);
-        foreignAmtStr = StringUtils.defaultIfBlank(foreignAmtStr, DEFAULT_ZERO_STR);
-        smallCapAmtStr = StringUtils.defaultIfBlank(smallCapAmtStr, DEFAULT_ZERO_STR);
-
-        Map<String, Integer> portfolio = (Map<String, Integer>) portfolios.get(level - 1);
-        try {
-            if (bondAmtStr.length() > MAX_LENGTH || largeCapAmtStr.length() > MAX_LENGTH || midCapAmtStr.length() > MAX_LENGTH ||
-                    foreignAmtStr.length() > MAX_LENGTH || smallCapAmtStr.length() > MAX_LENGTH) {
-                throw new BadRequestException(String.format("Dollar amount(s) exceeds length %d", MAX_LENGTH));
-            }
-            double bondAmt = Double.valueOf(bondAmtStr);
-            double largeCapAmt = Double.valueOf(largeCapAmtStr);
-            double midCapAmt = Double.valueOf(midCapAmtStr);
-            double foreignAmt = Double.valueOf(foreignAmtStr);
-            double smallCapAmt = Double.valueOf(smallCapAmtStr);
-            BigDecimal bdBondAmt = BigDecimal.valueOf(bondAmt);
-            BigDecimal bdLargeCapAmt = BigDecimal.valueOf(largeCapAmt);
-            BigDecimal bdMidCapAmt = BigDecimal.valueOf(midCapAmt);
-            BigDecimal bdForeignAmt = BigDecimal.valueOf(foreignAmt);
-            BigDecimal bdSmallCapAmt = BigDecimal.valueOf(smallCapAmt);
-            BigDecimal totalAmount = BigDecimal.ZERO.add(bdBondAmt)
-                    .add(bdLargeCapAmt)
-                    .add(bdMidCapAmt)
-                    .add(bdForeignAmt)
-                    .add(bdSmallCapAmt).setScale(2, RoundingMode.HALF_UP);
-            if (totalAmount.doubleValue() >= 1) {
-                Map<Integer, BigDecimal> deltas = new LinkedHashMap<>();
-                BigDecimal bondAdj = BigDecimal.valueOf(portfolio.get("bonds_pct")).multiply(totalAmount)
-                        .divide(BigDecimal.valueOf(100)).subtract(bdBondAmt).setScale(2, RoundingMode.HALF_UP);
-                deltas.put(0, bondAdj);
-                BigDecimal bigCapAdj = BigDecimal.valueOf(portfolio.get("large_cap_pct")).multiply(totalAmount)
-                        .divide(BigDecimal.valueOf(100)).subtract(bdLargeCapAmt).setScale(2, RoundingMode.HALF_UP);
-                deltas.put(1, bigCapAdj);
-                BigDecimal midCapAdj = BigDecimal.valueOf(portfolio.get("mid_cap_pct")).multiply(totalAmount)
-                        .divide(BigDecimal.valueOf(100)).subtract(bdMidCapAmt).setScale(2, RoundingMode.HALF_UP);
-                deltas.put(2, midCapAdj);
-                BigDecimal foreignCapAdj = BigDecimal.valueOf(portfolio.get("foreign_pct")).multiply(totalAmount)
-                        .divide(BigDecimal.valueOf(100)).subtract(bdForeignAmt).setScale(2, RoundingMode.HALF_UP);
-                deltas.put(3, foreignCapAdj);
-                BigDecimal smallCapAdj = totalAmount.subtract(bdBondAmt).subtract(bondAdj)
-                        .subtract(bdLargeCapAmt).subtract(bigCapAdj).subtract(bdMidCapAmt)
-                        .subtract(midCapAdj).subtract(bdForeignAmt).subtract(foreignCapAdj)
-                        .subtract(bdSmallCapAmt).setScale(2, RoundingMode.HALF_UP);
-                deltas.put(4, smallCapAdj);
-
-                List<Map<Integer, BigDecimal>> transactions = getCancellingOutTransactions(deltas);
-                // remove the cancelling out transactions from the delta list
-                for (Map<Integer, BigDecimal> mapI : transactions) {
-                    for (Integer Int : mapI.keySet()) {
-                        deltas.remove(Int.intValue());
-                    }
-                }
-                offsetMaxMinPortfolioDeltas(deltas, transactions);
-                return objectMapper.writeValueAsString(transactions) + "\n";
-            } else {
-                throw new NotFoundException();
-            }
-        } catch (NumberFormatException nfe) {
-            throw new BadRequestException();
-        } catch (WebApplicationException wae) {
-            throw wae;
-        } catch (Throwable t) {
-            throw new BadRequestException();
+    public String getAdjustments(@QueryParam("riskLevel") int level, @Context UriInfo uriInfo) {
+        PortfolioModel model = source.get();
+        MultivaluedMap<String, String> query = uriInfo.getQueryParameters();
+        String[] amounts = new String[model.getAssetCount()];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = query.getFirst(model.getParam(i));
         }
+        return getAdjustments(model, level, amounts);
     }
 
     /**
-     * offsetMaxMinPortfolioDeltas
+     * getBatchAdjustments
      *
+     * Streams the adjustments of a batch of accounts, one json line per account in the order they are posted, while
+     * the batch is still being read, see BatchAdjustments.  A client must read the response as it sends the batch.
      *
-     * @param deltas map containing asset account key integer and the value containing the delta amount
-     * @param transactions bucket to add new transactions
+     * @param in accounts as json lines or a json array, each with a riskLevel, the amount query parameters of
+     *           getAdjustments and an optional id
+     * @return json lines of the transactions or the status of every account
      */
-    private void offsetMaxMinPortfolioDeltas(Map<Integer, BigDecimal> deltas, List<Map<Integer, BigDecimal>> transactions)
-            throws IllegalArgumentException {
-
-        double sanitySum = deltas.values().stream().mapToLong(bd -> bd.multiply(BigDecimal.valueOf(100)).longValue()).sum();
-        if (sanitySum != 0) {
-            throw new IllegalArgumentException("Delta list provided will not zero out");
-        }
-        double sum = deltas.values().stream().mapToLong(bd -> Math.abs(bd.multiply(BigDecimal.valueOf(100)).longValue())).sum();
-        while (sum != 0) {
-            Map.Entry<Integer, BigDecimal> bigDecimalMax =
-                    deltas.entrySet().stream().max(Comparator.comparing(Map.Entry::getValue)).get();
-            Map.Entry<Integer, BigDecimal> bigDecimalMin =
-                    deltas.entrySet().stream().min(Comparator.comparing(Map.Entry::getValue)).get();
-            boolean posBigger =
-                    (Math.abs(bigDecimalMax.getValue().floatValue()) > Math.abs(bigDecimalMin.getValue().floatValue())) ?
-                            true : false;
-
-            Map.Entry<Integer, BigDecimal> source = (posBigger) ? bigDecimalMax : bigDecimalMin;
-            Map.Entry<Integer, BigDecimal> target = (posBigger) ? bigDecimalMin : bigDecimalMax;
+    @POST
+    @Path("adjustments/batch")
+    @Consumes({BatchAdjustments.MEDIA_TYPE, MediaType.APPLICATION_JSON})
+    @Produces(BatchAdjustments.MEDIA_TYPE)
+    public StreamingOutput getBatchAdjustments(InputStream in) {
+        PortfolioModel model = source.get();
+        return out -> batch.write(model, in, out);
+    }
 
-            BigDecimal adjustment = source.getValue().add(target.getValue());
-            Map<Integer, BigDecimal> map1 = new LinkedHashMap<>();
-            map1.put(target.getKey(), target.getValue());
-            transactions.add(map1);
-            Map<Integer, BigDecimal> map2 = new LinkedHashMap<>();
-            map2.put(source.getKey(), target.getValue().multiply(BigDecimal.valueOf(-1)));
-            transactions.add(map2);
-            deltas.remove(target.getKey());
-            deltas.put(source.getKey(), adjustment);
+    /**
+     * getAdjustments
+     *
+     * @param level   risk level where 1 is low risk and numbers above are higher risk
+     * @param amounts dollar amount of every asset in portfolios.json order, missing or blank amounts are 0
+     * @return  List of transactions to balance portfolio to risk level
+     */
+    public String getAdjustments(int level, String... amounts) {
+        return getAdjustments(source.get(), level, amounts);
+    }
 
-            sum = deltas.values().stream().mapToDouble(bd -> Math.abs(bd.floatValue())).sum();
-        }
+    private String getAdjustments(PortfolioModel model, int level, String[] amounts) {
+        return rebalance(model, level, amounts).toJson();
     }
 
     /**
-     * returns a list of transactions that can be used to cancel a pair of offsetting amounts
+     * rebalance
      *
-     * @param deltas map containing asset account key integer and the value containing the delta amount
-     * @return offsetting transactions, if none, will be empty
+     * @param model   risk levels and assets
+     * @param level   risk level where 1 is low risk and numbers above are higher risk
+     * @param amounts dollar amount of every asset in model order, missing or blank amounts are 0
+     * @return the rebalancer of the current thread holding the transactions
+     *
+     * Throws NotFoundException if the level is invalid or the total less than a dollar, BadRequestException if an
+     * amount is invalid
      */
-    private List<Map<Integer, BigDecimal>> getCancellingOutTransactions(Map<Integer, BigDecimal> deltas) {
-        List<Map<Integer, BigDecimal>> transactions = new ArrayList<>();
-        for (int i = 0; i < deltas.size(); i++) {
-            BigDecimal bigDecimal = deltas.get(i);
-            if (bigDecimal.equals(BigDecimal.ZERO)) {
-                continue;
+    static Rebalancer rebalance(PortfolioModel model, int level, String[] amounts) {
+        if (level < 1 || level > model.size()) {
+            throw new NotFoundException();
+        }
+        if (amounts.length > model.getAssetCount()) {
+            throw new BadRequestException(String.format("More than %d dollar amounts", model.getAssetCount()));
+        }
+        String[] amountStrs = new String[model.getAssetCount()];
+        for (int i = 0; i < amountStrs.length; i++) {
+            amountStrs[i] = StringUtils.defaultIfBlank((i < amounts.length) ? amounts[i] : null, DEFAULT_ZERO_STR);
+            if (amountStrs[i].length() > MAX_LENGTH) {
+                throw new BadRequestException(String.format("Dollar amount(s) exceeds length %d", MAX_LENGTH));
             }
-            for (int j = i+1; j < deltas.size(); j++) {
-                BigDecimal bigDecimal2 = deltas.get(j);
-                if (bigDecimal2.equals(BigDecimal.ZERO)) {
-                    continue;
-                }
-                if (bigDecimal.add(bigDecimal2).floatValue() == 0) {
-                    Map<Integer, BigDecimal> map1 = new LinkedHashMap<>();
-                    map1.put(Integer.valueOf(i), BigDecimal.valueOf(bigDecimal.floatValue()));
-                    transactions.add(map1);
-                    Map<Integer, BigDecimal> map2 = new LinkedHashMap<>();
-                    map2.put(Integer.valueOf(j), BigDecimal.valueOf(bigDecimal2.floatValue()));
-                    transactions.add(map2);
-                }
+        }
+        try {
+            Rebalancer rebalancer = Rebalancer.get(model.getAssetCount());
+            if (rebalancer.rebalance(model.getPercents(level), amountStrs) < 0) {
+                throw new NotFoundException();
             }
+            return rebalancer;
+        } catch (NumberFormatException nfe) {
+            throw new BadRequestException();
+        } catch (WebApplicationException wae) {
+            throw wae;
+        } catch (Throwable t) {
+            throw new BadRequestException();
         }
-        return transactions;
     }
 }
@@ -0,0 +1,425 @@
+package com.tackleset.invest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Rebalancer computes the transactions of getAdjustments in long cents with buffers allocated once per thread
+ *
+ * Every asset but the last gets the delta to its target percentage of the total, rounded half up to the cent, and the
+ * last asset takes the remainder.  Deltas that cancel out, one asset holding exactly what another lacks, are settled
+ * in pairs.  The others are offset greedily: the largest surplus and the largest shortfall meet, the smaller of the two
+ * is settled and the rest of the bigger one stays open, which settles at least one asset per two transactions.  Pairs
+ * are found by sorting the deltas by amount and the greedy offsets keep the surpluses and shortfalls in two heaps, so
+ * n assets take O(n log n) time.  Equal amounts go to the lowest asset first.
+ */
+final class Rebalancer {
+
+    // cents below 10^15 have at most 15 significant digits, which survive Double.valueOf unchanged
+    static final long MAX_CENTS = 1000000000000000L;
+    // bound of the deltas of amounts computed with BigDecimal, so sums of deltas cannot overflow
+    static final long MAX_DELTA = 100000000000000000L;
+
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final BigInteger MAX_DELTA_CENTS = BigInteger.valueOf(MAX_DELTA);
+    private static final ThreadLocal<Rebalancer> LOCAL = new ThreadLocal<>();
+
+    private final long[] amounts;
+    private final long[] deltas;
+    private final int[] partners;
+    private final int[] sorted;
+    private final int[] surpluses;
+    private final int[] shortfalls;
+    private final int[] assets;
+    private final long[] cents;
+    private final StringBuilder json = new StringBuilder(256);
+    private int count;
+
+    Rebalancer(int assetCount) {
+        amounts = new long[assetCount];
+        deltas = new long[assetCount];
+        partners = new int[assetCount];
+        sorted = new int[assetCount];
+        surpluses = new int[assetCount];
+        shortfalls = new int[assetCount];
+        // one transaction per asset of a pair and two per offset, which settles at least one asset
+        assets = new int[3 * assetCount];
+        cents = new long[3 * assetCount];
+    }
+
+    /**
+     * get
+     *
+     * @param assetCount number of assets of the model
+     * @return the rebalancer of the current thread
+     */
+    static Rebalancer get(int assetCount) {
+        Rebalancer rebalancer = LOCAL.get();
+        if (rebalancer == null || rebalancer.amounts.length != assetCount) {
+            rebalancer = new Rebalancer(assetCount);
+            LOCAL.set(rebalancer);
+        }
+        return rebalancer;
+    }
+
+    /**
+     * rebalance
+     *
+     * Amounts in whole cents are added up in long cents, others such as 0.004 or 1e3 with BigDecimal as read by
+     * Double.valueOf, with the total rounded half up to the cent
+     *
+     * @param percents target percentage of every asset, adding up to 100
+     * @param amounts  dollar amount of every asset
+     * @return number of transactions, -1 if the amounts add up to less than a dollar
+     * @throws NumberFormatException    if an amount is not a number
+     * @throws IllegalArgumentException if the deltas do not add up to zero, which the rounding of amounts in fractions
+     *                                  of a cent can cause, or are too large
+     */
+    int rebalance(int[] percents, String[] amounts) {
+        int n = this.amounts.length;
+        for (int i = 0; i < n; i++) {
+            if (!parse(i, amounts[i])) {
+                return rebalanceExact(percents, amounts);
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += this.amounts[i];
+        }
+        if (total < 100) {
+            return -1;
+        }
+        if (total >= MAX_CENTS) {
+            // percentages of the total could overflow
+            return rebalanceExact(percents, amounts);
+        }
+        long sum = 0;
+        for (int i = 0; i < n - 1; i++) {
+            deltas[i] = roundHalfUp(percents[i] * total - 100 * this.amounts[i]);
+            sum += deltas[i];
+        }
+        // the amounts add up to the total, so the last delta is what the others leave
+        deltas[n - 1] = -sum;
+        return match();
+    }
+
+    private int rebalanceExact(int[] percents, String[] amounts) {
+        int n = this.amounts.length;
+        BigDecimal[] exact = new BigDecimal[n];
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < n; i++) {
+            exact[i] = BigDecimal.valueOf(Double.valueOf(amounts[i]));
+            total = total.add(exact[i]);
+        }
+        total = total.setScale(2, RoundingMode.HALF_UP);
+        if (total.doubleValue() < 1) {
+            return -1;
+        }
+        BigDecimal rest = total;
+        for (int i = 0; i < n; i++) {
+            BigDecimal delta = (i < n - 1) ? BigDecimal.valueOf(percents[i]).multiply(total).divide(HUNDRED)
+                    .subtract(exact[i]).setScale(2, RoundingMode.HALF_UP)
+                    : rest.subtract(exact[i]).setScale(2, RoundingMode.HALF_UP);
+            rest = rest.subtract(exact[i]).subtract(delta);
+            if (delta.unscaledValue().abs().compareTo(MAX_DELTA_CENTS) >= 0) {
+                throw new IllegalArgumentException("Dollar amount(s) too large");
+            }
+            deltas[i] = delta.unscaledValue().longValue();
+        }
+        return match();
+    }
+
+    /**
+     * parse
+     *
+     * @param asset  asset index
+     * @param amount dollar amount such as 48.56, -1.45, +3 or .5
+     * @return false, leaving the amount to BigDecimal, if it is not digits with an optional sign and point, has digits
+     * other than 0 after the cents or is 10^13 dollars or more
+     */
+    boolean parse(int asset, CharSequence amount) {
+        int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < length; i++) {
+            char c = amount.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            digits++;
+            if (decimals >= 0 && ++decimals > 2) {
+                if (c != '0') {
+                    return false;
+                }
+                continue;
+            }
+            value = value * 10 + (c - '0');
+            if (value >= MAX_CENTS) {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        for (int scale = Math.max(decimals, 0); scale < 2; scale++) {
+            value *= 10;
+        }
+        if (value >= MAX_CENTS) {
+            return false;
+        }
+        amounts[asset] = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * match
+     *
+     * @return number of transactions settling the deltas
+     * @throws IllegalArgumentException if the deltas do not add up to zero
+     */
+    private int match() {
+        int n = deltas.length;
+        count = 0;
+        long sum = 0;
+        int open = 0;
+        for (int i = 0; i < n; i++) {
+            sum = Math.addExact(sum, deltas[i]);
+            partners[i] = -1;
+            if (deltas[i] != 0) {
+                sorted[open++] = i;
+            }
+        }
+        if (sum != 0) {
+            throw new IllegalArgumentException("Delta list provided will not zero out");
+        }
+        // by amount, shortfalls before surpluses of the same amount and then by asset, so the k-th shortfall and the
+        // k-th surplus of an amount cancel out
+        heapSort(sorted, open);
+        for (int start = 0; start < open; ) {
+            long amount = Math.abs(deltas[sorted[start]]);
+            int end = start;
+            int middle = -1;
+            while (end < open && Math.abs(deltas[sorted[end]]) == amount) {
+                if (middle < 0 && deltas[sorted[end]] > 0) {
+                    middle = end;
+                }
+                end++;
+            }
+            if (middle > start) {
+                for (int k = 0; k < middle - start && middle + k < end; k++) {
+                    partners[sorted[start + k]] = sorted[middle + k];
+                    partners[sorted[middle + k]] = sorted[start + k];
+                }
+            }
+            start = end;
+        }
+        int surplusCount = 0;
+        int shortfallCount = 0;
+        for (int i = 0; i < n; i++) {
+            int partner = partners[i];
+            if (partner > i) {
+                add(i, deltas[i]);
+                add(partner, deltas[partner]);
+            } else if (partner < 0 && deltas[i] > 0) {
+                surplusCount = push(surpluses, surplusCount, i, 1);
+            } else if (partner < 0 && deltas[i] < 0) {
+                shortfallCount = push(shortfalls, shortfallCount, i, -1);
+            }
+        }
+        while (surplusCount > 0 && shortfallCount > 0) {
+            int max = surpluses[0];
+            int min = shortfalls[0];
+            boolean posBigger = deltas[max] > -deltas[min];
+            int source = posBigger ? max : min;
+            int target = posBigger ? min : max;
+            add(target, deltas[target]);
+            add(source, -deltas[target]);
+            deltas[source] += deltas[target];
+            deltas[target] = 0;
+            if (deltas[max] == 0) {
+                surplusCount = pop(surpluses, surplusCount, 1);
+            } else {
+                siftDown(surpluses, surplusCount, 0, 1);
+            }
+            if (deltas[min] == 0) {
+                shortfallCount = pop(shortfalls, shortfallCount, -1);
+            } else {
+                siftDown(shortfalls, shortfallCount, 0, -1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the transactions of the last rebalance as a json array of single entry objects and a line break
+     */
+    String toJson() {
+        json.setLength(0);
+        appendJson(json);
+        json.append('\n');
+        return json.toString();
+    }
+
+    /**
+     * appendJson
+     *
+     * @param json receives the transactions of the last rebalance as a json array of single entry objects
+     */
+    void appendJson(StringBuilder json) {
+        json.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"").append(assets[i]).append("\":");
+            appendCents(json, cents[i]);
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private void add(int asset, long amount) {
+        assets[count] = asset;
+        cents[count] = amount;
+        count++;
+    }
+
+    private static void appendCents(StringBuilder json, long amount) {
+        if (amount < 0) {
+            json.append('-');
+            amount = -amount;
+        }
+        long fraction = amount % 100;
+        json.append(amount / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * roundHalfUp
+     *
+     * @param hundredths an amount in hundredths of a cent
+     * @return the amount in cents, halves rounded away from zero
+     */
+    static long roundHalfUp(long hundredths) {
+        long quotient = hundredths / 100;
+        long remainder = hundredths % 100;
+        if (remainder >= 50) {
+            quotient++;
+        } else if (remainder <= -50) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * @return true if asset a sorts after asset b: by amount, then shortfalls first, then by asset
+     */
+    private boolean sortsAfter(int a, int b) {
+        long amountA = Math.abs(deltas[a]);
+        long amountB = Math.abs(deltas[b]);
+        if (amountA != amountB) {
+            return amountA > amountB;
+        }
+        if ((deltas[a] > 0) != (deltas[b] > 0)) {
+            return deltas[a] > 0;
+        }
+        return a > b;
+    }
+
+    private void heapSort(int[] heap, int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            sortDown(heap, size, i);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            int top = heap[0];
+            heap[0] = heap[end];
+            heap[end] = top;
+            sortDown(heap, end, 0);
+        }
+    }
+
+    private void sortDown(int[] heap, int size, int i) {
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && sortsAfter(heap[left], heap[largest])) {
+                largest = left;
+            }
+            if (right < size && sortsAfter(heap[right], heap[largest])) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            int swap = heap[i];
+            heap[i] = heap[largest];
+            heap[largest] = swap;
+            i = largest;
+        }
+    }
+
+    /**
+     * @param sign 1 for the surplus heap, largest delta on top, -1 for the shortfall heap, smallest delta on top
+     * @return true if asset a belongs above asset b, the lower asset first among equal deltas
+     */
+    private boolean above(int a, int b, int sign) {
+        long deltaA = sign * deltas[a];
+        long deltaB = sign * deltas[b];
+        return (deltaA != deltaB) ? deltaA > deltaB : a < b;
+    }
+
+    private int push(int[] heap, int size, int asset, int sign) {
+        int i = size;
+        heap[i] = asset;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!above(heap[i], heap[parent], sign)) {
+                break;
+            }
+            int swap = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = swap;
+            i = parent;
+        }
+        return size + 1;
+    }
+
+    private int pop(int[] heap, int size, int sign) {
+        heap[0] = heap[size - 1];
+        siftDown(heap, size - 1, 0, sign);
+        return size - 1;
+    }
+
+    private void siftDown(int[] heap, int size, int i, int sign) {
+        while (true) {
+            int top = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && above(heap[left], heap[top], sign)) {
+                top = left;
+            }
+            if (right < size && above(heap[right], heap[top], sign)) {
+                top = right;
+            }
+            if (top == i) {
+                return;
+            }
+            int swap = heap[i];
+            heap[i] = heap[top];
+            heap[top] = swap;
+            i = top;
+        }
+    }
+}
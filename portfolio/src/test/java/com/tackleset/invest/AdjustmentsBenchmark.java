@@ -0,0 +1,65 @@
+package com.tackleset.invest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdjustmentsBenchmark measures getAdjustments for an account needing offsets and one with cancelling out pairs
+ *
+ * amounts=cents runs the Rebalancer in long cents, amounts=bigdecimal writes the same amounts with an exponent, which
+ * sends them to the BigDecimal computation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AdjustmentsBenchmark {
+
+    @Param({"cents", "bigdecimal"})
+    public String amounts;
+
+    private Portfolios portfolios;
+    private String[] offsets;
+    private String[] cancelling;
+
+    @Setup
+    public void setUp() throws IOException {
+        portfolios = new Portfolios(new PortfolioSource(null));
+        offsets = amounts("48.56", "35.73", "144.56", "326.11", "19.33");
+        cancelling = amounts("8", "33", "14", "36", "9");
+    }
+
+    private String[] amounts(String... values) {
+        if ("bigdecimal".equals(amounts)) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] += "e0";
+            }
+        }
+        return values;
+    }
+
+    @Benchmark
+    public String offsets() {
+        return portfolios.getAdjustments(7, offsets[0], offsets[1], offsets[2], offsets[3], offsets[4]);
+    }
+
+    @Benchmark
+    public String cancellingOut() {
+        return portfolios.getAdjustments(7, cancelling[0], cancelling[1], cancelling[2], cancelling[3],
+                cancelling[4]);
+    }
+}
@@ -6,26 +6,30 @@ import junit.framework.TestCase;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
 
 /**
  * IntegrationTest Sample
  *
- * REQUIRES running Advisor REST web service prior
- *
+ * Under JUnit the Advisor REST web service is started on a free port, main runs the tests against a running one
  */
 public class IntegrationTest extends TestCase {
 
     private ObjectMapper objectMapper= new ObjectMapper();
     private static String host = "http://localhost:8080";
-    private static Runnable command = null;
+    private static Server server = null;
 
     public static void main(String[] args) {
         if (args.length > 0  && args[0].startsWith("http")) {
@@ -33,32 +37,27 @@ public class IntegrationTest extends TestCase {
         }
         IntegrationTest integrationTest = new IntegrationTest();
         integrationTest.testGetRiskLevelPortfolio();
+        integrationTest.testGetRiskLevelPortfolioNotModified();
         integrationTest.testGetAdjustmentsWithCancellingOut();
         integrationTest.testGetAdjustmentsWithLargerNumbers();
         integrationTest.testGetAdjustmentsWithLargerNumbersWithDecimals();
+        integrationTest.testGetBatchAdjustments();
     }
 
     @Override
-    protected void setUp() {
+    protected void setUp() throws Exception {
         startServer();
     }
 
-    private synchronized static void startServer() {
-        if (command == null) {
-            command = () -> {
-                try {
-                    Advisor.main(new String[]{});
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    assertFalse("Server failed to startup!\n" + e.getMessage(), true);
-                }
-            };
-            Executors.newSingleThreadExecutor().execute(command);
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                // NoOp
-            }
+    /**
+     * Starts the web services once for every test on a free port, start returns once Jersey is ready to answer
+     */
+    private synchronized static void startServer() throws Exception {
+        if (server == null) {
+            Server jettyServer = Advisor.server(0);
+            jettyServer.start();
+            server = jettyServer;
+            host = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
         }
     }
 
@@ -96,6 +95,36 @@ public class IntegrationTest extends TestCase {
         }
     }
 
+    /**
+     * testGetRiskLevelPortfolioNotModified
+     * <p>
+     * a request with the entity tag of the portfolio in If-None-Match gets 304 Not Modified without a body
+     */
+    public void testGetRiskLevelPortfolioNotModified() {
+        try {
+            HttpResponse httpResponse = HttpClientBuilder.create().build().execute(
+                    new HttpGet(host + "/invest/portfolios?riskLevel=3"));
+            assertTrue(httpResponse.getStatusLine().getStatusCode() == 200);
+            String etag = httpResponse.getFirstHeader("ETag").getValue();
+            assertTrue(httpResponse.getFirstHeader("Cache-Control").getValue().contains("max-age="));
+
+            HttpGet conditional = new HttpGet(host + "/invest/portfolios?riskLevel=3");
+            conditional.setHeader("If-None-Match", etag);
+            httpResponse = HttpClientBuilder.create().build().execute(conditional);
+            assertTrue(httpResponse.getStatusLine().getStatusCode() == 304);
+            assertTrue(httpResponse.getEntity() == null);
+            assertEquals(etag, httpResponse.getFirstHeader("ETag").getValue());
+
+            conditional = new HttpGet(host + "/invest/portfolios?riskLevel=4");
+            conditional.setHeader("If-None-Match", etag);
+            httpResponse = HttpClientBuilder.create().build().execute(conditional);
+            assertTrue(httpResponse.getStatusLine().getStatusCode() == 200);
+        } catch (IOException e) {
+            e.printStackTrace();
+            assertFalse("Is Server Up?\n" + e.getMessage(), true);
+        }
+    }
+
     /**
      * testGetAdjustmentsWithCancellingOut
      * <p>
@@ -191,4 +220,41 @@ public class IntegrationTest extends TestCase {
         }
     }
 
+    /**
+     * testGetBatchAdjustments
+     * <p>
+     * a batch of json lines gets one line per account in order, the cancelling out account of the GET above, an
+     * invalid risk level and, repeated, the same account again
+     */
+    public void testGetBatchAdjustments() {
+        StringBuilder accounts = new StringBuilder();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            accounts.append((i % 100 == 1) ? "{\"id\":" + i + ",\"riskLevel\":11}\n" : "{\"id\":" + i +
+                    ",\"riskLevel\":7,\"bondAmt\":8,\"largeCapAmt\":33,\"midCapAmt\":\"14\",\"foreignAmt\":36,\"smallCapAmt\":9}\n");
+        }
+        HttpPost request = new HttpPost(host + "/invest/adjustments/batch");
+        request.setEntity(new StringEntity(accounts.toString(), ContentType.create("application/x-ndjson",
+                StandardCharsets.UTF_8)));
+        try {
+            HttpResponse httpResponse = HttpClientBuilder.create().build().execute(request);
+            assertTrue(httpResponse.getStatusLine().getStatusCode() == 200);
+            List<String> lines = IOUtils.readLines(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8);
+            assertEquals(n, lines.size());
+            for (int i = 0; i < n; i++) {
+                Map<String, Object> line = objectMapper.readValue(lines.get(i), Map.class);
+                assertEquals(i, line.get("id"));
+                if (i % 100 == 1) {
+                    assertEquals(404, line.get("status"));
+                } else {
+                    assertEquals(Arrays.asList(ImmutableMap.of("2", 11.0), ImmutableMap.of("3", -11.0),
+                            ImmutableMap.of("1", -8.0), ImmutableMap.of("0", 8.0), ImmutableMap.of("0", 4.0),
+                            ImmutableMap.of("4", -4.0)), line.get("adjustments"));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            assertFalse("Is Server Up?\n" + e.getMessage(), true);
+        }
+    }
 }
@@ -6,10 +6,22 @@ import junit.framework.TestCase;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Unit test for Portfolios web service
@@ -29,7 +41,7 @@ public class PortfoliosTest extends TestCase {
     public void testGetRiskLevelPortfolio() throws IOException {
         for (int i = 0; i < 12; i++) {
             try {
-                String json = portfolios.getRiskLevelPortfolio(i);
+                String json = portfolioJson(portfolios, i);
                 try {
                     Map<String, Object> riskMap = objectMapper.readValue(
                             json, Map.class);
@@ -314,4 +326,325 @@ public class PortfoliosTest extends TestCase {
             assertFalse("Invalid Not Found Exception", true);
         }
     }
+
+    /**
+     * testPortfolioModel
+     *
+     * the model holds every level of portfolios.json by index with the assets in file order
+     */
+    public void testPortfolioModel() throws IOException {
+        PortfolioModel model = new PortfolioSource(null).get();
+        assertEquals(10, model.size());
+        assertEquals(5, model.getAssetCount());
+        assertEquals("bonds_pct", model.getAsset(0));
+        assertEquals("small_cap_pct", model.getAsset(4));
+        assertEquals(20, model.getPercent(7, 0));
+        assertEquals(40, model.getPercent(10, 4));
+        assertEquals(Integer.valueOf(7), model.getPortfolio(7).get("level"));
+        assertEquals(Integer.valueOf(25), model.getPortfolio(7).get("mid_cap_pct"));
+        try {
+            model.getPortfolio(7).put("level", 8);
+            fail("Model is immutable");
+        } catch (UnsupportedOperationException e) {
+            assertTrue("Valid Unsupported Operation Exception", true);
+        }
+    }
+
+    /**
+     * testReloadPortfolios
+     *
+     * a watched file that changes is swapped in, a file that does not load keeps the current model
+     */
+    public void testReloadPortfolios() throws Exception {
+        File dir = Files.createTempDirectory("portfolios").toFile();
+        File file = new File(dir, "portfolios.json");
+        writePortfolios(file, 80, 20);
+        try (PortfolioSource source = new PortfolioSource(file)) {
+            source.watch();
+            Portfolios watched = new Portfolios(source);
+            PortfolioModel first = source.get();
+            assertEquals(80, first.getPercent(1, 0));
+
+            // rename into place so the watcher never sees a half written file
+            File next = new File(dir, "next.tmp");
+            writePortfolios(next, 60, 40);
+            Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (int i = 0; i < 200 && source.get() == first; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(60, source.get().getPercent(1, 0));
+            Map<String, Object> riskMap = objectMapper.readValue(portfolioJson(watched, 1), Map.class);
+            assertEquals(Integer.valueOf(40), riskMap.get("large_cap_pct"));
+
+            PortfolioModel current = source.get();
+            Files.write(file.toPath(), "{\"risk_levels\": [{\"level\": 1, \"bonds_pct\": 60, \"large_cap_pct\": 30}]}"
+                    .getBytes(StandardCharsets.UTF_8));
+            try {
+                source.reload();
+                fail("Level adds up to 90");
+            } catch (IOException e) {
+                assertEquals("Risk level 1 adds up to 90 percent", e.getMessage());
+            }
+            assertSame(current, source.get());
+        } finally {
+            for (File child : dir.listFiles()) {
+                child.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * testGetRiskLevelPortfolioCached
+     *
+     * every level has its own strong entity tag and a max age, the same file gives the same tags after a reload
+     */
+    public void testGetRiskLevelPortfolioCached() throws IOException {
+        PortfolioSource source = new PortfolioSource(null);
+        Portfolios cached = new Portfolios(source);
+        Response first = cached.getRiskLevelPortfolio(1, null);
+        Response second = cached.getRiskLevelPortfolio(2, null);
+        assertEquals(200, first.getStatus());
+        EntityTag tag = first.getEntityTag();
+        assertFalse(tag.isWeak());
+        assertFalse(tag.equals(second.getEntityTag()));
+        assertEquals("max-age=" + Portfolios.MAX_AGE,
+                first.getHeaderString(HttpHeaders.CACHE_CONTROL).replace("no-transform, ", ""));
+        assertSame(first.getEntity(), cached.getRiskLevelPortfolio(1, null).getEntity());
+        assertEquals("{\"level\":1,\"bonds_pct\":80,\"large_cap_pct\":20,\"mid_cap_pct\":0,\"foreign_pct\":0,\"small_cap_pct\":0}\n",
+                portfolioJson(cached, 1));
+
+        source.reload();
+        assertEquals(tag, cached.getRiskLevelPortfolio(1, null).getEntityTag());
+    }
+
+    /**
+     * testRebalancerMatchesBigDecimal
+     *
+     * amounts in cents give the same json from long cents as from BigDecimal, which gets them with an exponent,
+     * including balanced assets, large amounts and small totals
+     */
+    public void testRebalancerMatchesBigDecimal() {
+        Random random = new Random(7);
+        for (int k = 0; k < 20000; k++) {
+            int level = 1 + random.nextInt(10);
+            int mode = random.nextInt(4);
+            String[] amounts = new String[5];
+            String[] exponents = new String[5];
+            for (int i = 0; i < 5; i++) {
+                long cents = (mode == 0) ? random.nextInt(100000) : (mode == 1) ? (long) (random.nextDouble() * 1e15)
+                        : (mode == 2) ? random.nextInt(20) * 100 : random.nextInt(2000) - 300;
+                amounts[i] = BigDecimal.valueOf((random.nextInt(10) == 0) ? -cents : cents, 2).toPlainString();
+                exponents[i] = amounts[i] + "e0";
+            }
+            assertEquals(level + " " + Arrays.toString(amounts), adjustments(level, exponents), adjustments(level, amounts));
+        }
+        assertEquals("[]\n", adjustments(1, "80", "20", "0", "0", "0"));
+        assertEquals("[{\"2\":11.00},{\"3\":-11.00},{\"1\":-8.00},{\"0\":8.00},{\"0\":4.00},{\"4\":-4.00}]\n",
+                adjustments(7, "8", "33", "14", "36", "9"));
+        assertEquals(adjustments(5, "12345678.91e0", "0", "0", "0", "0"), adjustments(5, "12345678.91", "+0", ".0", "0.", "-0"));
+        assertEquals(adjustments(6, "20.5e0", "1.25e0", "3e0", "0", "0"), adjustments(6, "020.500", "1.25", "3.0000", "0", "0"));
+        assertEquals("BadRequestException", adjustments(1, "1.005", "0", "0", "0", "0"));
+        assertEquals("BadRequestException", adjustments(1, "1..0", "0", "0", "0", "0"));
+        assertEquals("NotFoundException", adjustments(1, "0.99", "0", "0", "0", "0"));
+    }
+
+    /**
+     * testRebalancerAssets
+     *
+     * assets without an assets array are the fields of the first level with default amount parameters, every delta
+     * is settled once and equal deltas cancel out in pairs without reusing an asset
+     */
+    public void testRebalancerAssets() throws IOException {
+        assertEquals("smallCapAmt", new PortfolioSource(null).get().getParam(4));
+        assertEquals("largeCapAmt", PortfolioModel.param("large_cap_pct"));
+        assertEquals("emergingMarketsAmt", PortfolioModel.param("emerging_markets"));
+        File file = File.createTempFile("portfolios", ".json");
+        try {
+            Files.write(file.toPath(), ("{\"risk_levels\": [{\"level\": 1, \"a_pct\": 10, \"b_pct\": 10, \"c_pct\": 20, " +
+                    "\"d_pct\": 20, \"e_pct\": 10, \"f_pct\": 30}]}").getBytes(StandardCharsets.UTF_8));
+            PortfolioModel model = new PortfolioSource(file).get();
+            assertEquals(6, model.getAssetCount());
+            assertEquals("fAmt", model.getParam(5));
+            Portfolios six = new Portfolios(new PortfolioSource(file));
+            // deltas 5, -5, 5, -5, 0, 0: two pairs, the zeros need nothing
+            assertEquals("[{\"0\":5.00},{\"1\":-5.00},{\"2\":5.00},{\"3\":-5.00}]\n",
+                    six.getAdjustments(1, "5", "15", "15", "25", "10", "30"));
+            // deltas 30, -10, -10, -10, 0, 0: the surplus meets each shortfall in turn, the last settles it
+            assertEquals("[{\"1\":-10.00},{\"0\":10.00},{\"2\":-10.00},{\"0\":10.00},{\"0\":10.00},{\"3\":-10.00}]\n",
+                    six.getAdjustments(1, "-20", "20", "30", "30", "10", "30"));
+            assertEquals("[]\n", six.getAdjustments(1, "10", "10", "20", "20", "10", "30"));
+            // a missing amount is 0
+            assertEquals(six.getAdjustments(1, "10", "10", "20", "20", "10", "0"),
+                    six.getAdjustments(1, "10", "10", "20", "20", "10"));
+            try {
+                six.getAdjustments(1, "1", "1", "1", "1", "1", "1", "1");
+                fail("Seven amounts for six assets");
+            } catch (BadRequestException bre) {
+                assertEquals("More than 6 dollar amounts", bre.getMessage());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * testRebalancerMatchesGreedy
+     *
+     * 50 assets give the transactions of pairing each delta with the first open delta cancelling it out and then
+     * offsetting the largest surplus and shortfall one by one, computed here by rescanning every delta
+     */
+    public void testRebalancerMatchesGreedy() {
+        Random random = new Random(11);
+        int n = 50;
+        for (int k = 0; k < 2000; k++) {
+            int[] percents = new int[n];
+            for (int i = 0; i < 100; i++) {
+                percents[random.nextInt(n)]++;
+            }
+            long[] amounts = new long[n];
+            String[] amountStrs = new String[n];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                // few distinct amounts so deltas often cancel out or tie
+                amounts[i] = (k % 2 == 0) ? random.nextInt(5) * 1000 : random.nextInt(1000000);
+                amountStrs[i] = BigDecimal.valueOf(amounts[i], 2).toPlainString();
+                total += amounts[i];
+            }
+            Rebalancer rebalancer = Rebalancer.get(n);
+            if (total < 100) {
+                assertEquals(-1, rebalancer.rebalance(percents, amountStrs));
+                continue;
+            }
+            rebalancer.rebalance(percents, amountStrs);
+            assertEquals(greedy(percents, amounts, total), rebalancer.toJson());
+        }
+    }
+
+    /**
+     * testBatchAdjustments
+     *
+     * a batch of accounts spanning many chunks is answered in order with the transactions getAdjustments gives each
+     * account, or its status, the same batch as one json array gives the same lines, and a malformed account ends the
+     * lines with an error after the accounts before it
+     */
+    public void testBatchAdjustments() throws IOException {
+        PortfolioModel model = new PortfolioSource(null).get();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        BatchAdjustments batch = new BatchAdjustments(pool);
+        Random random = new Random(25);
+        int n = 3000;
+        StringBuilder lines = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            int level = random.nextInt(12);
+            String[] amounts = new String[model.getAssetCount()];
+            StringBuilder account = new StringBuilder();
+            String id = (k % 3 == 0) ? "\"a" + k + "\"" : (k % 3 == 1) ? Integer.toString(k) : null;
+            if (id != null) {
+                account.append("\"id\":").append(id).append(',');
+            }
+            account.append("\"riskLevel\":").append(level);
+            for (int i = 0; i < amounts.length; i++) {
+                amounts[i] = (random.nextInt(100) == 0) ? "x" : BigDecimal.valueOf(random.nextInt(1000000), 2)
+                        .toPlainString();
+                account.append(",\"").append(model.getParam(i)).append("\":");
+                account.append((i % 2 == 0 && !"x".equals(amounts[i])) ? amounts[i] : "\"" + amounts[i] + "\"");
+            }
+            lines.append('{').append(account).append(",\"note\":{\"skipped\":[1]}}\n");
+            String adjustments = adjustments(level, amounts);
+            expected.append("{").append((id != null) ? "\"id\":" + id + "," : "")
+                    .append("NotFoundException".equals(adjustments) ? "\"status\":404" :
+                            "BadRequestException".equals(adjustments) ? "\"status\":400" :
+                                    "\"adjustments\":" + adjustments.trim()).append("}\n");
+        }
+        try {
+            assertEquals(expected.toString(), batch(batch, model, lines.toString(), n));
+            String array = "[" + lines.toString().trim().replace("\n", ",\n") + "]";
+            assertEquals(expected.toString(), batch(batch, model, array, n));
+            assertEquals(expected.toString() + "{\"status\":400,\"error\":\"Expected an account object\"}\n",
+                    batch(batch, model, lines + "7\n{\"riskLevel\":7}\n", n));
+            assertEquals("{\"id\":\"a\\\"b\",\"adjustments\":[]}\n",
+                    batch(batch, model, "{\"id\":\"a\\\"b\",\"riskLevel\":1,\"bondAmt\":80,\"largeCapAmt\":20}", 1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String batch(BatchAdjustments batch, PortfolioModel model, String accounts, long count)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(count, batch.write(model, new ByteArrayInputStream(accounts.getBytes(StandardCharsets.UTF_8)),
+                out));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String greedy(int[] percents, long[] amounts, long total) {
+        int n = amounts.length;
+        long[] deltas = new long[n];
+        long sum = 0;
+        for (int i = 0; i < n - 1; i++) {
+            deltas[i] = Rebalancer.roundHalfUp(percents[i] * total - 100 * amounts[i]);
+            sum += deltas[i];
+        }
+        deltas[n - 1] = -sum;
+        boolean[] open = new boolean[n];
+        Arrays.fill(open, true);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n && open[i] && deltas[i] != 0; j++) {
+                if (open[j] && deltas[i] + deltas[j] == 0) {
+                    json.append(transaction(i, deltas[i])).append(transaction(j, deltas[j]));
+                    open[i] = false;
+                    open[j] = false;
+                }
+            }
+        }
+        while (true) {
+            int max = -1;
+            int min = -1;
+            for (int i = 0; i < n; i++) {
+                if (open[i] && (max < 0 || deltas[i] > deltas[max])) {
+                    max = i;
+                }
+                if (open[i] && (min < 0 || deltas[i] < deltas[min])) {
+                    min = i;
+                }
+            }
+            if (max < 0 || deltas[max] == 0) {
+                break;
+            }
+            int source = (deltas[max] > -deltas[min]) ? max : min;
+            int target = (source == max) ? min : max;
+            json.append(transaction(target, deltas[target])).append(transaction(source, -deltas[target]));
+            deltas[source] += deltas[target];
+            open[target] = false;
+        }
+        if (json.length() > 1) {
+            json.setLength(json.length() - 1);
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static String transaction(int asset, long cents) {
+        return "{\"" + asset + "\":" + BigDecimal.valueOf(cents, 2).toPlainString() + "},";
+    }
+
+    private String adjustments(int level, String... amounts) {
+        try {
+            return portfolios.getAdjustments(level, amounts);
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static String portfolioJson(Portfolios portfolios, int level) {
+        return new String((byte[]) portfolios.getRiskLevelPortfolio(level, null).getEntity(), StandardCharsets.UTF_8);
+    }
+
+    private static void writePortfolios(File file, int bonds, int largeCap) throws IOException {
+        String json = String.format("{\"risk_levels\": [{\"level\": 1, \"bonds_pct\": %d, \"large_cap_pct\": %d}]}",
+                bonds, largeCap);
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.tackleset.invest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RebalancerBenchmark measures rebalancing one account of 5, 50 or 500 assets and writing its transactions
+ *
+ * amounts=distinct gives every asset its own amount, so nearly every delta is offset, amounts=cancelling draws them
+ * from a few round amounts, so many deltas cancel out in pairs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RebalancerBenchmark {
+
+    @Param({"5", "50", "500"})
+    public int assets;
+
+    @Param({"distinct", "cancelling"})
+    public String amounts;
+
+    private int[] percents;
+    private String[] amountStrs;
+    private Rebalancer rebalancer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        percents = new int[assets];
+        for (int i = 0; i < 100; i++) {
+            percents[random.nextInt(assets)]++;
+        }
+        long[] cents = new long[assets];
+        if ("distinct".equals(amounts)) {
+            for (int i = 0; i < assets; i++) {
+                cents[i] = 100 + random.nextInt(10000000);
+            }
+        } else {
+            // every asset on target, then pairs moving a round amount from an asset holding it to another
+            long total = 100000L * assets;
+            for (int i = 0; i < assets; i++) {
+                cents[i] = percents[i] * total / 100;
+            }
+            for (int i = 0; i < assets; i++) {
+                long amount = (1 + random.nextInt(3)) * 2500;
+                int to = random.nextInt(assets);
+                if (cents[i] >= amount && to != i) {
+                    cents[i] -= amount;
+                    cents[to] += amount;
+                }
+            }
+        }
+        amountStrs = new String[assets];
+        for (int i = 0; i < assets; i++) {
+            amountStrs[i] = BigDecimal.valueOf(cents[i], 2).toPlainString();
+        }
+        rebalancer = Rebalancer.get(assets);
+    }
+
+    @Benchmark
+    public String rebalance() {
+        rebalancer.rebalance(percents, amountStrs);
+        return rebalancer.toJson();
+    }
+}